@@ -0,0 +1,10 @@
+#!/bin/sh
+# Rebuilds and reruns the benchmarks with the settings baseline/ was recorded with.
+# Usage: jmh/run-baseline.sh [out-dir] [jmh filter...]   (from DSH-REPL/)
+set -e
+OUT=${1:-jmh/baseline}
+[ $# -gt 0 ] && shift
+mvn -B -q package
+mkdir -p "$OUT"
+java -jar jmh/target/benchmarks.jar -f 1 -wi 2 -w 1s -i 3 -r 1s -prof gc \
+    -rf json -rff "$OUT/results.json" "$@" | tee "$OUT/results.txt"
@@ -0,0 +1,86 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Value arithmetic broadcast over lists and matrices: scalar with list,
+ * list with list, and a square matrix with a scalar and with itself.
+ * size is the element count (the matrix is the nearest square).
+ *
+ * @author Ryan Pointer
+ * @version 8/24/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    // Value caps list and matrix arithmetic at 10000 elements
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private AList<Value> list;
+    private AList<Value> other;
+    private AMatrix matrix;
+    private Value scalar;
+
+    @Setup
+    public void setup() {
+        List<Value> a = new ArrayList<>(size);
+        List<Value> b = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            a.add(ANumber.of(i));
+            b.add(ANumber.of(size - i));
+        }
+        list = new AList<>(a);
+        other = new AList<>(b);
+        scalar = ANumber.of(3);
+
+        int side = (int) Math.sqrt(size);
+        List<List<Value>> rows = new ArrayList<>(side);
+        for (int r = 0; r < side; r++) {
+            rows.add(new ArrayList<>(a.subList(r * side, (r + 1) * side)));
+        }
+        matrix = new AMatrix(rows);
+
+        if (list.multiply(scalar).isError() || matrix.add(matrix).isError()) {
+            throw new IllegalStateException("size " + size + " is past what Value will broadcast");
+        }
+    }
+
+    @Benchmark
+    public Object listTimesScalar() {
+        return list.multiply(scalar);
+    }
+
+    @Benchmark
+    public Object listPlusList() {
+        return list.add(other);
+    }
+
+    @Benchmark
+    public Object matrixTimesScalar() {
+        return matrix.multiply(scalar);
+    }
+
+    @Benchmark
+    public Object matrixPlusMatrix() {
+        return matrix.add(matrix);
+    }
+}
@@ -0,0 +1,57 @@
+package dsh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calculator.evaluate on nested expressions. depth is how many parenthesised
+ * levels wrap the innermost term, each one another rescan by the splitter.
+ * Depth 0 is a bare variable lookup.
+ *
+ * @author Ryan Pointer
+ * @version 8/24/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatorBenchmark {
+    @Param({"0", "1", "4", "16"})
+    public int depth;
+
+    private Calculator calculator;
+    private String expression;
+
+    @Setup
+    public void setup() {
+        Environment env = new Environment();
+        env.set("x", ANumber.of(7));
+        env.set("y", ANumber.of(3));
+        calculator = new Calculator(env);
+
+        // depth 2: ((x*2+y)*2+y)
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < depth; i++) {
+            sb.insert(0, '(').append("*2+y)");
+        }
+        expression = sb.toString();
+    }
+
+    @Benchmark
+    public Object nested() {
+        return calculator.evaluate(expression);
+    }
+}
@@ -0,0 +1,128 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every built in command through CommandRegistry.execute, with the result cache
+ * switched off so pure commands do their real work each time. "cached" measures
+ * the hit path for the same call. unshare is left out because only its first call
+ * has anything to remove.
+ *
+ * @author Ryan Pointer
+ * @version 8/24/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+    @Param({"size", "factorial", "permutation", "combination", "gcd", "lcm", "modpow",
+            "isprime", "factor", "fibonacci", "fib", "primes", "primecount", "primestream", "binomial",
+            "derangements", "catalan", "range", "column", "share",
+            "sum", "mean", "min", "max", "variance", "histogram"})
+    public String command;
+
+    private CommandRegistry registry;
+    private CommandRegistry cachedRegistry;
+    private Environment env;
+    private Value[] args;
+
+    @Setup
+    public void setup() {
+        registry = new CommandRegistry();
+        registry.getCache().setMaxBytes(0);
+        cachedRegistry = new CommandRegistry();
+        env = new Environment();
+        if (!registry.hasCommand(command)) {
+            throw new IllegalStateException("no command " + command);
+        }
+        args = argsFor(command);
+        if (CommandBroadcast.isError(registry.execute(command, env, args))) {
+            throw new IllegalStateException(command + " rejected its benchmark arguments");
+        }
+    }
+
+    @Benchmark
+    public Object uncached() {
+        return registry.execute(command, env, args);
+    }
+
+    @Benchmark
+    public Object cached() {
+        return cachedRegistry.execute(command, env, args);
+    }
+
+    // a mid sized, realistic call for each command
+    private static Value[] argsFor(String command) {
+        switch (command) {
+            case "size":
+            case "column":
+                AMatrix m = matrix(100, 10);
+                return command.equals("size") ? new Value[]{m} : new Value[]{m, ANumber.of(3)};
+            case "factorial":    return numbers(1000);
+            case "permutation":
+            case "combination":
+            case "binomial":     return numbers(1000, 500);
+            case "gcd":
+            case "lcm":          return numbers(1234567890L, 9876543210L);
+            case "modpow":       return numbers(7, 1000003, 1000000007);
+            case "isprime":      return numbers(1000000007);
+            case "factor":       return numbers(600851475143L);
+            case "fibonacci":    return numbers(1000);
+            case "fib":          return numbers(10000);
+            case "primes":       return numbers(100000);
+            case "primecount":   return numbers(1000000);
+            case "primestream":  return numbers(100000);
+            case "derangements":
+            case "catalan":      return numbers(1000);
+            case "range":        return numbers(100000);
+            case "share":        return new Value[]{AString.of("bench"), ANumber.of(42)};
+            case "histogram":    return new Value[]{list(100000), ANumber.of(10)};
+            default:             return new Value[]{list(100000)}; // sum, mean, min, max, variance
+        }
+    }
+
+    private static Value[] numbers(long... values) {
+        Value[] out = new Value[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = ANumber.of(values[i]);
+        }
+        return out;
+    }
+
+    private static AList<Value> list(int n) {
+        List<Value> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add(ANumber.of((i * 7919L) % 1000));
+        }
+        return new AList<>(values);
+    }
+
+    private static AMatrix matrix(int rows, int cols) {
+        List<List<Value>> data = new ArrayList<>(rows);
+        for (int r = 0; r < rows; r++) {
+            List<Value> row = new ArrayList<>(cols);
+            for (int c = 0; c < cols; c++) {
+                row.add(ANumber.of(r * cols + c));
+            }
+            data.add(row);
+        }
+        return new AMatrix(data);
+    }
+}
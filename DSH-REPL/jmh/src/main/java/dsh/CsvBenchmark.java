@@ -0,0 +1,71 @@
+package dsh;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AMatrix loading a numeric CSV (with a header row) of rows x 8 columns.
+ * The file is written once per trial, so this is mostly page cache reads plus parsing.
+ *
+ * @author Ryan Pointer
+ * @version 8/24/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvBenchmark {
+    private static final int COLS = 8;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        file = Files.createTempFile("dsh-bench", ".csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int c = 0; c < COLS; c++) {
+                out.print(c == 0 ? "c0" : ",c" + c);
+            }
+            out.println();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    if (c > 0) out.print(',');
+                    out.print(c % 2 == 0 ? Integer.toString(r * COLS + c) : (r + c) + ".25");
+                }
+                out.println();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object load() throws IOException {
+        return new AMatrix(file.toString(), true);
+    }
+}
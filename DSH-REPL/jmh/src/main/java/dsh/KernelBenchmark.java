@@ -0,0 +1,92 @@
+package dsh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Kernels loops, plain against the Vector API, over long[]s of size elements.
+ * The fork adds the incubator module, so this one needs JDK 17+. If VectorKernels
+ * doesn't load there anyway (no SIMD, or a jar built without the vector profile)
+ * the vector runs fail in setup rather than quietly measuring the plain loops twice.
+ *
+ * @author Ryan Pointer
+ * @version 8/31/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Kernels k;
+    private long[] a;
+    private long[] b;
+    private long[] out;
+
+    @Setup
+    public void setup() {
+        k = kernels.equals("scalar") ? Kernels.scalar() : Kernels.get();
+        if (!kernels.equals("scalar") && k == Kernels.scalar()) {
+            throw new IllegalStateException("VectorKernels didn't load on this JVM");
+        }
+        Random random = new Random(42);
+        a = new long[size];
+        b = new long[size];
+        out = new long[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = random.nextInt(1 << 20) - (1 << 19); // small enough that * stays on the fast path
+            b[i] = random.nextInt(1 << 20) - (1 << 19);
+        }
+    }
+
+    @Benchmark
+    public long[] add() {
+        k.add(a, 0, b, 0, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public long[] multiply() {
+        k.multiply(a, 0, b, 0, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public long sum() {
+        return k.sum(a, size);
+    }
+
+    @Benchmark
+    public long minMax() {
+        return k.min(a, size) + k.max(a, size);
+    }
+
+    @Benchmark
+    public double squaredDeviations() {
+        return k.squaredDeviations(a, size, 0.5);
+    }
+
+    @Benchmark
+    public long dot() {
+        return k.dot(a, 0, b, 0, size);
+    }
+}
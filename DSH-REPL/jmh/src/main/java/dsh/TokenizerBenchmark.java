@@ -0,0 +1,54 @@
+package dsh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenizer.tokenize on the kinds of line people actually type.
+ *
+ * @author Ryan Pointer
+ * @version 8/24/25
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({"command", "assignment", "expression", "list", "macro"})
+    public String shape;
+
+    private Tokenizer tokenizer;
+    private String line;
+
+    @Setup
+    public void setup() {
+        switch (shape) {
+            case "command":    line = ":combination 52 5"; break;
+            case "assignment": line = "x = :factorial 20"; break;
+            case "expression": line = "#((a+b)*(c-d)/(e+1))^2"; break;
+            case "list":       line = "xs = [1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16]"; break;
+            case "macro":      line = "y = :gcd x 12 ; z = #(y*2) ; ;step"; break;
+            default: throw new IllegalArgumentException(shape);
+        }
+        tokenizer = new Tokenizer(line);
+    }
+
+    @Benchmark
+    public Object tokenize() {
+        tokenizer.reset(line);
+        return tokenizer.tokenize();
+    }
+}
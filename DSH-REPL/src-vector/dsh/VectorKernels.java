@@ -0,0 +1,178 @@
+package dsh;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on the Vector API, as many longs at once as the CPU's widest registers
+ * hold (4 with AVX2, 2 with NEON). Kept in src-vector, a source root only the vector
+ * profile (JDK 17+) compiles, and only used when the JVM runs with
+ * --add-modules jdk.incubator.vector, see Kernels.get().
+ *
+ * Overflow is caught a vector at a time: sign bits of the lanes that overflowed are
+ * OR'ed together and checked once at the end. A multiply only stays vectorized while
+ * every operand fits 31 bits, past that it is redone by the checked plain loop.
+ *
+ * @author Ryan Pointer
+ * @version 8/31/25
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorKernels() {
+        if (LONGS.length() < 2 || DOUBLES.length() != LONGS.length()) {
+            throw new UnsupportedOperationException("no SIMD registers wider than a long");
+        }
+    }
+
+    @Override
+    String name() {
+        return "vector (" + LONGS.vectorBitSize() + " bit, " + LONGS.length() + " longs)";
+    }
+
+    @Override
+    void add(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector overflow = LongVector.zero(LONGS);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, a, ai + i);
+            LongVector y = LongVector.fromArray(LONGS, b, bi + i);
+            LongVector r = x.add(y);
+            overflow = overflow.or(x.lanewise(VectorOperators.XOR, r).and(y.lanewise(VectorOperators.XOR, r)));
+            r.intoArray(out, oi + i);
+        }
+        if (overflow.reduceLanes(VectorOperators.OR) < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        super.add(a, ai + i, b, bi + i, out, oi + i, n - i);
+    }
+
+    @Override
+    void subtract(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector overflow = LongVector.zero(LONGS);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, a, ai + i);
+            LongVector y = LongVector.fromArray(LONGS, b, bi + i);
+            LongVector r = x.sub(y);
+            overflow = overflow.or(x.lanewise(VectorOperators.XOR, y).and(x.lanewise(VectorOperators.XOR, r)));
+            r.intoArray(out, oi + i);
+        }
+        if (overflow.reduceLanes(VectorOperators.OR) < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        super.subtract(a, ai + i, b, bi + i, out, oi + i, n - i);
+    }
+
+    @Override
+    void multiply(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector magnitude = LongVector.zero(LONGS);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, a, ai + i);
+            LongVector y = LongVector.fromArray(LONGS, b, bi + i);
+            // x ^ (x >> 63) is |x| (one less for negatives), OR'ed so one check covers both
+            magnitude = magnitude.or(x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.ASHR, 63)))
+                .or(y.lanewise(VectorOperators.XOR, y.lanewise(VectorOperators.ASHR, 63)));
+            x.mul(y).intoArray(out, oi + i);
+        }
+        if ((magnitude.reduceLanes(VectorOperators.OR) >>> 31) != 0) {
+            super.multiply(a, ai, b, bi, out, oi, n); // something might have overflowed, let the checked loop decide
+            return;
+        }
+        super.multiply(a, ai + i, b, bi + i, out, oi + i, n - i);
+    }
+
+    @Override
+    long sum(long[] a, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector sum = LongVector.zero(LONGS);
+        LongVector overflow = LongVector.zero(LONGS);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, a, i);
+            LongVector r = sum.add(x);
+            overflow = overflow.or(sum.lanewise(VectorOperators.XOR, r).and(x.lanewise(VectorOperators.XOR, r)));
+            sum = r;
+        }
+        if (overflow.reduceLanes(VectorOperators.OR) < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        long total = 0;
+        for (int lane = 0; lane < LONGS.length(); lane++) {
+            total = Math.addExact(total, sum.lane(lane));
+        }
+        for (; i < n; i++) {
+            total = Math.addExact(total, a[i]);
+        }
+        return total;
+    }
+
+    @Override
+    long min(long[] a, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector min = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            min = min.min(LongVector.fromArray(LONGS, a, i));
+        }
+        long result = min.reduceLanes(VectorOperators.MIN);
+        for (; i < n; i++) {
+            result = Math.min(result, a[i]);
+        }
+        return result;
+    }
+
+    @Override
+    long max(long[] a, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector max = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            max = max.max(LongVector.fromArray(LONGS, a, i));
+        }
+        long result = max.reduceLanes(VectorOperators.MAX);
+        for (; i < n; i++) {
+            result = Math.max(result, a[i]);
+        }
+        return result;
+    }
+
+    @Override
+    double squaredDeviations(long[] a, int n, double mean) {
+        int upper = LONGS.loopBound(n);
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            DoubleVector d = ((DoubleVector) LongVector.fromArray(LONGS, a, i).convert(VectorOperators.L2D, 0)).sub(mean);
+            sum = d.mul(d).add(sum); // not fma, so it rounds the same as the tail and Kernels
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            double d = a[i] - mean;
+            result += d * d;
+        }
+        return result;
+    }
+
+    @Override
+    long dot(long[] a, int ai, long[] b, int bi, int n) {
+        int upper = LONGS.loopBound(n);
+        LongVector sum = LongVector.zero(LONGS);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            sum = LongVector.fromArray(LONGS, a, ai + i).mul(LongVector.fromArray(LONGS, b, bi + i)).add(sum);
+        }
+        long result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            result += a[ai + i] * b[bi + i];
+        }
+        return result;
+    }
+}
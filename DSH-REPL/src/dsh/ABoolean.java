@@ -9,6 +9,13 @@ package dsh;
 public class ABoolean implements Value{
 	private final Boolean value;
 	
+	public static final ABoolean TRUE = new ABoolean(true);
+	public static final ABoolean FALSE = new ABoolean(false);
+	
+	public static ABoolean of(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+	
 	public ABoolean(Boolean value) {
 		this.value = value;
 	}
@@ -19,13 +26,13 @@ public class ABoolean implements Value{
 	
 	public Result<Value> asNumber() {
 		if (value) {
-			return Result.ok(new ANumber(java.math.BigDecimal.ONE));
+			return Result.ok(ANumber.ONE);
 		}
-		return Result.ok(new ANumber(java.math.BigDecimal.ZERO));
+		return Result.ok(ANumber.ZERO);
 	}
 
 	public Result<Value> asString() {
-		return Result.ok(new AString(Boolean.toString(value)));
+		return Result.ok(value ? AString.TRUE : AString.FALSE);
 	}
 
 	public Result<Value> asBoolean() {
@@ -35,6 +42,10 @@ public class ABoolean implements Value{
 	public String type() {
 		return "boolean";
 	}
+
+	public Kind kind() {
+		return Kind.BOOLEAN;
+	}
 	
 	public String toString() {
 		return value.toString();
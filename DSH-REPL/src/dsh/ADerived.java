@@ -0,0 +1,308 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A variable defined with y := <line>. It keeps the line instead of a value and is
+ * recomputed on the first read after one of its inputs changed, so reloading x is
+ * enough for y := #(x*2+1) to follow. Environment.get hands back current() rather
+ * than the binding, the same way it waits on an AJob.
+ *
+ * Inputs are the variables the line mentions, each remembered as the value (and,
+ * for lists and matrices changed in place, the version) seen at the last compute.
+ * When the only change is rows added with AMatrix.addRow to the one matrix input and
+ * the line is element-wise arithmetic, only the new rows are computed, and the result
+ * is a new matrix sharing the last one's rows (which stays as it was). A line running a macro or a command, or calling a function,
+ * may read anything, so it is recomputed on every read.
+ * The inputs seen and the last result are held (see Environment.hold) until the next
+ * compute replaces them or the variable lets go of the derived one.
+ *
+ * @author Ryan Pointer
+ * @version 8/28/25
+ */
+public class ADerived implements Value {
+    // no comparisons or calls, so row i of the result only depends on row i of the input
+    private static final Pattern ROWWISE = Pattern.compile("[A-Za-z0-9_.\\s+\\-*/%^()]*[+\\-*/%^][A-Za-z0-9_.\\s+\\-*/%^()]*");
+
+    private final String source;
+    private final List<Token> tokens;
+    private final String[] inputs; // null when they can't be known
+    private final boolean rowwise;
+    private final TokenDispatcher dispatcher;
+    private final Environment env;
+
+    private Value cached; // null until computed, or after a failed compute
+    private final Value[] seen;
+    private final long[] seenVersions;
+    private int matrixInput = -1; // the input the partial path slices, -1 for none
+    private long seenRewrites;
+    private int seenRows;
+    private boolean computing;
+    private int computes;
+    private int partials;
+
+    ADerived(String source, List<Token> tokens, TokenDispatcher dispatcher) {
+        this.source = source;
+        this.tokens = new ArrayList<>(tokens);
+        this.inputs = inputs(tokens);
+        this.rowwise = inputs != null && tokens.size() == 1 && tokens.get(0).getType() == Token.TokenType.EXPRESSION
+            && ROWWISE.matcher(tokens.get(0).getValue().substring(1)).matches();
+        this.dispatcher = dispatcher;
+        this.env = dispatcher.getEnvironment();
+        this.seen = new Value[inputs != null ? inputs.length : 0];
+        this.seenVersions = new long[seen.length];
+    }
+
+    /**
+     * The value, recomputed first if an input changed since the last time.
+     * A failure comes back as an "Error: ..." string, like a failed job's, and is
+     * tried again on the next read.
+     */
+    public Value current() {
+        Result<Value> value = refresh();
+        return value.isOk() ? value.getValue() : new AString("Error: " + value.getErrorMessage());
+    }
+
+    // current() as a Result
+    synchronized Result<Value> refresh() {
+        if (computing) {
+            return Result.error(Result.ErrorType.RUNTIME, source + " depends on itself");
+        }
+        computing = true;
+        Environment.Frame outer = env.enter(null); // inputs are variables, never a caller's locals
+        try {
+            if (cached != null && inputs != null) {
+                int changed = changed();
+                if (changed == -1) {
+                    return Result.ok(cached);
+                }
+                if (changed == matrixInput && appendRows()) {
+                    return Result.ok(cached);
+                }
+            }
+            return recompute();
+        } finally {
+            env.leave(outer);
+            computing = false;
+        }
+    }
+
+    // -1 if nothing changed, the input if that is the only one and it only had rows added, else inputs.length
+    private int changed() {
+        int appended = -1;
+        for (int i = 0; i < inputs.length; i++) {
+            Value now = env.get(inputs[i]);
+            if (now == seen[i] && versionOf(now) == seenVersions[i]) {
+                continue;
+            }
+            boolean onlyAppended = i == matrixInput && now == seen[i]
+                && ((AMatrix) now).getRewrites() == seenRewrites && ((AMatrix) now).getRows() > seenRows;
+            if (!onlyAppended || appended != -1) {
+                return inputs.length;
+            }
+            appended = i;
+        }
+        return appended;
+    }
+
+    private Result<Value> recompute() {
+        Result<Value> result = dispatcher.evaluateLine(tokens);
+        computes++;
+        if (result.isError()) {
+            Environment.drop(cached);
+            cached = null;
+            return result;
+        }
+        cached = keep(cached, result.getValue() != null ? result.getValue() : ANull.INSTANCE);
+        matrixInput = -1;
+        int collections = 0;
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = keep(seen[i], env.get(inputs[i]));
+            seenVersions[i] = versionOf(seen[i]);
+            if (seen[i].kind().isCollection()) {
+                collections++;
+                if (seen[i] instanceof AMatrix) matrixInput = i;
+            }
+        }
+        // the partial path needs one matrix in, a matrix of its own out with a row per row
+        if (!rowwise || collections != 1 || matrixInput == -1 || !(cached instanceof AMatrix) || cached == seen[matrixInput]
+                || ((AMatrix) cached).getRows() != ((AMatrix) seen[matrixInput]).getRows()) {
+            matrixInput = -1;
+        } else {
+            seenRewrites = ((AMatrix) seen[matrixInput]).getRewrites();
+            seenRows = ((AMatrix) seen[matrixInput]).getRows();
+        }
+        return Result.ok(cached);
+    }
+
+    // the line over just the new rows, under the last result's; false to recompute it all instead
+    private boolean appendRows() {
+        AMatrix input = (AMatrix) seen[matrixInput];
+        AMatrix result = (AMatrix) cached;
+        int rows = input.getRows();
+        @SuppressWarnings("unchecked")
+        List<List<Value>> all = (List<List<Value>>) input.getValue();
+        Environment.Frame slice = new Environment.Frame(new String[]{inputs[matrixInput]});
+        slice.values[0] = new AMatrix(all.subList(seenRows, rows));
+
+        Environment.Frame outer = env.enter(slice);
+        Result<Value> added;
+        try {
+            added = dispatcher.evaluateLine(tokens);
+        } finally {
+            env.leave(outer);
+        }
+        if (added.isError() || !(added.getValue() instanceof AMatrix)
+                || ((AMatrix) added.getValue()).getRows() != rows - seenRows) {
+            return false;
+        }
+        // a new matrix, the last one has been handed out and must stay as it was
+        @SuppressWarnings("unchecked")
+        List<List<Value>> newRows = (List<List<Value>>) added.getValue().getValue();
+        AMatrix grown = result.plusRows(newRows);
+        if (grown == null) {
+            return false;
+        }
+        cached = keep(cached, grown);
+        partials++;
+        seenVersions[matrixInput] = input.getVersion();
+        seenRows = rows;
+        return true;
+    }
+
+    // hold next in place of last, held first in case they are the same
+    private static Value keep(Value last, Value next) {
+        Environment.hold(next);
+        Environment.drop(last);
+        return next;
+    }
+
+    // Environment.drop, its variable let go of it; a read after this computes it all again
+    synchronized void drop() {
+        Environment.drop(cached);
+        cached = null;
+        for (int i = 0; i < seen.length; i++) {
+            Environment.drop(seen[i]);
+            seen[i] = null;
+        }
+    }
+
+    private static long versionOf(Value value) {
+        if (value instanceof AMatrix) return ((AMatrix) value).getVersion();
+        if (value instanceof AList) return ((AList<?>) value).getVersion();
+        return 0;
+    }
+
+    /**
+     * The variables a line reads, or null if it runs a macro or a command, or calls
+     * a function (any of which could read anything).
+     */
+    static String[] inputs(List<Token> tokens) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Token token : tokens) {
+            switch (token.getType()) {
+                case VARIABLE:
+                    names.add(token.getValue());
+                    break;
+                case EXPRESSION:
+                    if (!identifiers(token.getValue().substring(1), names)) return null;
+                    break;
+                case MACRO:
+                case COMMAND:
+                case ASYNC_COMMAND:
+                    return null;
+                default:
+                    break;
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    // names in an expression, false if one of them is called
+    private static boolean identifiers(String expression, Set<String> names) {
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                int close = i + 1;
+                while (close < expression.length() && (expression.charAt(close) != '"' || expression.charAt(close - 1) == '\\')) {
+                    close++;
+                }
+                i = close + 1;
+            } else if (Character.isDigit(c) || c == '.') {
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+                    i++; // 2e3 is a number, not 2 and e3
+                }
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_')) {
+                    i++;
+                }
+                int next = i;
+                while (next < expression.length() && expression.charAt(next) == ' ') next++;
+                if (next < expression.length() && expression.charAt(next) == '(') {
+                    return false;
+                }
+                String name = expression.substring(start, i);
+                if (!name.equals("true") && !name.equals("false") && !name.equals("null")) {
+                    names.add(name);
+                }
+            } else {
+                i++;
+            }
+        }
+        return true;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // how often the whole line ran, and how often only new rows did
+    public int getComputes() {
+        return computes;
+    }
+
+    public int getPartials() {
+        return partials;
+    }
+
+    @Override
+    public Result<Value> asNumber() {
+        return current().asNumber();
+    }
+
+    @Override
+    public Result<Value> asString() {
+        return current().asString();
+    }
+
+    @Override
+    public Result<Value> asBoolean() {
+        return current().asBoolean();
+    }
+
+    @Override
+    public String type() {
+        return "derived";
+    }
+
+    @Override
+    public Kind kind() {
+        return Kind.UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return "<derived := " + source + ", " + computes + " compute(s), " + partials + " partial>";
+    }
+
+    @Override
+    public Object getValue() {
+        return tokens;
+    }
+}
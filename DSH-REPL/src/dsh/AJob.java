@@ -0,0 +1,153 @@
+package dsh;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A command running in the background, started with &:command.
+ * It sits in the Environment like any other value until someone reads it,
+ * at which point Environment.get waits for the result and binds that instead.
+ * The job holds its arguments while it runs and its result once it has one
+ * (see Environment.hold), until the variable it was assigned to lets go of it.
+ *
+ * @author Ryan Pointer
+ * @version 8/19/25
+ */
+public class AJob implements Value {
+    private final int id;
+    private final String description;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile String variable; // the name it was assigned to, if any
+    private volatile Future<Value> future;
+    private Value kept;        // the result, held for the variable
+    private boolean abandoned; // let go of before it finished, nothing will read the result
+
+    AJob(int id, String description) {
+        this.id = id;
+        this.description = description;
+    }
+
+    void start(Future<Value> future) {
+        this.future = future;
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+    }
+
+    // on the job's thread, before it lets go of the arguments (the result may be one)
+    synchronized Value keep(Value result) {
+        if (!abandoned) {
+            Environment.hold(result);
+            kept = result;
+        }
+        return result;
+    }
+
+    // Environment.drop, the variable holding the job let go of it
+    synchronized void drop() {
+        abandoned = true;
+        Environment.drop(kept);
+        kept = null;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    void setVariable(String variable) {
+        this.variable = variable;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    public boolean cancel() {
+        return future.cancel(true);
+    }
+
+    public String status() {
+        if (future.isCancelled()) return "cancelled";
+        if (!future.isDone()) return "running";
+        try {
+            future.get();
+            return "done";
+        } catch (InterruptedException | ExecutionException e) {
+            return "failed";
+        }
+    }
+
+    // seconds so far, or until it finished
+    public double elapsedSeconds() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Block until the job is finished and return its result.
+     * Failures and cancellation come back as "Error: ..." strings, like a failed command's.
+     */
+    public Value await() {
+        try {
+            Value result = future.get();
+            return result != null ? result : ANull.INSTANCE;
+        } catch (CancellationException e) {
+            return new AString("Error: job " + id + " was cancelled");
+        } catch (ExecutionException e) {
+            return new AString("Error: job " + id + " failed - " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AString("Error: interrupted waiting for job " + id);
+        }
+    }
+
+    private Result<Value> pending() {
+        return Result.error(Result.ErrorType.RUNTIME, "Job " + id + " (" + description + ") is still running");
+    }
+
+    @Override
+    public Result<Value> asNumber() {
+        return isDone() ? await().asNumber() : pending();
+    }
+
+    @Override
+    public Result<Value> asString() {
+        return isDone() ? await().asString() : pending();
+    }
+
+    @Override
+    public Result<Value> asBoolean() {
+        return isDone() ? await().asBoolean() : pending();
+    }
+
+    @Override
+    public String type() {
+        return "job";
+    }
+
+    @Override
+    public Kind kind() {
+        return Kind.UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<job %d: %s, %s %.1fs>", id, description, status(), elapsedSeconds());
+    }
+
+    @Override
+    public Object getValue() {
+        return future;
+    }
+}
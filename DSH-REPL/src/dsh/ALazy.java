@@ -0,0 +1,251 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A variable assigned with y ~= #(...). The expression isn't run until y is read,
+ * so a list that is never looked at is never built. The variables it mentions are
+ * captured when it is assigned, so reassigning them afterwards doesn't change y,
+ * the same as with =. The first read runs it against those and the binding is
+ * replaced by the value, after that y is an ordinary variable.
+ *
+ * A lazy input that hasn't been read yet is inlined rather than captured: after
+ * t ~= #(a*2) and y ~= #(t+b-3), y is the one expression (a*2)+b-3 and t's list
+ * is never built unless t is read on its own. One whose inputs clash with names y
+ * already uses is computed instead, so each name in y means one thing.
+ *
+ * Lists and matrices are captured by reference, so one changed in place before the
+ * read (:addrow, :put) shows through. The lazy value holds them (see Environment.hold)
+ * until it is read, and its value after that until its variable lets go of it.
+ *
+ * @author Ryan Pointer
+ * @version 8/29/25
+ */
+public class ALazy implements Value {
+    private final String expression;
+    private final Calculator calculator;
+    private final Environment env;
+    private Environment.Frame inputs; // dropped once materialized, so the inputs can go
+    private Value value;
+    private Result<Value> failure;
+    private boolean dropped;
+
+    private ALazy(String expression, Environment.Frame inputs, Calculator calculator, Environment env) {
+        this.expression = expression;
+        this.inputs = inputs;
+        this.calculator = calculator;
+        this.env = env;
+        for (Value input : inputs.values) {
+            Environment.hold(input);
+        }
+    }
+
+    /**
+     * Capture what expression reads from env. names are the variables in it
+     * (see ADerived.inputs); an undefined one is an error now, like it is with =.
+     */
+    static Result<ALazy> capture(String expression, String[] names, Calculator calculator, Environment env) {
+        Map<String, Value> captured = new LinkedHashMap<>();
+        List<ALazy> inlined = new ArrayList<>();
+        List<String> inlinedNames = new ArrayList<>();
+        for (String name : names) {
+            if (!env.has(name)) {
+                return Result.error(Result.ErrorType.RUNTIME, "Undefined variable '" + name + "'");
+            }
+            Value raw = env.peek(name);
+            if (raw instanceof ALazy && !((ALazy) raw).isMaterialized()) {
+                inlined.add((ALazy) raw);
+                inlinedNames.add(name);
+            } else {
+                captured.put(name, env.get(name));
+            }
+        }
+        // an inlined expression brings its own inputs, unless one of them is a different value
+        // by now or is a name being inlined here (u in t's text isn't the u y means)
+        Map<String, String> replacements = new HashMap<>();
+        for (int i = 0; i < inlined.size(); i++) {
+            ALazy inner = inlined.get(i);
+            Map<String, Value> innerInputs = inner.inputMap();
+            boolean fits = innerInputs != null;
+            if (fits) {
+                for (Map.Entry<String, Value> entry : innerInputs.entrySet()) {
+                    Value same = captured.get(entry.getKey());
+                    fits &= !inlinedNames.contains(entry.getKey()) && (same == null || same == entry.getValue());
+                }
+            }
+            if (fits) {
+                captured.putAll(innerInputs);
+                replacements.put(inlinedNames.get(i), enclosed(inner.expression) ? inner.expression : "(" + inner.expression + ")");
+            } else {
+                captured.put(inlinedNames.get(i), inner.current());
+            }
+        }
+        expression = substitute(expression, replacements); // one pass, inlined text isn't looked at again
+
+        Environment.Frame frame = new Environment.Frame(captured.keySet().toArray(new String[0]));
+        int slot = 0;
+        for (Value input : captured.values()) {
+            frame.values[slot++] = input;
+        }
+        return Result.ok(new ALazy(expression, frame, calculator, env));
+    }
+
+    /**
+     * The value, computed on the first call. A failure comes back as an "Error: ..."
+     * string, like a failed job's, and stays that way.
+     */
+    public synchronized Value current() {
+        if (value == null && failure == null) {
+            Environment.Frame outer = env.enter(inputs); // only what was captured, not what the names mean now
+            try {
+                Result<Value> result = calculator.evaluate(expression);
+                if (result.isOk()) {
+                    value = result.getValue();
+                    Environment.hold(value); // before the inputs go, it may be one of them
+                } else {
+                    failure = result;
+                }
+            } finally {
+                env.leave(outer);
+            }
+            dropInputs();
+        }
+        return value != null ? value : new AString("Error: " + failure.getErrorMessage());
+    }
+
+    public synchronized boolean isMaterialized() {
+        return value != null;
+    }
+
+    // Environment.drop, its variable let go of it: it lets go of its inputs, or of its value if it was read
+    synchronized void drop() {
+        if (dropped) {
+            return;
+        }
+        dropped = true;
+        if (inputs != null) {
+            dropInputs();
+            failure = Result.error(Result.ErrorType.RUNTIME, "'" + expression + "' was let go of before it was read");
+        }
+        Environment.drop(value);
+    }
+
+    private void dropInputs() {
+        for (Value input : inputs.values) {
+            Environment.drop(input);
+        }
+        inputs = null;
+    }
+
+    // the captured inputs by name, null once they are gone
+    private synchronized Map<String, Value> inputMap() {
+        if (inputs == null) {
+            return null;
+        }
+        Map<String, Value> map = new LinkedHashMap<>();
+        for (String name : inputs.names()) {
+            map.put(name, inputs.values[inputs.indexOf(name)]);
+        }
+        return map;
+    }
+
+    // (...) with the first ( closing at the very end
+    private static boolean enclosed(String expression) {
+        if (!expression.startsWith("(") || !expression.endsWith(")")) {
+            return false;
+        }
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '"' && (i == 0 || expression.charAt(i - 1) != '\\')) {
+                inString = !inString;
+            } else if (!inString && c == '(') {
+                depth++;
+            } else if (!inString && c == ')' && --depth == 0 && i < expression.length() - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // each name in replacements as a whole identifier, outside of strings, replaced by its text
+    static String substitute(String expression, Map<String, String> replacements) {
+        if (replacements.isEmpty()) {
+            return expression;
+        }
+        StringBuilder sb = new StringBuilder(expression.length() * 2);
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            int start = i;
+            if (c == '"') {
+                i++;
+                while (i < expression.length() && (expression.charAt(i) != '"' || expression.charAt(i - 1) == '\\')) {
+                    i++;
+                }
+                i = Math.min(i + 1, expression.length());
+                sb.append(expression, start, i);
+            } else if (Character.isDigit(c) || c == '.') {
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+                    i++; // 2e3 is a number, not 2 and e3
+                }
+                sb.append(expression, start, i);
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_')) {
+                    i++;
+                }
+                String word = expression.substring(start, i);
+                String replacement = replacements.get(word);
+                sb.append(replacement != null ? replacement : word);
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public Result<Value> asNumber() {
+        return current().asNumber();
+    }
+
+    @Override
+    public Result<Value> asString() {
+        return current().asString();
+    }
+
+    @Override
+    public Result<Value> asBoolean() {
+        return current().asBoolean();
+    }
+
+    @Override
+    public String type() {
+        return "lazy";
+    }
+
+    @Override
+    public Kind kind() {
+        return Kind.UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return isMaterialized() ? value.toString() : "<lazy ~= #" + expression + ">";
+    }
+
+    @Override
+    public Object getValue() {
+        return expression;
+    }
+}
@@ -14,6 +14,9 @@ import java.util.List;
 public class AList<T extends Value> implements Value {
     private List<T> elements;
     private Class<?> elementType; // Enforces homogeneous type at runtime
+    private volatile boolean frozen; // set once shared between sessions, no more put/set/clear
+    private long version; // every change, so derived variables can tell they are stale
+    private int holders;  // what keeps this, see Environment.hold
 
     public AList() {
         this.elements = new ArrayList<>();
@@ -27,38 +30,83 @@ public class AList<T extends Value> implements Value {
         }
     }
 
+    /**
+     * A list of integers kept in a primitive long[] rather than one ANumber each.
+     * It is boxed into a normal list the first time something non integer is stored.
+     */
+    public static AList<Value> ofLongs(long[] values) {
+        AList<Value> list = new AList<>();
+        list.elements = new LongArrayList(values);
+        list.elementType = ANumber.class;
+        return list;
+    }
+
+    // elements already checked to all be of type (see Fused), taken as they are
+    static AList<Value> adopt(List<Value> elements, Class<?> type) {
+        AList<Value> list = new AList<>();
+        list.elements = elements;
+        list.elementType = type;
+        return list;
+    }
+
+    /**
+     * A copy of values kept off the heap (see OffHeap), or null if one isn't a number.
+     */
+    static AList<Value> offHeap(List<? extends Value> values) {
+        OffHeap.Cells cells = OffHeap.Cells.of(values);
+        if (cells == null) {
+            return null;
+        }
+        AList<Value> list = new AList<>();
+        list.elements = cells;
+        for (Value v : values) {
+            if (v instanceof ANumber) {
+                list.elementType = ANumber.class; // else all nulls, no type yet
+                break;
+            }
+        }
+        return list;
+    }
+
+    // primitive backed storage only takes what it can hold, anything else boxes it
+    private void ensureStorageFor(T val) {
+        if (elements instanceof LongArrayList && !LongArrayList.fits(val)) {
+            elements = new ArrayList<>(elements);
+        } else if (elements instanceof OffHeap.Cells && !OffHeap.fits(val)) {
+            OffHeap store = ((OffHeap.Cells) elements).store();
+            elements = new ArrayList<>(elements);
+            store.release();
+        }
+    }
+
+    // Environment.hold, one more thing keeps this
+    synchronized void hold() {
+        holders++;
+    }
+
+    // one of them let go; with free, the off-heap storage goes with the last one.
+    // Not once shared, other sessions read it without holding it
+    synchronized void drop(boolean free) {
+        if (holders > 0 && --holders == 0 && free && !frozen) {
+            releaseStorage();
+        }
+    }
+
+    private void releaseStorage() {
+        if (elements instanceof OffHeap.Cells) {
+            ((OffHeap.Cells) elements).store().release();
+        }
+    }
+
     @Override
     public Result<Value> asNumber() {
-        return Result.ok(new ANumber(new BigDecimal(elements.size())));
+        return Result.ok(ANumber.of(elements.size()));
     }
 
     @Override
     public Result<Value> asString() {
         try {
-        	int printedSize = 9;
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < printedSize && i < elements.size(); ++i) {
-                Value element = elements.get(i);
-                if (element instanceof ANumber) {
-                    BigDecimal num = ((ANumber) element).getValue();
-                    sb.append(num.stripTrailingZeros().toPlainString());
-                } else if (element instanceof AList || element instanceof AString) { // nested lists in the future? matrix is implemented but i dunno
-                    sb.append(element.asString());
-                } else {
-                    sb.append(element.toString()); // fallback
-                }
-                
-                if (i < elements.size() - 1) {
-                    sb.append(", ");
-                }
-            }
-            if (printedSize < elements.size()) {
-            	sb.append("..., ");
-            	BigDecimal lastNum = ((ANumber)elements.get(elements.size()-1)).getValue();
-            	sb.append(lastNum.stripTrailingZeros().toPlainString());
-            }
-            	
-            return Result.ok(new AString(sb.toString()));
+            return Result.ok(new AString(ValuePrinter.DEFAULT.render(this)));
         } catch (Exception e) {
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Error converting list to string: " + e.getMessage(), e);
@@ -67,7 +115,7 @@ public class AList<T extends Value> implements Value {
 
     @Override
     public Result<Value> asBoolean() {
-        return Result.ok(new ABoolean(!elements.isEmpty()));
+        return Result.ok(ABoolean.of(!elements.isEmpty()));
     }
 
     @Override
@@ -75,6 +123,11 @@ public class AList<T extends Value> implements Value {
         return "list";
     }
 
+    @Override
+    public Kind kind() {
+        return Kind.LIST;
+    }
+
     @Override
     public String toString() {
         Result<Value> stringResult = asString();
@@ -88,10 +141,11 @@ public class AList<T extends Value> implements Value {
         if (i >= 0 && i < elements.size()) {
             return elements.get(i);
         }
-        return new ANull();
+        return ANull.INSTANCE;
     }
 
     public void put(T val) {
+        checkMutable();
         if (val == null || val instanceof ANull) {} 
         else if (elementType == null) {
             elementType = val.getClass(); 
@@ -102,10 +156,14 @@ public class AList<T extends Value> implements Value {
             );
         }
 
+        ensureStorageFor(val);
         elements.add(val);
+        Environment.hold(val); // for good, nothing tells an element it was taken out
+        version++;
     }
 
     public Value set(int i, T v) {
+        checkMutable();
         if (v != null && !(v instanceof ANull) && elementType != null && !elementType.equals(v.getClass())) {
             throw new IllegalArgumentException(
                 "All elements must be of type: " + elementType.getSimpleName() +
@@ -114,20 +172,56 @@ public class AList<T extends Value> implements Value {
         }
 
         if (i >= 0 && i < elements.size()) {
+            ensureStorageFor(v);
+            Environment.hold(v);
+            version++;
             return elements.set(i, v);
         }
 
         return v;
     }
 
+    // every holder sees the same emptied list, so the storage can go right away
     public void clear() {
+        checkMutable();
+        releaseStorage();
         elements = new ArrayList<>();
         elementType = null;
+        version++;
+    }
+    
+    public long getVersion() {
+        return version;
     }
 
     public int size() {
         return elements.size();
     }
+    
+    /**
+     * Make this list (and any lists or matrices inside it) read only for good.
+     * Used when a value is published to the shared namespace, so other threads can read it without locks.
+     */
+    public AList<T> freeze() {
+        if (!frozen) {
+            for (T element : elements) {
+                if (element instanceof AList) ((AList<?>) element).freeze();
+                if (element instanceof AMatrix) ((AMatrix) element).freeze();
+            }
+            frozen = true;
+        }
+        return this;
+    }
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("List is shared and can't be modified");
+        }
+    }
 
     public boolean isEmpty() {
         return elements.isEmpty();
@@ -18,6 +18,10 @@ public class AMatrix implements Value {
     private int rows;
     private int cols;
     private Class<? extends Value> elementType; // Enforced type of elements in matrix
+    private volatile boolean frozen; // set once shared between sessions, no more set/addRow/clear
+    private long version;  // every change, so derived variables can tell they are stale
+    private long rewrites; // changes other than appending a row, after which old rows may differ
+    private int holders;   // what keeps this, see Environment.hold
     
     public AMatrix() {
         this.matrix = new ArrayList<>();
@@ -34,6 +38,7 @@ public class AMatrix implements Value {
             }
             for (Value val : row) {
                 checkAndSetElementType(val);
+                Environment.hold(val); // for good, see AList.put
             }
             this.matrix.add(new ArrayList<>(row));
         }
@@ -42,11 +47,171 @@ public class AMatrix implements Value {
         normalizeMatrix();
     }
     
+    // rows of cols elements, already checked to all be of type (see Fused), taken as they are
+    static AMatrix adopt(List<List<Value>> rows, Class<? extends Value> type, int cols) {
+        AMatrix matrix = new AMatrix();
+        matrix.matrix = rows;
+        matrix.rows = rows.size();
+        matrix.cols = rows.isEmpty() ? 0 : cols;
+        matrix.elementType = type;
+        return matrix;
+    }
+    
+    /**
+     * A new matrix of these rows followed by more, for ADerived's partial recompute. The old
+     * row lists are shared, not copied, and neither this matrix nor they are changed. null
+     * when more can't simply go underneath: another width or type, or rows not on the heap.
+     */
+    AMatrix plusRows(List<List<Value>> more) {
+        if (this.rows == 0 || this.matrix instanceof OffHeap.Rows || this.matrix instanceof PagedRows) {
+            return null;
+        }
+        for (List<Value> row : more) {
+            if (row.size() != this.cols) return null; // a wider one would pad the shared rows
+        }
+        AMatrix out = adopt(new ArrayList<>(this.matrix), this.elementType, this.cols);
+        try {
+            for (List<Value> row : more) {
+                out.addRow(row);
+            }
+        } catch (IllegalArgumentException e) { // came out a different type
+            return null;
+        }
+        return out;
+    }
+    
     public AMatrix(String csvFilePath, boolean hasHeader) throws IOException {
         this();
         loadFromCSV(csvFilePath, hasHeader);
     }
     
+    /**
+     * Load straight into off-heap storage, row by row, so the file never sits on the heap
+     * as Values. A row with anything but numbers moves what's loaded so far to the heap.
+     */
+    public AMatrix(String csvFilePath, boolean hasHeader, boolean offHeap) throws IOException {
+        this();
+        if (!offHeap) {
+            loadFromCSV(csvFilePath, hasHeader);
+            return;
+        }
+        this.matrix = new OffHeap.Rows(new OffHeap(1), 0, 0);
+        try {
+            loadFromCSV(csvFilePath, hasHeader);
+        } catch (IOException | RuntimeException e) {
+            OffHeap store = offHeap();
+            if (store != null) {
+                store.release(); // nobody will ever hold this matrix
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * A copy of source kept off the heap (see OffHeap), or null if it has anything but numbers.
+     */
+    static AMatrix offHeap(AMatrix source) {
+        OffHeap.Rows rows = OffHeap.Rows.of(source.matrix, source.cols);
+        if (rows == null) {
+            return null;
+        }
+        AMatrix matrix = new AMatrix();
+        matrix.matrix = rows;
+        matrix.rows = source.rows;
+        matrix.cols = source.cols;
+        matrix.elementType = source.elementType;
+        return matrix;
+    }
+    
+    // the off-heap storage, null when the rows are on the heap
+    OffHeap offHeap() {
+        return this.matrix instanceof OffHeap.Rows ? ((OffHeap.Rows) this.matrix).store() : null;
+    }
+    
+    // copy the rows onto the heap and free the off-heap ones, for a value they can't hold
+    private void toHeap() {
+        OffHeap store = offHeap();
+        List<List<Value>> heap = new ArrayList<>(this.rows);
+        for (List<Value> row : this.matrix) {
+            heap.add(new ArrayList<>(row));
+        }
+        this.matrix = heap;
+        store.release();
+    }
+    
+    // Environment.hold, one more thing keeps this
+    synchronized void hold() {
+        holders++;
+    }
+    
+    // one of them let go, see AList.drop
+    synchronized void drop(boolean free) {
+        if (holders > 0 && --holders == 0 && free && !frozen) {
+            releaseStorage();
+        }
+    }
+    
+    // free off-heap memory or the scratch file now, heap rows are left to the GC
+    private void releaseStorage() {
+        if (this.matrix instanceof OffHeap.Rows) {
+            ((OffHeap.Rows) this.matrix).store().release();
+        } else if (this.matrix instanceof PagedRows) {
+            ((PagedRows) this.matrix).release();
+        }
+    }
+    
+    /**
+     * Load a CSV into a disk-backed matrix (see PagedRows), for files bigger than memory.
+     * One pass finds the widest row, a second writes the rows out as they are read.
+     * Only numbers and blanks can go on disk, anything else is an IllegalArgumentException.
+     */
+    static AMatrix paged(String csvFilePath, boolean hasHeader) throws IOException {
+        AMatrix matrix = new AMatrix();
+        int width = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
+            String line;
+            boolean firstLine = true;
+            while ((line = reader.readLine()) != null) {
+                if (!(hasHeader && firstLine)) {
+                    width = Math.max(width, matrix.parseCSVLine(line).length);
+                }
+                firstLine = false;
+            }
+        }
+        if (width == 0) {
+            return matrix; // nothing in it
+        }
+        PagedRows rows = PagedRows.create(width);
+        matrix.matrix = rows;
+        matrix.cols = width;
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
+            String line;
+            boolean firstLine = true;
+            while ((line = reader.readLine()) != null) {
+                if (hasHeader && firstLine) {
+                    firstLine = false;
+                    continue;
+                }
+                firstLine = false;
+                List<Value> row = new ArrayList<>(width);
+                for (String value : matrix.parseCSVLine(line)) {
+                    Value parsedValue = matrix.parseValue(value.trim());
+                    matrix.checkAndSetElementType(parsedValue);
+                    if (!OffHeap.fits(parsedValue)) {
+                        throw new IllegalArgumentException("Only numbers can be paged to disk, got: " + value.trim());
+                    }
+                    row.add(parsedValue);
+                }
+                rows.add(row);
+                matrix.rows++;
+            }
+        } catch (IOException | RuntimeException e) {
+            rows.release();
+            throw e;
+        }
+        return matrix;
+    }
+    
     public AMatrix(String csvFilePath) throws IOException {
         this(csvFilePath, false);
     }
@@ -65,6 +230,7 @@ public class AMatrix implements Value {
      * Load data from CSV file
      */
     private void loadFromCSV(String csvFilePath, boolean hasHeader) throws IOException {
+        boolean rowByRow = this.matrix instanceof OffHeap.Rows;
         try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
             String line;
             boolean firstLine = true;
@@ -82,10 +248,17 @@ public class AMatrix implements Value {
                     checkAndSetElementType(parsedValue);
                     row.add(parsedValue);
                 }
-                this.matrix.add(row);
                 firstLine = false;
+                if (rowByRow) {
+                    addRow(row); // keeps rows and cols, and pads, as it goes
+                } else {
+                    this.matrix.add(row);
+                }
             }
         }
+        if (rowByRow) {
+            return;
+        }
         this.rows = this.matrix.size();
         this.cols = this.matrix.isEmpty() ? 0 : this.matrix.get(0).size();
         normalizeMatrix();
@@ -117,15 +290,15 @@ public class AMatrix implements Value {
         }
         try {
             BigDecimal number = new BigDecimal(value);
-            return new ANumber(number);
+            return ANumber.of(number);
         } catch (NumberFormatException e) {
             // Not a number, continue
         }
         if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
-            return new ABoolean(Boolean.parseBoolean(value));
+            return ABoolean.of(Boolean.parseBoolean(value));
         }
         if (value.isEmpty() || value.equalsIgnoreCase("null")) {
-            return new ANull();
+            return ANull.INSTANCE;
         }
         return new AString(value);
     }
@@ -140,7 +313,7 @@ public class AMatrix implements Value {
             while (row.size() < maxCols) {
                 // Add default null element of enforced type or ANull
                 if (this.elementType == null || this.elementType.equals(ANull.class)) {
-                    row.add(new ANull());
+                    row.add(ANull.INSTANCE);
                 } else {
                     try {
                         // Try to create a default instance via no-arg constructor if exists
@@ -148,7 +321,7 @@ public class AMatrix implements Value {
                         row.add(defaultValue);
                     } catch (Exception e) {
                         // fallback to ANull if instantiation fails
-                        row.add(new ANull());
+                        row.add(ANull.INSTANCE);
                     }
                 }
             }
@@ -158,16 +331,32 @@ public class AMatrix implements Value {
 
     public Value get(int row, int col) {
         if (row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
+            if (this.matrix instanceof OffHeap.Rows) {
+                return ((OffHeap.Rows) this.matrix).get(row, col); // no row view for one cell
+            }
+            if (this.matrix instanceof PagedRows) {
+                return ((PagedRows) this.matrix).get(row, col);
+            }
             return this.matrix.get(row).get(col);
         }
-        return new ANull();
+        return ANull.INSTANCE;
     }
     
     public Value set(int row, int col, Value value) {
+        checkMutable();
         if (value != null) {
             checkAndSetElementType(value);
         }
         if (row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
+            if (this.matrix instanceof OffHeap.Rows && !OffHeap.fits(value)) {
+                toHeap();
+            }
+            if (this.matrix instanceof PagedRows && !OffHeap.fits(value)) {
+                throw new IllegalArgumentException("A disk-backed matrix only holds numbers, got: " + value);
+            }
+            Environment.hold(value);
+            version++;
+            rewrites++;
             return this.matrix.get(row).set(col, value);
         }
         return value;
@@ -192,31 +381,61 @@ public class AMatrix implements Value {
     }
     
     public void addRow(List<Value> row) {
+        checkMutable();
         if (row.isEmpty()) return; // nothing to add
         
         for (Value val : row) {
             checkAndSetElementType(val);
+            Environment.hold(val);
+        }
+        
+        if (this.matrix instanceof PagedRows) {
+            if (!OffHeap.fitsAll(row)) {
+                throw new IllegalArgumentException("A disk-backed matrix only holds numbers");
+            }
+            this.matrix.add(row); // padded with nulls, no wider than it is
+            this.rows++;
+            version++;
+            return;
+        }
+        if (this.matrix instanceof OffHeap.Rows && !OffHeap.fitsAll(row)) {
+            toHeap();
+        }
+        if (this.matrix instanceof OffHeap.Rows) {
+            OffHeap.Rows stored = (OffHeap.Rows) this.matrix;
+            if (row.size() > stored.cols()) {
+                this.matrix = stored.widen(row.size());
+                stored.store().release();
+                this.cols = row.size();
+                if (this.rows > 0) rewrites++; // the old rows grew too
+            }
+            this.matrix.add(row); // padded with nulls
+            this.rows++;
+            version++;
+            return;
         }
         
         List<Value> newRow = new ArrayList<>(row);
         while (newRow.size() < this.cols) {
             if (this.elementType == null || this.elementType.equals(ANull.class)) {
-                newRow.add(new ANull());
+                newRow.add(ANull.INSTANCE);
             } else {
                 try {
                     Value defaultValue = this.elementType.getDeclaredConstructor().newInstance();
                     newRow.add(defaultValue);
                 } catch (Exception e) {
-                    newRow.add(new ANull());
+                    newRow.add(ANull.INSTANCE);
                 }
             }
         }
         this.matrix.add(newRow);
         this.rows++;
+        version++;
         
         if (newRow.size() > this.cols) {
             this.cols = newRow.size();
             normalizeMatrix();
+            rewrites++; // the old rows grew too
         }
     }
 
@@ -232,30 +451,63 @@ public class AMatrix implements Value {
         return this.rows == 0 || this.cols == 0;
     }
     
+    /**
+     * Make this matrix read only for good, see AList.freeze.
+     */
+    public AMatrix freeze() {
+        if (!frozen) {
+            if (!(this.matrix instanceof OffHeap.Rows) && !(this.matrix instanceof PagedRows)) { // only numbers there
+                for (List<Value> row : this.matrix) {
+                    for (Value val : row) {
+                        if (val instanceof AList) ((AList<?>) val).freeze();
+                        if (val instanceof AMatrix) ((AMatrix) val).freeze();
+                    }
+                }
+            }
+            frozen = true;
+        }
+        return this;
+    }
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Matrix is shared and can't be modified");
+        }
+    }
+    
+    // every holder sees the same emptied matrix, so the storage can go right away
     public void clear() {
-        this.matrix.clear();
+        checkMutable();
+        releaseStorage();
+        this.matrix = new ArrayList<>();
         this.rows = 0;
         this.cols = 0;
         this.elementType = null;
+        version++;
+        rewrites++;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public long getRewrites() {
+        return rewrites;
     }
     
     @Override
     public Result<Value> asNumber() {
-        return Result.ok(new ANumber(new BigDecimal(this.rows * this.cols)));
+        return Result.ok(ANumber.of((long) this.rows * this.cols));
     }
     
     @Override
     public Result<Value> asString() {
         try {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < this.rows; i++) {
-                for (int j = 0; j < this.cols; j++) {
-                    sb.append(this.matrix.get(i).get(j).toString());
-                    if (j < this.cols - 1) sb.append(", ");
-                }
-                if (i < this.rows - 1) sb.append("\n");
-            }
-            return Result.ok(new AString(sb.toString()));
+            return Result.ok(new AString(ValuePrinter.DEFAULT.render(this)));
         } catch (Exception e) {
             return Result.error(Result.ErrorType.RUNTIME, "Error converting matrix to string: " + e.getMessage(), e);
         }
@@ -263,13 +515,18 @@ public class AMatrix implements Value {
     
     @Override
     public Result<Value> asBoolean() {
-        return Result.ok(new ABoolean(!isEmpty()));
+        return Result.ok(ABoolean.of(!isEmpty()));
     }
     
     @Override
     public String type() {
         return "matrix";
     }
+
+    @Override
+    public Kind kind() {
+        return Kind.MATRIX;
+    }
     
     @Override
     public String toString() {
@@ -1,7 +1,5 @@
 package dsh;
 
-import java.math.BigDecimal;
-
 /**
  * A class to represent a Null
  * 
@@ -10,23 +8,29 @@ import java.math.BigDecimal;
  */
 public class ANull implements Value{
 
+	public static final ANull INSTANCE = new ANull();
+
 	public ANull() {}
 	
 	public Result<Value> asNumber() {
-		return Result.ok(new ANumber(new BigDecimal(0)));
+		return Result.ok(ANumber.ZERO);
 	}
 
 	public Result<Value> asString() {
-		return Result.ok(new AString("null"));
+		return Result.ok(AString.NULL);
 	}
 
 	public Result<Value> asBoolean() {
-		return Result.ok(new ABoolean(false));
+		return Result.ok(ABoolean.FALSE);
 	}
 
 	public String type() {
 		return "null";
 	}
+
+	public Kind kind() {
+		return Kind.NULL;
+	}
 	
 	public String toString() {
 		return "null";
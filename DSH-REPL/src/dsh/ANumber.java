@@ -14,6 +14,40 @@ public class ANumber implements Value{
 	
 	private final BigDecimal value;
 	
+	// small integers come up constantly (literals, counters, indices), so share them
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final ANumber[] CACHE = new ANumber[CACHE_HIGH - CACHE_LOW + 1];
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new ANumber(BigDecimal.valueOf(CACHE_LOW + i));
+		}
+	}
+	
+	public static final ANumber ZERO = of(0);
+	public static final ANumber ONE = of(1);
+	
+	public static ANumber of(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) value - CACHE_LOW];
+		}
+		return new ANumber(BigDecimal.valueOf(value));
+	}
+	
+	/**
+	 * Cached instance for small integers with scale 0, a new one otherwise.
+	 * 1.0 keeps its own instance so its scale survives arithmetic.
+	 */
+	public static ANumber of(BigDecimal value) {
+		if (value.scale() == 0 && value.precision() <= 4) {
+			long l = value.longValue();
+			if (l >= CACHE_LOW && l <= CACHE_HIGH) {
+				return CACHE[(int) l - CACHE_LOW];
+			}
+		}
+		return new ANumber(value);
+	}
+	
 	public ANumber(BigDecimal value) {
 		this.value = value;
 	}
@@ -35,19 +69,23 @@ public class ANumber implements Value{
 	}
 
 	public Result<Value> asString() {
-		return Result.ok(new AString(value.stripTrailingZeros().toString()));
+		return Result.ok(AString.of(value.stripTrailingZeros().toString()));
 	}
 
 	public Result<Value> asBoolean() {
 		if (value.equals(java.math.BigDecimal.ZERO)) {
-			return Result.ok(new ABoolean(false));
+			return Result.ok(ABoolean.FALSE);
 		}
-		return Result.ok(new ABoolean(true));
+		return Result.ok(ABoolean.TRUE);
 	}
 
 	public String type() {
 		return "number";
 	}
+
+	public Kind kind() {
+		return Kind.NUMBER;
+	}
 	
 	public String toString() {
 		return value.stripTrailingZeros().toString();
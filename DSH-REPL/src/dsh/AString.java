@@ -10,13 +10,44 @@ public class AString implements Value {
 	
 	private final String value;
 	
+	public static final AString EMPTY = new AString("");
+	public static final AString NULL = new AString("null");
+	public static final AString TRUE = new AString("true");
+	public static final AString FALSE = new AString("false");
+	public static final AString UNKNOWN = new AString("unknown");
+	
+	// short strings repeat a lot (labels, keys, csv cells), bounded so it can't grow forever
+	private static final int INTERN_MAX_LENGTH = 16;
+	private static final int INTERN_MAX_ENTRIES = 4096;
+	private static final java.util.concurrent.ConcurrentHashMap<String, AString> INTERNED =
+		new java.util.concurrent.ConcurrentHashMap<>();
+	
+	public static AString of(String value) {
+		if (value.isEmpty()) {
+			return EMPTY;
+		}
+		if (value.length() > INTERN_MAX_LENGTH) {
+			return new AString(value);
+		}
+		AString cached = INTERNED.get(value);
+		if (cached != null) {
+			return cached;
+		}
+		AString created = new AString(value);
+		if (INTERNED.size() < INTERN_MAX_ENTRIES) {
+			AString raced = INTERNED.putIfAbsent(value, created);
+			return raced != null ? raced : created;
+		}
+		return created;
+	}
+	
 	public AString(String value) {
 		this.value = value;
 	}
 	
 	public Result<Value> asNumber() {
 		try {
-			return Result.ok(new ANumber(new java.math.BigDecimal(value.trim())));
+			return Result.ok(ANumber.of(new java.math.BigDecimal(value.trim())));
 		} catch (NumberFormatException e){
 			return Result.ok(new ANumber(java.math.BigDecimal.valueOf(Double.NaN)));
 		}
@@ -27,12 +58,16 @@ public class AString implements Value {
 	}
 
 	public Result<Value> asBoolean() {
-		return Result.ok(new ABoolean(!value.isEmpty()));
+		return Result.ok(ABoolean.of(!value.isEmpty()));
 	}
 
 	public String type() {
 		return "string";
 	}
+
+	public Kind kind() {
+		return Kind.STRING;
+	}
 	
 	public String toString() {
 		return value;
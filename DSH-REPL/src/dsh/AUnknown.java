@@ -8,25 +8,32 @@ package dsh;
  */
 public class AUnknown implements Value{
 
+	public static final AUnknown INSTANCE = new AUnknown();
+
 	@Override
 	public Result<Value> asNumber() {
-		return Result.ok(new ANumber(java.math.BigDecimal.ZERO));
+		return Result.ok(ANumber.ZERO);
 	}
 
 	@Override
 	public Result<Value> asString() {
-		return Result.ok(new AString("unknown"));
+		return Result.ok(AString.UNKNOWN);
 	}
 
 	@Override
 	public Result<Value> asBoolean() {
-		return Result.ok(new ABoolean(false));
+		return Result.ok(ABoolean.FALSE);
 	}
 
 	@Override
 	public String type() {
 		return "unknown";
 	}
+
+	@Override
+	public Kind kind() {
+		return Kind.UNKNOWN;
+	}
 	
 	public String toString() {
 		return "unknown";
@@ -1,6 +1,10 @@
 package dsh;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -11,59 +15,95 @@ import java.util.regex.Pattern;
  */
 public class Calculator {
     private final Environment env;
+    private TokenDispatcher dispatcher; // for name(args), functions aren't callable without one
     private static final Pattern VARIABLE_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9_]*");
+    private static final int MAX_CHAINS = 256;
+    private final Map<String, Fused> chains = new ConcurrentHashMap<>();
 
     public Calculator(Environment env) {
         this.env = env;
     }
+    
+    void setDispatcher(TokenDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
 
     public Result<Value> evaluate(String expression) {
+        EvalError err = new EvalError();
+        return err.wrap(evaluateRaw(expression, err));
+    }
+
+    /**
+     * Evaluate without building a Result per step.
+     * Returns the value, or null with the reason left in err.
+     */
+    Value evaluateRaw(String expression, EvalError err) {
+        long t0 = Metrics.EVALUATE.start();
+        long a0 = Metrics.allocatedBytes();
+        Value result = evaluateNested(expression, err);
+        Metrics.EVALUATE.stop(t0, a0);
+        return result;
+    }
+    
+    // the recursion, so sub expressions aren't counted as evaluations of their own
+    private Value evaluateNested(String expression, EvalError err) {
         try {
             expression = expression.trim();
             if (expression.isEmpty()) {
-                return Result.error(Result.ErrorType.VALIDATION, "Empty expression");
+                return err.fail(Result.ErrorType.VALIDATION, "Empty expression");
             }
             
             if (!hasBalancedParentheses(expression)) {
-                return Result.error(Result.ErrorType.SYNTAX, "Unbalanced parentheses in expression");
+                return err.fail(Result.ErrorType.SYNTAX, "Unbalanced parentheses in expression");
             }
             
             expression = removeOuterParentheses(expression);
             
-            try {
-                BigDecimal number = new BigDecimal(expression);
-                return Result.ok(new ANumber(number));
-            } catch (NumberFormatException e) {
-                // Not a number, continue parsing
+            // only try the parse when it could work, a thrown NumberFormatException isn't cheap
+            if (looksNumeric(expression)) {
+                try {
+                    BigDecimal number = new BigDecimal(expression);
+                    return ANumber.of(number);
+                } catch (NumberFormatException e) {
+                    // Not a number, continue parsing
+                }
             }
             
             // Try to parse as array literal
             if (expression.startsWith("[") && expression.endsWith("]")) {
-                return parseArrayLiteral(expression);
+                return err.capture(parseArrayLiteral(expression));
             }
             
             // Try to parse as string literal
-            if (expression.startsWith("\"") && expression.endsWith("\"") && expression.length() >= 2) {
-                return Result.ok(new AString(expression.substring(1, expression.length() - 1)));
+            // (just one, "a"=="b" is a comparison)
+            if (expression.startsWith("\"") && expression.endsWith("\"") && expression.length() >= 2
+                    && findComparison(expression) == null) {
+                return AString.of(expression.substring(1, expression.length() - 1));
             }
 
             // Try to parse as boolean literals
             if ("true".equals(expression)) {
-                return Result.ok(new ABoolean(true));
+                return ABoolean.of(true);
             }
             if ("false".equals(expression)) {
-                return Result.ok(new ABoolean(false));
+                return ABoolean.of(false);
             }
             if ("null".equals(expression)) {
-                return Result.ok(new ANull());
+                return ANull.INSTANCE;
             }
 
             // Try to parse as variable
             if (isValidVariableName(expression)) {
                 if (env.has(expression)) {
-                    return Result.ok(env.get(expression));
+                    return env.get(expression);
                 }
-                return Result.error(Result.ErrorType.RUNTIME, "Undefined variable '" + expression + "'");
+                return err.fail(Result.ErrorType.RUNTIME, "Undefined variable '" + expression + "'");
+            }
+            
+            // f(a, b), a user function
+            int open = callOpen(expression);
+            if (open > 0) {
+                return call(expression.substring(0, open), expression.substring(open + 1, expression.length() - 1), err);
             }
             
             // this is some really confusing precedence
@@ -80,21 +120,264 @@ public class Calculator {
             //       2   *
             //          / \
             //         3   4
+            // comparisons bind loosest of all, so i+1 < n*2 compares the two sums
+            int[] comparison = findComparison(expression);
+            if (comparison != null) {
+                Value left = evaluateNested(expression.substring(0, comparison[0]), err);
+                if (left == null) return null;
+                Value right = evaluateNested(expression.substring(comparison[0] + comparison[1]), err);
+                if (right == null) return null;
+                return Value.compareRaw(expression.substring(comparison[0], comparison[0] + comparison[1]), left, right, err);
+            }
+            
             String[] parts = splitExpressionByPrecedence(expression);
             // first go: ["2", "+", "3*4"]
-            // then if successful, recursively evaluate the left and right parts
+            // then if successful, the whole chain of them is split down to its operands,
+            // which are evaluated on their own, and run over lists as one loop (see Fused)
             if (parts != null) {
-                return evaluate(parts[0])
-                    .flatMap(left -> evaluate(parts[2])
-                        .flatMap(right -> performOperation(left, right, parts[1])));
+                Fused chain = chain(expression, parts);
+                String[] operands = chain.operands();
+                Value[] values = new Value[operands.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluateNested(operands[i], err);
+                    if (values[i] == null) return null;
+                }
+                try {
+                    return chain.run(values, err);
+                } catch (Exception e) {
+                    return err.fail(Result.ErrorType.RUNTIME, "Operation failed: " + e.getMessage(), e);
+                }
             }
 
-            return Result.error(Result.ErrorType.SYNTAX, "Invalid expression '" + expression + "'");
+            return err.fail(Result.ErrorType.SYNTAX, "Invalid expression '" + expression + "'");
         } catch (Exception e) {
-            return Result.error(Result.ErrorType.RUNTIME, "Unexpected error during evaluation: " + e.getMessage(), e);
+            return err.fail(Result.ErrorType.RUNTIME, "Unexpected error during evaluation: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * The same parse as evaluate, but into a NumExpr over whole numbers that macro
+     * loops can run on longs. null if any part of it isn't a whole number literal,
+     * a variable, arithmetic, a comparison or a function call (those lines keep the normal path).
+     */
+    NumExpr compile(String expression) {
+        expression = expression.trim();
+        if (expression.isEmpty() || !hasBalancedParentheses(expression)) {
+            return null;
+        }
+        expression = removeOuterParentheses(expression);
+        
+        if (looksNumeric(expression)) {
+            try {
+                BigDecimal number = new BigDecimal(expression);
+                // 2.0 keeps its scale through arithmetic, so only plain integers qualify
+                return number.scale() == 0 && number.precision() <= 18 ? new NumExpr.Const(number.longValue()) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (expression.equals("true") || expression.equals("false") || expression.equals("null")) {
+            return null;
+        }
+        if (isValidVariableName(expression)) {
+            return new NumExpr.Var(expression);
+        }
+        
+        int open = callOpen(expression);
+        if (open > 0) {
+            if (dispatcher == null) {
+                return null;
+            }
+            List<String> parts = splitArguments(expression.substring(open + 1, expression.length() - 1));
+            NumExpr[] args = new NumExpr[parts.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = compile(parts.get(i));
+                if (args[i] == null || args[i].isComparison()) {
+                    return null;
+                }
+            }
+            return new NumExpr.Call(expression.substring(0, open), args, dispatcher);
+        }
+        
+        int[] comparison = findComparison(expression);
+        if (comparison != null) {
+            NumExpr left = compile(expression.substring(0, comparison[0]));
+            NumExpr right = compile(expression.substring(comparison[0] + comparison[1]));
+            if (left == null || right == null || left.isComparison() || right.isComparison()) {
+                return null;
+            }
+            return new NumExpr.Compare(expression.substring(comparison[0], comparison[0] + comparison[1]), left, right);
+        }
+        
+        String[] parts = splitExpressionByPrecedence(expression);
+        if (parts != null) {
+            NumExpr left = compile(parts[0]);
+            NumExpr right = compile(parts[2]);
+            if (left == null || right == null || left.isComparison() || right.isComparison()) {
+                return null;
+            }
+            return new NumExpr.Op(parts[1].charAt(0), left, right);
+        }
+        return null;
+    }
+    
+    // the expression already split once into parts, as a tree of operators, parsed once per expression
+    private Fused chain(String expression, String[] parts) {
+        Fused chain = chains.get(expression);
+        if (chain == null) {
+            List<String> operands = new ArrayList<>();
+            Fused.Node left = chainNode(parts[0], operands);
+            Fused.Node right = chainNode(parts[2], operands);
+            chain = new Fused(new Fused.Node(parts[1].charAt(0), left, right), operands);
+            if (chains.size() >= MAX_CHAINS) {
+                chains.clear(); // a session only types so many, anything generated shouldn't grow it
+            }
+            chains.put(expression, chain);
+        }
+        return chain;
+    }
+    
+    // an operator splits further, anything evaluateNested returns before splitting is an operand
+    private Fused.Node chainNode(String part, List<String> operands) {
+        String expression = part.trim();
+        if (!expression.isEmpty() && hasBalancedParentheses(expression)) {
+            expression = removeOuterParentheses(expression);
+            String[] parts = isOperand(expression) ? null : splitExpressionByPrecedence(expression);
+            if (parts != null) {
+                Fused.Node left = chainNode(parts[0], operands);
+                Fused.Node right = chainNode(parts[2], operands);
+                return new Fused.Node(parts[1].charAt(0), left, right);
+            }
+        }
+        operands.add(part);
+        return new Fused.Node(operands.size() - 1);
+    }
+    
+    private boolean isOperand(String expression) {
+        return expression.isEmpty()
+            || looksNumeric(expression)
+            || (expression.startsWith("[") && expression.endsWith("]"))
+            || (expression.startsWith("\"") && expression.endsWith("\"") && expression.length() >= 2)
+            || isValidVariableName(expression)
+            || callOpen(expression) > 0
+            || findComparison(expression) != null;
+    }
+    
+    private Value call(String name, String arguments, EvalError err) {
+        UserFunction function = dispatcher != null ? dispatcher.getFunctions().get(name) : null;
+        if (function == null) {
+            return err.fail(Result.ErrorType.RUNTIME, "Unknown function '" + name + "'");
+        }
+        List<String> parts = splitArguments(arguments);
+        Value[] args = new Value[parts.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = evaluateNested(parts.get(i), err);
+            if (args[i] == null) return null;
+        }
+        return err.capture(function.call(args));
+    }
+    
+    // where the ( of name(...) is when the expression is exactly that, otherwise -1
+    private int callOpen(String expression) {
+        int open = expression.indexOf('(');
+        if (open <= 0 || !expression.endsWith(")")
+                || !isValidVariableName(expression.substring(0, open))) {
+            return -1;
+        }
+        // f(1) + g(2) starts and ends right but the first ( closes early
+        return hasBalancedParentheses(expression.substring(open + 1, expression.length() - 1)) ? open : -1;
+    }
+    
+    // split on the top level commas, "" is no arguments
+    private List<String> splitArguments(String arguments) {
+        List<String> parts = new ArrayList<>();
+        if (arguments.trim().isEmpty()) {
+            return parts;
+        }
+        int parenLevel = 0;
+        int bracketLevel = 0;
+        boolean inString = false;
+        char prev = 0;
+        int start = 0;
+        for (int i = 0; i < arguments.length(); i++) {
+            char c = arguments.charAt(i);
+            if (c == '"' && prev != '\\') {
+                inString = !inString;
+            } else if (!inString) {
+                if (c == '(') parenLevel++;
+                else if (c == ')') parenLevel--;
+                else if (c == '[') bracketLevel++;
+                else if (c == ']') bracketLevel--;
+                else if (c == ',' && parenLevel == 0 && bracketLevel == 0) {
+                    parts.add(arguments.substring(start, i).trim());
+                    start = i + 1;
+                }
+            }
+            prev = c;
+        }
+        parts.add(arguments.substring(start).trim());
+        return parts;
+    }
+    
+    // {index, length} of the last top level <, <=, >, >=, == or !=, or null
+    private int[] findComparison(String expression) {
+        int parenLevel = 0;
+        int bracketLevel = 0;
+        boolean inString = false;
+        char prev = 0;
+        int[] last = null;
+        
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            
+            if (c == '"' && prev != '\\') {
+                inString = !inString;
+            } else if (!inString) {
+                if (c == '(') {
+                    parenLevel++;
+                } else if (c == ')') {
+                    parenLevel--;
+                } else if (c == '[') {
+                    bracketLevel++;
+                } else if (c == ']') {
+                    bracketLevel--;
+                } else if (parenLevel == 0 && bracketLevel == 0 && i > 0 && (c == '<' || c == '>' || c == '=' || c == '!')) {
+                    boolean pair = i + 1 < expression.length() && expression.charAt(i + 1) == '=';
+                    if (pair || c == '<' || c == '>') {
+                        int length = pair ? 2 : 1;
+                        if (i + length < expression.length()) {
+                            last = new int[]{i, length};
+                        }
+                        if (pair) {
+                            i++;
+                            c = '=';
+                        }
+                    }
+                }
+            }
+            prev = c;
+        }
+        
+        return last;
+    }
+    
+    private boolean looksNumeric(String expression) {
+        char first = expression.charAt(0);
+        if (!Character.isDigit(first) && first != '-' && first != '+' && first != '.') {
+            return false;
+        }
+        for (int i = 1; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '-' || c == '+') {
+                char prev = expression.charAt(i - 1);
+                if (prev != 'e' && prev != 'E') return false; // a sign only follows the exponent
+            } else if (!Character.isDigit(c) && c != '.' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String removeOuterParentheses(String expression) {
         while (expression.startsWith("(") && expression.endsWith(")") && 
                hasBalancedParentheses(expression.substring(1, expression.length() - 1))) {
@@ -103,29 +386,14 @@ public class Calculator {
         return expression;
     }
 
-    private Result<Value> performOperation(Value left, Value right, String operator) {
-        try {
-            switch (operator) {
-                case "+": return left.add(right);
-                case "-": return left.subtract(right);
-                case "*": return left.multiply(right);
-                case "/": return left.divide(right);
-                case "%": return left.modulo(right);
-                case "^": return left.power(right);
-                default: return Result.error(Result.ErrorType.SYNTAX, "Unknown operator '" + operator + "'");
-            }
-        } catch (Exception e) {
-            return Result.error(Result.ErrorType.RUNTIME, "Operation failed: " + e.getMessage(), e);
-        }
-    }
-
     private boolean hasBalancedParentheses(String expr) {
         int parenBalance = 0;
         int bracketBalance = 0;
         boolean inString = false; //in quotes flag
         char prev = 0;
         
-        for (char c : expr.toCharArray()) {
+        for (int i = 0; i < expr.length(); i++) {
+            char c = expr.charAt(i);
             if (c == '"' && prev != '\\') {
                 inString = !inString;
             } else if (!inString) {
@@ -222,13 +490,14 @@ public class Calculator {
             java.util.ArrayList<Value> values = new java.util.ArrayList<>();
             
             for (int i = 0; i < elements.length; i++) {
-                Result<Value> elementResult = evaluate(elements[i].trim());
-                if (elementResult.isError()) {
+                EvalError err = new EvalError();
+                Value element = evaluateNested(elements[i].trim(), err);
+                if (element == null) {
                     return Result.error(Result.ErrorType.SYNTAX, 
-                        "Invalid array element at index " + i + ": " + elementResult.getErrorMessage(),
-                        elementResult.getCause());
+                        "Invalid array element at index " + i + ": " + err.getMessage(),
+                        err.getCause());
                 }
-                values.add(elementResult.getValue());
+                values.add(element);
             }
             
             return Result.ok(new AList<>(values));
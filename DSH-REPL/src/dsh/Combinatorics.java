@@ -0,0 +1,192 @@
+package dsh;
+
+import java.math.BigInteger;
+
+/**
+ * Exact big integer combinatorics that stay fast for n in the millions.
+ * Everything ends in a balanced product tree, so the expensive multiplications
+ * happen between numbers of similar size (where Karatsuba/Toom-Cook pay off)
+ * instead of one huge number times a small one, n times over.
+ *
+ * @author Ryan Pointer
+ * @version 8/16/25
+ */
+public final class Combinatorics {
+    private Combinatorics() {}
+
+    // Fibonacci
+
+    /**
+     * F(n) by fast doubling: F(2k) = F(k)(2F(k+1) - F(k)), F(2k+1) = F(k)^2 + F(k+1)^2.
+     */
+    public static BigInteger fibonacci(long n) {
+        if (n < 0) throw new IllegalArgumentException("n must be non-negative");
+        BigInteger a = BigInteger.ZERO; // F(k)
+        BigInteger b = BigInteger.ONE;  // F(k+1)
+        for (int bit = 63 - Long.numberOfLeadingZeros(Math.max(n, 1)); bit >= 0; bit--) {
+            BigInteger twoB = b.shiftLeft(1);
+            BigInteger c = a.multiply(twoB.subtract(a));     // F(2k)
+            BigInteger d = a.multiply(a).add(b.multiply(b)); // F(2k+1)
+            if (((n >>> bit) & 1) == 0) {
+                a = c;
+                b = d;
+            } else {
+                a = d;
+                b = c.add(d);
+            }
+        }
+        return a;
+    }
+
+    // Factorial
+
+    /**
+     * n! by Luschny's prime swing: n! = ((n/2)!)^2 * swing(n),
+     * where swing(n) is a product of small prime powers.
+     */
+    public static BigInteger factorial(int n) {
+        if (n < 0) throw new IllegalArgumentException("n must be non-negative");
+        if (n < 20) {
+            long f = 1;
+            for (int i = 2; i <= n; i++) f *= i;
+            return BigInteger.valueOf(f);
+        }
+        int[] primes = PrimeSieve.smallPrimes(n);
+        return swingFactorial(n, primes);
+    }
+
+    private static BigInteger swingFactorial(int n, int[] primes) {
+        if (n < 2) return BigInteger.ONE;
+        BigInteger half = swingFactorial(n / 2, primes);
+        return half.multiply(half).multiply(swing(n, primes));
+    }
+
+    private static BigInteger swing(int n, int[] primes) {
+        long[] factors = new long[primes.length];
+        int count = 0;
+        for (int p : primes) {
+            if (p > n) break;
+            // exponent of p in n! / ((n/2)!)^2 is the number of odd floor(n / p^i)
+            long power = 1;
+            for (long q = n / p; q > 0; q /= p) {
+                if ((q & 1) == 1) power *= p;
+            }
+            if (power > 1) factors[count++] = power;
+        }
+        return product(factors, 0, count);
+    }
+
+    /**
+     * n! / (n - r)!
+     */
+    public static BigInteger permutation(long n, long r) {
+        if (r < 0 || r > n) throw new IllegalArgumentException("need 0 <= r <= n");
+        return rangeProduct(n - r + 1, n);
+    }
+
+    /**
+     * C(n, k) from its prime factorisation (Legendre), multiplied as a product tree.
+     */
+    public static BigInteger binomial(int n, int k) {
+        if (k < 0 || k > n) throw new IllegalArgumentException("need 0 <= k <= n");
+        k = Math.min(k, n - k);
+        if (k == 0) return BigInteger.ONE;
+        if (k == 1) return BigInteger.valueOf(n);
+
+        int[] primes = PrimeSieve.smallPrimes(n);
+        long[] factors = new long[primes.length];
+        int count = 0;
+        for (int p : primes) {
+            // primes in (n-k, n] divide exactly once, primes above n/2 and <= n-k never
+            long power = 1;
+            if (p > n - k) {
+                power = p;
+            } else if (p > n / 2) {
+                continue;
+            } else {
+                int e = 0;
+                for (long pk = p; pk <= n; pk *= p) {
+                    e += (int) (n / pk - k / pk - (n - k) / pk);
+                }
+                for (int i = 0; i < e; i++) power *= p;
+            }
+            if (power > 1) factors[count++] = power;
+        }
+        return product(factors, 0, count);
+    }
+
+    /**
+     * C(2n, n) / (n + 1).
+     */
+    public static BigInteger catalan(int n) {
+        if (n < 0) throw new IllegalArgumentException("n must be non-negative");
+        return binomial(2 * n, n).divide(BigInteger.valueOf(n + 1L));
+    }
+
+    /**
+     * !n = sum_{k=0..n} (-1)^k n!/k!, summed by binary splitting.
+     */
+    public static BigInteger derangements(int n) {
+        if (n < 0) throw new IllegalArgumentException("n must be non-negative");
+        return derangementSplit(0, n)[0];
+    }
+
+    // over [a, b]: {T, P} with P = (a+1)...b and T = sum_{k=a..b} (-1)^k (k+1)...b
+    private static BigInteger[] derangementSplit(int a, int b) {
+        if (a == b) {
+            return new BigInteger[]{(a & 1) == 0 ? BigInteger.ONE : BigInteger.ONE.negate(), BigInteger.ONE};
+        }
+        int m = (a + b) >>> 1;
+        BigInteger[] left = derangementSplit(a, m);
+        BigInteger[] right = derangementSplit(m + 1, b);
+        // (m+1)...b = (m+1) * right's P
+        BigInteger bridge = right[1].multiply(BigInteger.valueOf(m + 1L));
+        return new BigInteger[]{
+            left[0].multiply(bridge).add(right[0]),
+            left[1].multiply(bridge)
+        };
+    }
+
+    // Products
+
+    // lo * (lo+1) * ... * hi
+    static BigInteger rangeProduct(long lo, long hi) {
+        if (lo > hi) return BigInteger.ONE;
+        if (lo <= 0 && hi >= 0) return BigInteger.ZERO;
+        if (hi - lo < 16) {
+            BigInteger result = BigInteger.ONE;
+            long acc = 1;
+            for (long i = lo; i <= hi; i++) {
+                if (acc > Long.MAX_VALUE / i) {
+                    result = result.multiply(BigInteger.valueOf(acc));
+                    acc = 1;
+                }
+                acc *= i;
+            }
+            return result.multiply(BigInteger.valueOf(acc));
+        }
+        long mid = (lo + hi) >>> 1;
+        return rangeProduct(lo, mid).multiply(rangeProduct(mid + 1, hi));
+    }
+
+    // product of factors[from, to) as a balanced tree, packing small ones into longs first
+    static BigInteger product(long[] factors, int from, int to) {
+        int n = to - from;
+        if (n == 0) return BigInteger.ONE;
+        if (n <= 8) {
+            BigInteger result = BigInteger.ONE;
+            long acc = 1;
+            for (int i = from; i < to; i++) {
+                long f = factors[i];
+                if (f != 0 && acc > Long.MAX_VALUE / f) {
+                    result = result.multiply(BigInteger.valueOf(acc));
+                    acc = 1;
+                }
+                acc *= f;
+            }
+            return result.multiply(BigInteger.valueOf(acc));
+        }
+        int mid = (from + to) >>> 1;
+        return product(factors, from, mid).multiply(product(factors, mid, to));
+    }
+}
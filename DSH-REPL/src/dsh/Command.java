@@ -1,26 +1,51 @@
 package dsh;
 
 /**
- * A class for Commands
- * @author Ryan Pointer
- * @version 7/16/25
+ * Whole list version of an elementwise command. Gets the same args as the scalar function,
+ * with lists where the caller passed lists, and returns the list of results,
+ * or null to fall back to calling the scalar function per element.
  */
 @FunctionalInterface
-interface CommandFunction {
-    Value execute(Environment context, Value... args); // ... is variable length, so 0 to some number of Value args are allowed
+interface BulkFunction {
+    Value executeBulk(Environment context, Value... args);
 }
 
+/**
+ * A class for Commands
+ * @author Ryan Pointer
+ * @version 7/16/25
+ */
 class Command {
     private String description;
     private String hint;
     private CommandFunction function;
 	protected int params;
+    private final boolean pure; // same args always give the same result, so results can be cached
+    private final boolean elementwise; // list args are mapped over, one call per element
+    private BulkFunction bulk;
+    private Metrics.Timer timer; // set when registered, named after the command
     
     public Command(String description, String hint, CommandFunction function, int params) {
+        this(description, hint, function, params, false, false);
+    }
+    
+    public Command(String description, String hint, CommandFunction function, int params, boolean pure) {
+        this(description, hint, function, params, pure, false);
+    }
+    
+    public Command(String description, String hint, CommandFunction function, int params, boolean pure, boolean elementwise) {
         this.description = description;
         this.hint = hint;
         this.function = function;
         this.params = params;
+        this.pure = pure;
+        this.elementwise = elementwise;
+    }
+    
+    // a faster whole list implementation, tried before mapping element by element
+    public Command withBulk(BulkFunction bulk) {
+        this.bulk = bulk;
+        return this;
     }
     
     public String getDescription() {
@@ -31,6 +56,26 @@ class Command {
         return hint;
     }
     
+    public boolean isPure() {
+        return pure;
+    }
+    
+    public boolean isElementwise() {
+        return elementwise;
+    }
+    
+    public BulkFunction getBulk() {
+        return bulk;
+    }
+    
+    Metrics.Timer getTimer() {
+        return timer;
+    }
+    
+    void setTimer(Metrics.Timer timer) {
+        this.timer = timer;
+    }
+    
     public Value execute(Environment context, Value... args) {
         return function.execute(context, args);
     }
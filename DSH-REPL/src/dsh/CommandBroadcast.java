@@ -0,0 +1,213 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Runs an elementwise command over list and matrix arguments in one call.
+ * Lists must all be the same length and scalars are repeated for every element,
+ * so ":gcd xs 12" and ":gcd xs ys" both work. A matrix argument maps cell by cell
+ * into a matrix of the same shape.
+ * A command's bulk function gets the first shot; otherwise the scalar function runs
+ * once per element, in parallel for pure commands over large inputs.
+ * A disk-backed matrix is mapped a row at a time into a new disk-backed one instead.
+ *
+ * @author Ryan Pointer
+ * @version 8/18/25
+ */
+final class CommandBroadcast {
+    // below this many elements the fork/join overhead isn't worth it
+    static final int PARALLEL_THRESHOLD = 1 << 11;
+
+    private CommandBroadcast() {}
+
+    static boolean hasCollection(Value... args) {
+        for (Value arg : args) {
+            if (arg instanceof AList || arg instanceof AMatrix) return true;
+        }
+        return false;
+    }
+
+    static Value apply(String name, Command command, Environment context, Value... args) {
+        AMatrix shape = null;
+        long size = -1;
+        for (Value arg : args) {
+            long n;
+            if (arg instanceof AMatrix) {
+                AMatrix m = (AMatrix) arg;
+                if (shape != null && (shape.getRows() != m.getRows() || shape.getCols() != m.getCols())) {
+                    return new AString("Error: " + name + " needs matrices of the same shape");
+                }
+                shape = m;
+                n = (long) m.getRows() * m.getCols();
+            } else if (arg instanceof AList) {
+                n = ((AList<?>) arg).size();
+            } else {
+                continue;
+            }
+            if (size >= 0 && n != size) {
+                return new AString("Error: " + name + " needs lists of the same length (" + size + " vs " + n + ")");
+            }
+            size = n;
+        }
+        if (shape != null && size != (long) shape.getRows() * shape.getCols()) {
+            return new AString("Error: " + name + " can't mix lists and matrices");
+        }
+
+        if (shape != null && shape.getValue() instanceof PagedRows) {
+            return paged(name, command, context, shape, args);
+        }
+        if (size > Integer.MAX_VALUE) { // a result this big only fits on disk
+            return new AString("Error: " + name + " can't map " + size + " elements outside a disk-backed matrix");
+        }
+
+        if (shape == null && command.getBulk() != null) {
+            Value result = command.getBulk().executeBulk(context, args);
+            if (result != null) return result;
+        }
+
+        Value[] results = map(command, context, (int) size, args);
+        for (int i = 0; i < results.length; i++) {
+            if (isError(results[i])) {
+                return new AString("Error: " + name + " element " + i + ": " + results[i].toString().substring(7));
+            }
+        }
+        return shape == null ? new AList<>(Arrays.asList(results)) : reshape(results, shape.getCols());
+    }
+
+    private static Value[] map(final Command command, final Environment context, int size, final Value[] args) {
+        final Value[] results = new Value[size];
+        final List<List<Value>> sources = new ArrayList<>(args.length);
+        for (Value arg : args) {
+            sources.add(elements(arg));
+        }
+        if (command.isPure() && size >= PARALLEL_THRESHOLD) {
+            // pure commands share no state, so elements can run on any thread
+            IntStream.range(0, size).parallel().forEach(i -> results[i] = command.execute(context, row(args, sources, i)));
+        } else {
+            for (int i = 0; i < size; i++) {
+                results[i] = command.execute(context, row(args, sources, i));
+            }
+        }
+        return results;
+    }
+
+    // element by element in row order, so the input's blocks are read once, into a scratch file.
+    // Cells go by row and column, rows * cols can be past an int here.
+    private static Value paged(String name, Command command, Environment context, AMatrix shape, Value[] args) {
+        List<List<List<Value>>> matrices = new ArrayList<>(args.length);
+        List<List<Value>> lists = new ArrayList<>(args.length);
+        for (Value arg : args) {
+            @SuppressWarnings("unchecked")
+            List<List<Value>> matrix = arg instanceof AMatrix ? (List<List<Value>>) arg.getValue() : null;
+            matrices.add(matrix);
+            lists.add(arg instanceof AList ? elements(arg) : null);
+        }
+        int cols = shape.getCols();
+        PagedRows out;
+        try {
+            out = PagedRows.create(cols);
+        } catch (java.io.IOException | IllegalArgumentException e) {
+            return new AString("Error: " + name + " can't page its result: " + e.getMessage());
+        }
+        List<Value> row = new ArrayList<>(cols);
+        for (int i = 0; i < shape.getRows(); i++) {
+            row.clear();
+            for (int j = 0; j < cols; j++) {
+                Value result = command.execute(context, cell(args, matrices, lists, i, j, cols));
+                if (isError(result)) {
+                    out.release();
+                    return new AString("Error: " + name + " element [" + i + "," + j + "]: " + result.toString().substring(7));
+                }
+                Value stored = PagedRows.stored(result);
+                if (stored == null) {
+                    out.release();
+                    return new AString("Error: " + name + " gave " + result + ", a disk-backed matrix only holds numbers");
+                }
+                row.add(stored);
+            }
+            out.add(row);
+        }
+        return AMatrix.adopt(out, ANumber.class, cols);
+    }
+
+    // the scalar arguments for element i
+    private static Value[] row(Value[] args, List<List<Value>> sources, int i) {
+        Value[] row = new Value[args.length];
+        for (int a = 0; a < args.length; a++) {
+            List<Value> source = sources.get(a);
+            row[a] = source == null ? args[a] : source.get(i);
+        }
+        return row;
+    }
+
+    // the scalar arguments for cell [i, j]; a list only gets here as long as the matrix, so i * cols + j fits
+    private static Value[] cell(Value[] args, List<List<List<Value>>> matrices, List<List<Value>> lists, int i, int j, int cols) {
+        Value[] cell = new Value[args.length];
+        for (int a = 0; a < args.length; a++) {
+            if (matrices.get(a) != null) {
+                cell[a] = matrices.get(a).get(i).get(j);
+            } else if (lists.get(a) != null) {
+                cell[a] = lists.get(a).get(i * cols + j);
+            } else {
+                cell[a] = args[a];
+            }
+        }
+        return cell;
+    }
+
+    // flat element view of a list or matrix (row major), null for scalars
+    @SuppressWarnings("unchecked")
+    private static List<Value> elements(Value arg) {
+        if (arg instanceof AList) {
+            return (List<Value>) arg.getValue();
+        }
+        if (arg instanceof AMatrix) {
+            final List<List<Value>> rows = (List<List<Value>>) arg.getValue();
+            final int cols = ((AMatrix) arg).getCols();
+            return new java.util.AbstractList<Value>() {
+                public Value get(int i) { return rows.get(i / cols).get(i % cols); }
+                public int size() { return rows.size() * cols; }
+            };
+        }
+        return null;
+    }
+
+    private static AMatrix reshape(Value[] results, int cols) {
+        List<List<Value>> rows = new ArrayList<>();
+        for (int r = 0; r * cols < results.length; r++) {
+            rows.add(Arrays.asList(results).subList(r * cols, (r + 1) * cols));
+        }
+        return new AMatrix(rows);
+    }
+
+    // commands report bad input as an "Error: ..." string
+    static boolean isError(Value v) {
+        return v instanceof AString && v.toString().startsWith("Error: ");
+    }
+
+    /**
+     * Integer contents of a list as longs, or null if any element isn't a whole number that fits.
+     * Primitive backed lists hand over their array without copying.
+     */
+    static long[] longs(Value arg) {
+        if (!(arg instanceof AList)) return null;
+        Object elements = arg.getValue();
+        if (elements instanceof LongArrayList) {
+            LongArrayList list = (LongArrayList) elements;
+            long[] raw = list.rawArray();
+            return raw.length == list.size() ? raw : list.toLongArray();
+        }
+        @SuppressWarnings("unchecked")
+        List<Value> values = (List<Value>) elements;
+        long[] out = new long[values.size()];
+        for (int i = 0; i < out.length; i++) {
+            Value v = values.get(i);
+            if (!LongArrayList.fits(v)) return null;
+            out[i] = ((ANumber) v).getValue().longValue();
+        }
+        return out;
+    }
+}
@@ -0,0 +1,108 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * What a CommandProvider fills in: each command's metadata now, its implementation later.
+ * The implementation is either a Supplier (a lambda or constructor reference, whose target
+ * class isn't loaded until the lambda runs) or the name of a CommandFunction class.
+ *
+ * @author Ryan Pointer
+ * @version 8/20/25
+ */
+public final class CommandCatalog {
+    private final ClassLoader loader;
+    private final String source;
+    private final List<Entry> entries = new ArrayList<>();
+
+    CommandCatalog(ClassLoader loader, String source) {
+        this.loader = loader;
+        this.source = source;
+    }
+
+    public void add(String name, String description, String hint, int params,
+                    Supplier<? extends CommandFunction> implementation) {
+        add(name, description, hint, params, false, implementation);
+    }
+
+    public void add(String name, String description, String hint, int params, boolean pure,
+                    Supplier<? extends CommandFunction> implementation) {
+        entries.add(new Entry(name, new Command(description, hint,
+            new LazyCommandFunction(name, implementation), params, pure)));
+    }
+
+    /**
+     * Same, naming a public CommandFunction class with a no argument constructor.
+     */
+    public void add(String name, String description, String hint, int params, boolean pure,
+                    final String className) {
+        add(name, description, hint, params, pure, () -> instantiate(className));
+    }
+
+    private CommandFunction instantiate(String className) {
+        try {
+            Class<?> type = Class.forName(className, true, loader);
+            return (CommandFunction) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Can't load " + className + " from " + source + ": " + e, e);
+        }
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    List<Entry> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    static final class Entry {
+        final String name;
+        final Command command;
+
+        Entry(String name, Command command) {
+            this.name = name;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Resolves the real function on first execute and keeps it.
+     */
+    static final class LazyCommandFunction implements CommandFunction {
+        private final String name;
+        private Supplier<? extends CommandFunction> supplier;
+        private volatile CommandFunction function;
+
+        LazyCommandFunction(String name, Supplier<? extends CommandFunction> supplier) {
+            this.name = name;
+            this.supplier = supplier;
+        }
+
+        boolean isLoaded() {
+            return function != null;
+        }
+
+        @Override
+        public Value execute(Environment context, Value... args) {
+            CommandFunction f = function;
+            if (f == null) {
+                synchronized (this) {
+                    f = function;
+                    if (f == null) {
+                        f = supplier.get();
+                        if (f == null) {
+                            throw new IllegalStateException("Plugin gave no implementation for " + name);
+                        }
+                        function = f;
+                        supplier = null; // let the factory go
+                    }
+                }
+            }
+            return f.execute(context, args);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package dsh;
+
+/**
+ * What a command does. Public so plugins (see CommandProvider) can implement it.
+ * @author Ryan Pointer
+ * @version 7/16/25
+ */
+@FunctionalInterface
+public interface CommandFunction {
+    Value execute(Environment context, Value... args); // ... is variable length, so 0 to some number of Value args are allowed
+}
@@ -0,0 +1,18 @@
+package dsh;
+
+/**
+ * Service provider interface for command plugins.
+ * Implementations are found with ServiceLoader, from the classpath
+ * (META-INF/services/dsh.CommandProvider) and from the jars in the plugins directory.
+ * describe() runs at startup and should only declare commands; the classes doing the
+ * actual work are loaded the first time one of their commands is used.
+ *
+ * @author Ryan Pointer
+ * @version 8/20/25
+ */
+public interface CommandProvider {
+    /**
+     * Declare this plugin's commands. Keep it cheap, it runs on every startup.
+     */
+    void describe(CommandCatalog catalog);
+}
@@ -1,5 +1,6 @@
 package dsh;
 import java.util.*;
+import java.math.BigDecimal;
 import java.math.BigInteger;
 
 /**
@@ -9,11 +10,127 @@ import java.math.BigInteger;
  * @version 7/16/25
  */
 public class CommandRegistry {
-    private Map<String, Command> commands;
+    // bound on rho steps per split for inputs past 64 bits
+    private static final long FACTOR_MAX_ITERATIONS = 50_000_000L;
+    // largest prime list :primes will build, bigger ranges should count or stream
+    private static final int MAX_PRIME_LIST = 10_000_000;
+    private static final int MAX_PRIME_TEXT = 1_000_000; // primestream with nowhere to stream to
+    // largest n for fib/binomial/catalan/permutation, and for the slower n!-sized ones
+    private static final long MAX_COMBINATORICS_N = 10_000_000L;
+    private static final long MAX_FACTORIAL_N = 2_000_000L;
+    // every term is kept, so the list grows quadratically in digits
+    private static final int MAX_FIBONACCI_TERMS = 10_000;
+    
+    // plugin jars are read from here, unless -Ddsh.plugins says otherwise
+    private static final String PLUGIN_DIR = System.getProperty("dsh.plugins", "plugins");
+    
+    private Map<String, Command> commands; // concurrent, server sessions share one registry
+    private final Map<String, String> pluginSources = new TreeMap<>(); // command -> provider class
+    private final ResultCache cache = new ResultCache(ResultCache.DEFAULT_MAX_BYTES);
     
     public CommandRegistry() {
-        this.commands = new HashMap<>();
+        this.commands = new java.util.concurrent.ConcurrentHashMap<>();
         initializeCommands();
+        loadPlugins();
+    }
+    
+    /**
+     * Register every command declared by a CommandProvider on the classpath or in the plugins directory.
+     * Only metadata is read here, implementations load on first use. Built in names win over plugins.
+     */
+    private void loadPlugins() {
+        ClassLoader loader = pluginClassLoader(new java.io.File(PLUGIN_DIR));
+        Iterator<CommandProvider> providers = ServiceLoader.load(CommandProvider.class, loader).iterator();
+        while (true) {
+            CommandProvider provider;
+            try {
+                if (!providers.hasNext()) break;
+                provider = providers.next();
+            } catch (ServiceConfigurationError e) {
+                System.err.println("Skipping plugin: " + e.getMessage());
+                continue;
+            }
+            
+            CommandCatalog catalog = new CommandCatalog(provider.getClass().getClassLoader(), provider.getClass().getName());
+            try {
+                provider.describe(catalog);
+            } catch (RuntimeException e) {
+                System.err.println("Skipping plugin " + catalog.getSource() + ": " + e.getMessage());
+                continue;
+            }
+            for (CommandCatalog.Entry entry : catalog.entries()) {
+                if (commands.containsKey(entry.name)) {
+                    System.err.println("Plugin " + catalog.getSource() + ": '" + entry.name + "' is already defined, ignored");
+                    continue;
+                }
+                registerCommand(entry.name, entry.command);
+                pluginSources.put(entry.name, catalog.getSource());
+            }
+        }
+    }
+    
+    // jars in dir on top of our own classpath, or just our own loader when there are none
+    private static ClassLoader pluginClassLoader(java.io.File dir) {
+        ClassLoader parent = CommandRegistry.class.getClassLoader();
+        java.io.File[] jars = dir.listFiles((d, name) -> name.endsWith(".jar"));
+        if (jars == null || jars.length == 0) {
+            return parent;
+        }
+        Arrays.sort(jars);
+        java.net.URL[] urls = new java.net.URL[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            try {
+                urls[i] = jars[i].toURI().toURL();
+            } catch (java.net.MalformedURLException e) {
+                throw new IllegalStateException(e); // a File's own URI is always well formed
+            }
+        }
+        return new java.net.URLClassLoader(urls, parent);
+    }
+    
+    // plugin command name -> provider that declared it
+    public Map<String, String> getPluginSources() {
+        return Collections.unmodifiableMap(pluginSources);
+    }
+    
+    /**
+     * Run a command, answering from the result cache when it is pure and has seen these args before.
+     * Elementwise commands given a list or matrix run over every element and return a list (or matrix).
+     */
+    public Value execute(String name, Environment context, Value... args) {
+        Command command = commands.get(name);
+        Metrics.Timer timer = command.getTimer();
+        long t0 = timer.start();
+        long a0 = Metrics.allocatedBytes();
+        try {
+            return run(name, command, context, args);
+        } finally {
+            timer.stop(t0, a0);
+        }
+    }
+    
+    private Value run(String name, Command command, Environment context, Value... args) {
+        if (command.isElementwise() && CommandBroadcast.hasCollection(args)) {
+            return CommandBroadcast.apply(name, command, context, args);
+        }
+        if (!command.isPure()) {
+            return command.execute(context, args);
+        }
+        ResultCache.Key key = ResultCache.keyFor(name, args);
+        if (key == null) {
+            return command.execute(context, args);
+        }
+        Value cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Value result = command.execute(context, args);
+        cache.put(key, result);
+        return result;
+    }
+    
+    ResultCache getCache() {
+        return cache;
     }
     
     public int size() {
@@ -34,85 +151,220 @@ public class CommandRegistry {
             "Calculate factorial of a number",
             "factorial <n>",
             this::factorial,
-            1
+            1, true, true
         ));
         
         registerCommand("permutation", new Command(
             "Calculate permutation P(n,r) = n!/(n-r)!",
             "permutation <n> <r>",
             this::permutation,
-            2
+            2, true, true
         ));
         
         registerCommand("combination", new Command(
             "Calculate combination C(n,r) = n!/(r!(n-r)!)",
             "combination <n> <r>",
             this::combination,
-            2
+            2, true, true
         ));
         
         registerCommand("gcd", new Command(
             "Calculate greatest common divisor",
             "gcd <a> <b>",
             this::gcd,
-            2
-        ));
+            2, true, true
+        ).withBulk(this::gcdBulk));
         
         registerCommand("lcm", new Command(
             "Calculate least common multiple",
             "lcm <a> <b>",
             this::lcm,
-            2
+            2, true, true
         ));
         
         registerCommand("modpow", new Command(
             "Calculate modular exponentiation (a^b mod m)",
             "modpow <base> <exponent> <modulus>",
             this::modularPower,
-            3
+            3, true, true
         ));
         
         registerCommand("isprime", new Command(
             "Check if a number is prime",
             "isprime <n>",
             this::isPrime,
-            1
+            1, true, true
+        ).withBulk(this::isPrimeBulk));
+        
+        registerCommand("factor", new Command(
+            "Prime factors of n, with repetition",
+            "factor <n>",
+            this::factor,
+            1, true
         ));
         
         registerCommand("fibonacci", new Command(
             "Generate Fibonacci sequence up to n terms",
             "fibonacci <n>",
             this::fibonacci,
-            1
+            1, true
+        ));
+        
+        registerCommand("fib", new Command(
+            "Calculate the nth Fibonacci number",
+            "fib <n>",
+            this::fib,
+            1, true, true
         ));
         
         registerCommand("primes", new Command(
-            "Generate prime numbers up to n",
-            "primes <n>",
+            "List the primes up to n, or in [lo, hi]",
+            "primes [lo] <hi>",
             this::primesUpTo,
-            1
+            2, true
+        ));
+        
+        registerCommand("primecount", new Command(
+            "Count the primes up to n, or in [lo, hi], without listing them",
+            "primecount [lo] <hi>",
+            this::primeCount,
+            2, true, true
+        ));
+        
+        registerCommand("primestream", new Command(
+            "The primes up to n, or in [lo, hi], one per line as they are found",
+            "primestream [lo] <hi>",
+            this::primeStream,
+            2
         ));
         
         registerCommand("binomial", new Command(
             "Calculate binomial coefficient (same as combination)",
             "binomial <n> <k>",
             this::combination,
-            2
+            2, true, true
         ));
         
         registerCommand("derangements", new Command(
             "Calculate number of derangements of n objects",
             "derangements <n>",
             this::derangements,
-            1
+            1, true, true
         ));
         
         registerCommand("catalan", new Command(
             "Calculate nth Catalan number",
             "catalan <n>",
             this::catalan,
+            1, true, true
+        ));
+        
+        registerCommand("range", new Command(
+            "Integers from lo (default 0) below hi, by step (default 1)",
+            "range [lo] <hi> [step]",
+            this::range,
+            3, true
+        ));
+        
+        registerCommand("column", new Command(
+            "Column c of a matrix as a list",
+            "column <matrix> <c>",
+            this::column,
+            2
+        ));
+        
+        registerCommand("csv", new Command(
+            "Load a CSV file as a matrix, skipping a header row if asked, off the heap or paged from disk",
+            "csv \"path\" [header] [\"offheap\"|\"disk\"]",
+            this::csv,
+            3
+        ));
+        
+        registerCommand("offheap", new Command(
+            "Copy a list or matrix of numbers off the heap, or show how much is there",
+            "offheap [list|matrix]",
+            this::offHeap,
+            1
+        ));
+        
+        registerCommand("paging", new Command(
+            "Disk-backed matrix block cache stats, or set how many blocks each one keeps mapped",
+            "paging [blocks]",
+            this::paging,
+            1
+        ));
+        
+        registerCommand("addrow", new Command(
+            "Append a row to a matrix in place (derived variables only redo the new rows)",
+            "addrow <matrix> <list>",
+            this::addRow,
+            2
+        ));
+        
+        registerCommand("matmul", new Command(
+            "Matrix product of two matrices of numbers",
+            "matmul <matrix> <matrix>",
+            this::matmul,
+            2
+        ));
+        
+        // Sharing between sessions
+        registerCommand("share", new Command(
+            "Publish a value to every session under name (it becomes read only)",
+            "share \"name\" <value>",
+            this::share,
+            2
+        ));
+        
+        registerCommand("unshare", new Command(
+            "Remove a shared name",
+            "unshare \"name\"",
+            this::unshare,
             1
         ));
+        
+        // Reductions over lists and matrices
+        registerCommand("sum", new Command(
+            "Sum of a list or matrix (compensated), optionally per axis",
+            "sum <list|matrix> [axis]",
+            (context, args) -> reduce("sum", s -> s.sum - s.compensation, args),
+            2
+        ));
+        
+        registerCommand("mean", new Command(
+            "Arithmetic mean of a list or matrix, optionally per axis",
+            "mean <list|matrix> [axis]",
+            (context, args) -> reduce("mean", s -> s.count == 0 ? Double.NaN : s.mean, args),
+            2
+        ));
+        
+        registerCommand("min", new Command(
+            "Smallest value of a list or matrix, optionally per axis",
+            "min <list|matrix> [axis]",
+            (context, args) -> reduce("min", s -> s.min, args),
+            2
+        ));
+        
+        registerCommand("max", new Command(
+            "Largest value of a list or matrix, optionally per axis",
+            "max <list|matrix> [axis]",
+            (context, args) -> reduce("max", s -> s.max, args),
+            2
+        ));
+        
+        registerCommand("variance", new Command(
+            "Sample variance of a list or matrix, optionally per axis",
+            "variance <list|matrix> [axis]",
+            (context, args) -> reduce("variance", Reductions.Summary::variance, args),
+            2
+        ));
+        
+        registerCommand("histogram", new Command(
+            "Count values into equal width bins, one [low, high, count] row per bin",
+            "histogram <list|matrix> [bins]",
+            this::histogram,
+            2
+        ));
     }
     
     // Discrete Math Command Implementations
@@ -122,25 +374,11 @@ public class CommandRegistry {
             return new AString("Error: Provide a number");
         }
         
-        Result<Value> numberResult = args[0].asNumber();
-        if (numberResult.isError()) {
-            return new AString("Error: Invalid number format");
-        }
-        
-        int n = ((ANumber) numberResult.getValue()).getValue().intValue();
-        if (n < 0) {
-            return new AString("Error: Factorial undefined for negative numbers");
+        Result<Long> n = integerArg("factorial", args[0], MAX_FACTORIAL_N);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
         }
-        if (n > 20) {
-            return new AString("Error: Result too large - use values ≤ 20");
-        }
-        
-        BigInteger result = BigInteger.ONE;
-        for (int i = 2; i <= n; i++) {
-            result = result.multiply(BigInteger.valueOf(i));
-        }
-        
-        return new AString(n + "! = " + result.toString());
+        return toNumber(Combinatorics.factorial(n.getValue().intValue()));
     }
     
     private Value permutation(Environment context, Value... args) {
@@ -148,29 +386,18 @@ public class CommandRegistry {
             return new AString("Error: Provide two numbers (n, r)");
         }
         
-        Result<Value> nResult = args[0].asNumber();
-        Result<Value> rResult = args[1].asNumber();
-        
-        if (nResult.isError() || rResult.isError()) {
-            return new AString("Error: Invalid number format");
+        Result<Long> n = integerArg("permutation", args[0], Long.MAX_VALUE);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
         }
-        
-        int n = ((ANumber) nResult.getValue()).getValue().intValue();
-        int r = ((ANumber) rResult.getValue()).getValue().intValue();
-        
-        if (n < 0 || r < 0) {
-            return new AString("Error: Values must be non-negative");
+        Result<Long> r = integerArg("permutation", args[1], MAX_COMBINATORICS_N);
+        if (r.isError()) {
+            return new AString("Error: " + r.getErrorMessage());
         }
-        if (r > n) {
+        if (r.getValue() > n.getValue()) {
             return new AString("Error: r cannot be greater than n");
         }
-        
-        BigInteger result = BigInteger.ONE;
-        for (int i = n; i > n - r; i--) {
-            result = result.multiply(BigInteger.valueOf(i));
-        }
-        
-        return new AString("P(" + n + "," + r + ") = " + result.toString());
+        return toNumber(Combinatorics.permutation(n.getValue(), r.getValue()));
     }
     
     private Value combination(Environment context, Value... args) {
@@ -178,34 +405,18 @@ public class CommandRegistry {
             return new AString("Error: Provide two numbers (n, r)");
         }
         
-        Result<Value> nResult = args[0].asNumber();
-        Result<Value> rResult = args[1].asNumber();
-        
-        if (nResult.isError() || rResult.isError()) {
-            return new AString("Error: Invalid number format");
+        Result<Long> n = integerArg("combination", args[0], MAX_COMBINATORICS_N);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
         }
-        
-        int n = ((ANumber) nResult.getValue()).getValue().intValue();
-        int r = ((ANumber) rResult.getValue()).getValue().intValue();
-        
-        if (n < 0 || r < 0) {
-            return new AString("Error: Values must be non-negative");
+        Result<Long> r = integerArg("combination", args[1], MAX_COMBINATORICS_N);
+        if (r.isError()) {
+            return new AString("Error: " + r.getErrorMessage());
         }
-        if (r > n) {
+        if (r.getValue() > n.getValue()) {
             return new AString("Error: r cannot be greater than n");
         }
-        
-        // Use the more efficient formula: C(n,r) = C(n, n-r)
-        int originalR = r;
-        r = Math.min(r, n - r);
-        
-        BigInteger result = BigInteger.ONE;
-        for (int i = 0; i < r; i++) {
-            result = result.multiply(BigInteger.valueOf(n - i));
-            result = result.divide(BigInteger.valueOf(i + 1));
-        }
-        
-        return new AString("C(" + n + "," + originalR + ") = " + result.toString());
+        return toNumber(Combinatorics.binomial(n.getValue().intValue(), r.getValue().intValue()));
     }
     
     private Value gcd(Environment context, Value... args) {
@@ -213,27 +424,39 @@ public class CommandRegistry {
             return new AString("Error: Provide two numbers");
         }
         
-        Result<Value> aResult = args[0].asNumber();
-        Result<Value> bResult = args[1].asNumber();
-        
-        if (aResult.isError() || bResult.isError()) {
-            return new AString("Error: Invalid number format");
+        BigInteger[] ab = integerPair("gcd", args);
+        if (ab == null) {
+            return new AString("Error: gcd needs two integers");
         }
-        
-        long a = ((ANumber) aResult.getValue()).getValue().longValue();
-        long b = ((ANumber) bResult.getValue()).getValue().longValue();
-        
-        long result = gcdHelper(Math.abs(a), Math.abs(b));
-        return new AString("gcd(" + a + ", " + b + ") = " + result);
+        if (ab[0].bitLength() < 63 && ab[1].bitLength() < 63) {
+            return ANumber.of(NumberTheory.gcd(Math.abs(ab[0].longValue()), Math.abs(ab[1].longValue())));
+        }
+        return toNumber(ab[0].gcd(ab[1]));
     }
     
-    private long gcdHelper(long a, long b) {
-        while (b != 0) {
-            long temp = b;
-            b = a % b;
-            a = temp;
+    // both sides as longs, straight from primitive storage when there is one
+    private Value gcdBulk(Environment context, Value... args) {
+        long[] a = CommandBroadcast.longs(args[0]);
+        long[] b = CommandBroadcast.longs(args[1]);
+        long scalarA = 0;
+        long scalarB = 0;
+        if (a == null) {
+            if (args[0] instanceof AList || !LongArrayList.fits(args[0])) return null;
+            scalarA = ((ANumber) args[0]).getValue().longValue();
+        }
+        if (b == null) {
+            if (args[1] instanceof AList || !LongArrayList.fits(args[1])) return null;
+            scalarB = ((ANumber) args[1]).getValue().longValue();
         }
-        return a;
+        int size = a != null ? ((AList<?>) args[0]).size() : ((AList<?>) args[1]).size();
+        long[] out = new long[size];
+        for (int i = 0; i < size; i++) {
+            long x = Math.abs(a != null ? a[i] : scalarA);
+            long y = Math.abs(b != null ? b[i] : scalarB);
+            out[i] = NumberTheory.gcd(x, y);
+            if (out[i] < 0) return null; // only |Long.MIN_VALUE| gets here, let BigInteger have it
+        }
+        return AList.ofLongs(out);
     }
     
     private Value lcm(Environment context, Value... args) {
@@ -241,23 +464,32 @@ public class CommandRegistry {
             return new AString("Error: Provide two numbers");
         }
         
-        Result<Value> aResult = args[0].asNumber();
-        Result<Value> bResult = args[1].asNumber();
-        
-        if (aResult.isError() || bResult.isError()) {
-            return new AString("Error: Invalid number format");
+        BigInteger[] ab = integerPair("lcm", args);
+        if (ab == null) {
+            return new AString("Error: lcm needs two integers");
         }
-        
-        long a = ((ANumber) aResult.getValue()).getValue().longValue();
-        long b = ((ANumber) bResult.getValue()).getValue().longValue();
-        
-        if (a == 0 || b == 0) {
+        if (ab[0].signum() == 0 || ab[1].signum() == 0) {
             return new AString("Error: LCM undefined for zero");
         }
         
-        long gcd = gcdHelper(Math.abs(a), Math.abs(b));
-        long result = Math.abs(a * b) / gcd;
-        return new AString("lcm(" + a + ", " + b + ") = " + result);
+        BigInteger gcd = ab[0].gcd(ab[1]);
+        return toNumber(ab[0].divide(gcd).multiply(ab[1]).abs());
+    }
+    
+    // the first two args as exact integers, or null
+    private static BigInteger[] integerPair(String name, Value... args) {
+        BigInteger[] pair = new BigInteger[2];
+        for (int i = 0; i < 2; i++) {
+            Result<Value> numberResult = args[i].asNumber();
+            if (numberResult.isError()) {
+                return null;
+            }
+            pair[i] = toInteger(((ANumber) numberResult.getValue()).getValue());
+            if (pair[i] == null) {
+                return null;
+            }
+        }
+        return pair;
     }
     
     private Value modularPower(Environment context, Value... args) {
@@ -265,31 +497,26 @@ public class CommandRegistry {
             return new AString("Error: Provide three numbers (base, exponent, modulus)");
         }
         
-        Result<Value> baseResult = args[0].asNumber();
-        Result<Value> expResult = args[1].asNumber();
-        Result<Value> modResult = args[2].asNumber();
-        
-        if (baseResult.isError() || expResult.isError() || modResult.isError()) {
-            return new AString("Error: Invalid number format");
+        BigInteger[] values = new BigInteger[3];
+        for (int i = 0; i < 3; i++) {
+            Result<Value> numberResult = args[i].asNumber();
+            if (numberResult.isError()) {
+                return new AString("Error: Invalid number format");
+            }
+            values[i] = toInteger(((ANumber) numberResult.getValue()).getValue());
+            if (values[i] == null) {
+                return new AString("Error: modpow needs integers");
+            }
         }
         
-        long base = ((ANumber) baseResult.getValue()).getValue().longValue();
-        long exponent = ((ANumber) expResult.getValue()).getValue().longValue();
-        long modulus = ((ANumber) modResult.getValue()).getValue().longValue();
-        
-        if (modulus == 0) {
-            return new AString("Error: Modulus cannot be zero");
+        if (values[2].signum() <= 0) {
+            return new AString("Error: Modulus must be positive");
         }
-        if (exponent < 0) {
+        if (values[1].signum() < 0) {
             return new AString("Error: Negative exponents not supported");
         }
         
-        BigInteger bigBase = BigInteger.valueOf(base);
-        BigInteger bigExp = BigInteger.valueOf(exponent);
-        BigInteger bigMod = BigInteger.valueOf(modulus);
-        
-        BigInteger result = bigBase.modPow(bigExp, bigMod);
-        return new AString(base + "^" + exponent + " mod " + modulus + " = " + result);
+        return toNumber(values[0].modPow(values[1], values[2]));
     }
     
     private Value isPrime(Environment context, Value... args) {
@@ -302,23 +529,67 @@ public class CommandRegistry {
             return new AString("Error: Invalid number format");
         }
         
-        long n = ((ANumber) numberResult.getValue()).getValue().longValue();
-        if (n < 2) {
-            return new ABoolean(false);
+        BigInteger n = toInteger(((ANumber) numberResult.getValue()).getValue());
+        if (n == null) {
+            return ABoolean.FALSE; // fractions are never prime
+        }
+        if (n.bitLength() < 64) {
+            return ABoolean.of(NumberTheory.isPrime(n.longValue()));
+        }
+        return ABoolean.of(NumberTheory.isPrime(n));
+    }
+    
+    private Value factor(Environment context, Value... args) {
+        if (args.length == 0) {
+            return new AString("Error: Provide a number");
         }
-        if (n == 2) {
-            return new ABoolean(true);
+        
+        Result<Value> numberResult = args[0].asNumber();
+        if (numberResult.isError()) {
+            return new AString("Error: Invalid number format");
         }
-        if (n % 2 == 0) {
-            return new ABoolean(false);
+        
+        BigInteger n = toInteger(((ANumber) numberResult.getValue()).getValue());
+        if (n == null || n.signum() <= 0) {
+            return new AString("Error: factor needs a positive integer");
         }
         
-        for (long i = 3; i * i <= n; i += 2) {
-            if (n % i == 0) {
-                return new ABoolean(false);
+        List<Value> factors = new ArrayList<>();
+        if (n.bitLength() < 64) {
+            for (long f : NumberTheory.factor(n.longValue())) {
+                factors.add(ANumber.of(f));
+            }
+        } else {
+            for (BigInteger f : NumberTheory.factor(n, FACTOR_MAX_ITERATIONS)) {
+                factors.add(ANumber.of(new BigDecimal(f)));
             }
         }
-        return new ABoolean(true);
+        return new AList<>(factors);
+    }
+    
+    // primitive lists are tested straight from their long[], in parallel when large
+    private Value isPrimeBulk(Environment context, Value... args) {
+        final long[] values = CommandBroadcast.longs(args[0]);
+        if (values == null) {
+            return null; // fractions or huge numbers, the scalar path sorts those out
+        }
+        int size = ((AList<?>) args[0]).size();
+        final Value[] out = new Value[size];
+        java.util.stream.IntStream indices = java.util.stream.IntStream.range(0, size);
+        if (size >= CommandBroadcast.PARALLEL_THRESHOLD) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> out[i] = ABoolean.of(NumberTheory.isPrime(values[i])));
+        return new AList<>(Arrays.asList(out));
+    }
+    
+    // exact integer value, or null when there is a fractional part
+    private static BigInteger toInteger(BigDecimal value) {
+        try {
+            return value.toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
     }
     
     private Value fibonacci(Environment context, Value... args) {
@@ -326,82 +597,137 @@ public class CommandRegistry {
             return new AString("Error: Provide number of terms");
         }
         
-        Result<Value> numberResult = args[0].asNumber();
-        if (numberResult.isError()) {
-            return new AString("Error: Invalid number format");
+        Result<Long> terms = integerArg("fibonacci", args[0], MAX_FIBONACCI_TERMS);
+        if (terms.isError()) {
+            return new AString("Error: " + terms.getErrorMessage());
         }
-        
-        int n = ((ANumber) numberResult.getValue()).getValue().intValue();
-        if (n <= 0) {
+        int n = terms.getValue().intValue();
+        if (n == 0) {
             return new AString("Error: Number of terms must be positive");
         }
-        if (n > 50) {
-            return new AString("Error: Too many terms - use values ≤ 50");
-        }
-        
-        List<BigInteger> fib = new ArrayList<>();
-        if (n >= 1) fib.add(BigInteger.ZERO);
-        if (n >= 2) fib.add(BigInteger.ONE);
         
-        for (int i = 2; i < n; i++) {
-            fib.add(fib.get(i-1).add(fib.get(i-2)));
+        List<Value> fib = new ArrayList<>(n);
+        BigInteger a = BigInteger.ZERO;
+        BigInteger b = BigInteger.ONE;
+        for (int i = 0; i < n; i++) {
+            fib.add(toNumber(a));
+            BigInteger next = a.add(b);
+            a = b;
+            b = next;
         }
-        
-        StringBuilder result = new StringBuilder("Fibonacci(" + n + "): ");
-        for (int i = 0; i < fib.size(); i++) {
-            result.append(fib.get(i));
-            if (i < fib.size() - 1) result.append(", ");
+        return new AList<>(fib);
+    }
+    
+    private Value fib(Environment context, Value... args) {
+        if (args.length == 0) {
+            return new AString("Error: Provide a number");
         }
         
-        return new AString(result.toString());
+        Result<Long> n = integerArg("fib", args[0], MAX_COMBINATORICS_N);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
+        }
+        return toNumber(Combinatorics.fibonacci(n.getValue()));
     }
     
     private Value primesUpTo(Environment context, Value... args) {
-        if (args.length == 0) {
-            return new AString("Error: Provide upper limit");
+        Result<long[]> range = primeRange("primes", args);
+        if (range.isError()) {
+            return new AString("Error: " + range.getErrorMessage());
         }
+        long[] bounds = range.getValue();
         
-        Result<Value> numberResult = args[0].asNumber();
-        if (numberResult.isError()) {
-            return new AString("Error: Invalid number format");
+        try {
+            return AList.ofLongs(PrimeSieve.list(bounds[0], bounds[1], MAX_PRIME_LIST));
+        } catch (IllegalStateException e) {
+            return new AString("Error: " + e.getMessage() + " - use primecount");
         }
-        
-        int n = ((ANumber) numberResult.getValue()).getValue().intValue();
-        if (n < 2) {
-            return new AString("No primes less than 2");
+    }
+    
+    private Value primeCount(Environment context, Value... args) {
+        Result<long[]> range = primeRange("primecount", args);
+        if (range.isError()) {
+            return new AString("Error: " + range.getErrorMessage());
         }
-        if (n > 1000) {
-            return new AString("Error: Too large - use values ≤ 1000");
+        long[] bounds = range.getValue();
+        return ANumber.of(PrimeSieve.count(bounds[0], bounds[1]));
+    }
+    
+    // written to the context's output as segments finish, nothing is collected, and the count
+    // comes back; with no output (a job, a benchmark) the primes come back as text instead
+    private Value primeStream(Environment context, Value... args) {
+        Result<long[]> range = primeRange("primestream", args);
+        if (range.isError()) {
+            return new AString("Error: " + range.getErrorMessage());
         }
+        long[] bounds = range.getValue();
         
-        List<Integer> primes = sieveOfEratosthenes(n);
-        StringBuilder result = new StringBuilder("Primes up to " + n + ": ");
-        for (int i = 0; i < primes.size(); i++) {
-            result.append(primes.get(i));
-            if (i < primes.size() - 1) result.append(", ");
+        final java.io.Writer out = context != null ? context.getOutput() : null;
+        if (out == null) {
+            return primeText(bounds);
+        }
+        try {
+            long count = PrimeSieve.forEach(bounds[0], bounds[1], p -> {
+                try {
+                    out.write(Long.toString(p));
+                    out.write('\n');
+                } catch (java.io.IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            return ANumber.of(count);
+        } catch (java.io.IOException e) {
+            return new AString("Error: primestream stopped - " + e.getMessage());
+        } catch (java.io.UncheckedIOException e) {
+            return new AString("Error: primestream stopped - " + e.getCause().getMessage());
         }
-        result.append(" (").append(primes.size()).append(" primes)");
-        
-        return new AString(result.toString());
     }
     
-    private List<Integer> sieveOfEratosthenes(int n) {
-        boolean[] isPrime = new boolean[n + 1];
-        for (int i = 2; i <= n; i++) isPrime[i] = true;
-        
-        for (int i = 2; i * i <= n; i++) {
-            if (isPrime[i]) {
-                for (int j = i * i; j <= n; j += i) {
-                    isPrime[j] = false;
+    // the primes as one string, a prime per line, for small ranges only
+    private Value primeText(long[] bounds) {
+        final StringBuilder text = new StringBuilder();
+        final long[] count = {0};
+        try {
+            PrimeSieve.forEach(bounds[0], bounds[1], p -> {
+                if (++count[0] > MAX_PRIME_TEXT) {
+                    throw new IllegalStateException("More than " + MAX_PRIME_TEXT + " primes in range");
                 }
-            }
+                if (text.length() > 0) text.append('\n');
+                text.append(p);
+            });
+        } catch (IllegalStateException e) {
+            return new AString("Error: " + e.getMessage() + " to return as text - use primecount");
+        }
+        return new AString(text.toString());
+    }
+    
+    // <hi> or <lo> <hi> as long[]{lo, hi}, or what's wrong with them
+    private Result<long[]> primeRange(String name, Value... args) {
+        if (args.length == 0) {
+            return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Provide upper limit");
         }
         
-        List<Integer> primes = new ArrayList<>();
-        for (int i = 2; i <= n; i++) {
-            if (isPrime[i]) primes.add(i);
+        long[] bounds = new long[2];
+        for (int i = 0; i < Math.min(args.length, 2); i++) {
+            Result<Value> numberResult = args[i].asNumber();
+            if (numberResult.isError()) {
+                return Result.error(Result.ErrorType.TYPE_CONVERSION, "Invalid number format");
+            }
+            BigInteger n = toInteger(((ANumber) numberResult.getValue()).getValue());
+            if (n == null || n.signum() < 0 || n.compareTo(BigInteger.valueOf(PrimeSieve.MAX_LIMIT)) > 0) {
+                return Result.error(Result.ErrorType.INVALID_ARGUMENT, name + " bounds must be integers in [0, 10^12]");
+            }
+            bounds[i] = n.longValue();
         }
-        return primes;
+        if (args.length == 1) {
+            bounds[1] = bounds[0];
+            bounds[0] = 0;
+        }
+        if (bounds[0] > bounds[1]) {
+            return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Lower bound is above upper bound");
+        }
+        return Result.ok(bounds);
     }
     
     private Value derangements(Environment context, Value... args) {
@@ -409,65 +735,344 @@ public class CommandRegistry {
             return new AString("Error: Provide a number");
         }
         
-        Result<Value> numberResult = args[0].asNumber();
-        if (numberResult.isError()) {
-            return new AString("Error: Invalid number format");
+        Result<Long> n = integerArg("derangements", args[0], MAX_FACTORIAL_N);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
+        }
+        return toNumber(Combinatorics.derangements(n.getValue().intValue()));
+    }
+    
+    private Value catalan(Environment context, Value... args) {
+        if (args.length == 0) {
+            return new AString("Error: Provide a number");
         }
         
-        int n = ((ANumber) numberResult.getValue()).getValue().intValue();
-        if (n < 0) {
-            return new AString("Error: n must be non-negative");
+        Result<Long> n = integerArg("catalan", args[0], MAX_COMBINATORICS_N);
+        if (n.isError()) {
+            return new AString("Error: " + n.getErrorMessage());
         }
-        if (n > 20) {
-            return new AString("Error: Too large - use values ≤ 20");
+        return toNumber(Combinatorics.catalan(n.getValue().intValue()));
+    }
+    
+    // a whole number in [0, max], or what's wrong with it
+    private static Result<Long> integerArg(String name, Value arg, long max) {
+        Result<Value> numberResult = arg.asNumber();
+        if (numberResult.isError()) {
+            return Result.error(Result.ErrorType.TYPE_CONVERSION, "Invalid number format");
+        }
+        BigInteger n = toInteger(((ANumber) numberResult.getValue()).getValue());
+        if (n == null || n.signum() < 0 || n.compareTo(BigInteger.valueOf(max)) > 0) {
+            return Result.error(Result.ErrorType.INVALID_ARGUMENT, name + " needs an integer in [0, " + max + "]");
+        }
+        return Result.ok(n.longValue());
+    }
+    
+    private static Value toNumber(BigInteger n) {
+        return ANumber.of(new BigDecimal(n));
+    }
+    
+    // Reduction Command Implementations
+    
+    // axis is optional; without it the whole value is reduced to one number
+    private Value reduce(String name, java.util.function.ToDoubleFunction<Reductions.Summary> pick, Value... args) {
+        if (args.length == 0) {
+            return new AString("Error: Provide a list or matrix");
         }
         
-        if (n == 0) return new AString("D(0) = 1");
-        if (n == 1) return new AString("D(1) = 0");
+        int axis = -1;
+        if (args.length > 1) {
+            Result<Value> axisResult = args[1].asNumber();
+            if (axisResult.isError()) {
+                return new AString("Error: Invalid axis");
+            }
+            axis = ((ANumber) axisResult.getValue()).getValue().intValue();
+        }
         
-        BigInteger[] d = new BigInteger[n + 1];
-        d[0] = BigInteger.ONE;
-        d[1] = BigInteger.ZERO;
+        Result<List<Reductions.NumericSource>> sources = Reductions.sources(args[0], axis);
+        if (sources.isError()) {
+            return new AString("Error: " + name + " - " + sources.getErrorMessage());
+        }
         
-        for (int i = 2; i <= n; i++) {
-            d[i] = BigInteger.valueOf(i - 1).multiply(d[i - 1].add(d[i - 2]));
+        if (axis < 0) {
+            return Reductions.toNumber(pick.applyAsDouble(Reductions.summarize(sources.getValue().get(0))));
         }
         
-        return new AString("D(" + n + ") = " + d[n]);
+        List<Value> results = new ArrayList<>();
+        for (Reductions.NumericSource source : sources.getValue()) {
+            results.add(Reductions.toNumber(pick.applyAsDouble(Reductions.summarize(source))));
+        }
+        return new AList<>(results);
     }
     
-    private Value catalan(Environment context, Value... args) {
+    private Value histogram(Environment context, Value... args) {
         if (args.length == 0) {
-            return new AString("Error: Provide a number");
+            return new AString("Error: Provide a list or matrix");
         }
         
-        Result<Value> numberResult = args[0].asNumber();
-        if (numberResult.isError()) {
-            return new AString("Error: Invalid number format");
+        int bins = 10;
+        if (args.length > 1) {
+            Result<Value> binsResult = args[1].asNumber();
+            if (binsResult.isError()) {
+                return new AString("Error: Invalid number of bins");
+            }
+            bins = ((ANumber) binsResult.getValue()).getValue().intValue();
+        }
+        if (bins < 1 || bins > 10000) {
+            return new AString("Error: Bins must be between 1 and 10000");
         }
         
-        int n = ((ANumber) numberResult.getValue()).getValue().intValue();
-        if (n < 0) {
-            return new AString("Error: n must be non-negative");
+        Result<List<Reductions.NumericSource>> sources = Reductions.sources(args[0], -1);
+        if (sources.isError()) {
+            return new AString("Error: histogram - " + sources.getErrorMessage());
         }
-        if (n > 30) {
-            return new AString("Error: Too large - use values ≤ 30");
+        
+        Reductions.NumericSource source = sources.getValue().get(0);
+        Reductions.Summary summary = Reductions.summarize(source);
+        if (summary.count == 0) {
+            return new AString("Error: No numeric values to bin");
         }
         
-        // C_n = (2n)! / ((n+1)! * n!)
-        BigInteger numerator = BigInteger.ONE;
-        BigInteger denominator = BigInteger.ONE;
+        long[] counts = Reductions.histogram(source, summary, bins);
+        double width = (summary.max - summary.min) / bins;
+        List<List<Value>> rows = new ArrayList<>();
+        for (int i = 0; i < bins; i++) {
+            List<Value> row = new ArrayList<>();
+            row.add(Reductions.toNumber(summary.min + i * width));
+            row.add(Reductions.toNumber(i == bins - 1 ? summary.max : summary.min + (i + 1) * width));
+            row.add(ANumber.of(counts[i]));
+            rows.add(row);
+        }
+        return new AMatrix(rows);
+    }
+    
+    private Value range(Environment context, Value... args) {
+        if (args.length == 0) {
+            return new AString("Error: Provide upper limit");
+        }
         
-        for (int i = n + 2; i <= 2 * n; i++) {
-            numerator = numerator.multiply(BigInteger.valueOf(i));
+        long[] bounds = {0, 0, 1};
+        for (int i = 0; i < Math.min(args.length, 3); i++) {
+            Result<Value> numberResult = args[i].asNumber();
+            if (numberResult.isError() || !LongArrayList.fits(numberResult.getValue())) {
+                return new AString("Error: range needs integers");
+            }
+            bounds[i] = ((ANumber) numberResult.getValue()).getValue().longValue();
+        }
+        if (args.length == 1) {
+            bounds[1] = bounds[0];
+            bounds[0] = 0;
+        }
+        long lo = bounds[0];
+        long hi = bounds[1];
+        long step = bounds[2];
+        if (step == 0) {
+            return new AString("Error: Step cannot be zero");
         }
         
-        for (int i = 2; i <= n; i++) {
-            denominator = denominator.multiply(BigInteger.valueOf(i));
+        double count = Math.max(0, Math.ceil(((double) hi - lo) / step));
+        if (count > MAX_PRIME_LIST) {
+            return new AString("Error: range is limited to " + MAX_PRIME_LIST + " elements");
+        }
+        long[] values = new long[(int) count];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = lo + i * step;
+        }
+        return AList.ofLongs(values);
+    }
+    
+    private Value column(Environment context, Value... args) {
+        if (args.length < 2 || !(args[0] instanceof AMatrix)) {
+            return new AString("Error: Provide a matrix and a column index");
         }
         
-        BigInteger result = numerator.divide(denominator);
-        return new AString("C(" + n + ") = " + result);
+        AMatrix matrix = (AMatrix) args[0];
+        Result<Value> indexResult = args[1].asNumber();
+        if (indexResult.isError() || !LongArrayList.fits(indexResult.getValue())) {
+            return new AString("Error: Column index must be an integer");
+        }
+        long c = ((ANumber) indexResult.getValue()).getValue().longValue();
+        if (c < 0 || c >= matrix.getCols()) {
+            return new AString("Error: Column index out of range (matrix has " + matrix.getCols() + " columns)");
+        }
+        return matrix.getColumn((int) c);
+    }
+    
+    private Value csv(Environment context, Value... args) {
+        if (args.length == 0 || args[0].kind() != Value.Kind.STRING) {
+            return new AString("Error: Provide a file path as a string");
+        }
+        boolean header = args.length > 1 && Boolean.TRUE.equals(args[1].asBoolean().getValueOrDefault(ABoolean.of(false)).getValue());
+        String storage = args.length > 2 ? args[2].toString() : "heap";
+        if (!storage.equals("heap") && !storage.equals("offheap") && !storage.equals("disk")) {
+            return new AString("Error: Storage must be \"heap\", \"offheap\" or \"disk\", got " + storage);
+        }
+        try {
+            if (storage.equals("disk")) {
+                return AMatrix.paged(args[0].toString(), header);
+            }
+            if (storage.equals("offheap")) {
+                AMatrix matrix = new AMatrix(args[0].toString(), header, true);
+                return matrix.offHeap() != null ? matrix
+                    : new AString("Error: " + args[0] + " has more than numbers in it, load it without \"offheap\"");
+            }
+            return new AMatrix(args[0].toString(), header);
+        } catch (java.io.IOException e) {
+            return new AString("Error: Can't read " + args[0] + " - " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return new AString("Error: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * An off-heap copy of a list or matrix of numbers (see OffHeap), freed when it is cleared
+     * or the last thing holding it lets go (see Environment.hold). With nothing, what is allocated.
+     */
+    private Value offHeap(Environment context, Value... args) {
+        if (args.length == 0) {
+            return new AString(String.format("Off-heap: %d buffers, %.1f MB",
+                OffHeap.liveBuffers(), OffHeap.liveBytes() / (1024.0 * 1024.0)));
+        }
+        Value copy = null;
+        if (args[0] instanceof AMatrix) {
+            copy = AMatrix.offHeap((AMatrix) args[0]);
+        } else if (args[0] instanceof AList) {
+            @SuppressWarnings("unchecked")
+            List<Value> values = (List<Value>) args[0].getValue();
+            copy = AList.offHeap(values);
+        } else {
+            return new AString("Error: Provide a list or matrix");
+        }
+        return copy != null ? copy : new AString("Error: Only numbers (and nulls) can be kept off-heap");
+    }
+    
+    private Value paging(Environment context, Value... args) {
+        if (args.length > 0) {
+            Result<Value> blocks = args[0].asNumber();
+            if (blocks.isError() || ((ANumber) blocks.getValue()).getValue().intValue() < 1) {
+                return new AString("Error: Provide a number of blocks, at least 1");
+            }
+            PagedRows.setCacheBlocks(((ANumber) blocks.getValue()).getValue().intValue());
+        }
+        return new AString(String.format("Paging: %d blocks cached per matrix, %d mapped, %d hits, %d misses",
+            PagedRows.cacheBlocks(), PagedRows.mapped(), PagedRows.hits(), PagedRows.misses()));
+    }
+    
+    private Value addRow(Environment context, Value... args) {
+        if (args.length < 2 || !(args[0] instanceof AMatrix) || !(args[1] instanceof AList)) {
+            return new AString("Error: Provide a matrix and a list");
+        }
+        AMatrix matrix = (AMatrix) args[0];
+        if (matrix.isFrozen()) {
+            return new AString("Error: Matrix is shared and can't be modified");
+        }
+        @SuppressWarnings("unchecked")
+        List<Value> row = (List<Value>) args[1].getValue();
+        try {
+            matrix.addRow(row);
+        } catch (IllegalArgumentException e) {
+            return new AString("Error: " + e.getMessage());
+        }
+        return ANumber.of(matrix.getRows());
+    }
+    
+    /**
+     * a x b. Whole numbers small enough that no sum can overflow go through Kernels.dot
+     * on longs, with b transposed so every dot product reads two rows; anything else
+     * is summed exactly as BigDecimals.
+     */
+    private Value matmul(Environment context, Value... args) {
+        if (args.length < 2 || !(args[0] instanceof AMatrix) || !(args[1] instanceof AMatrix)) {
+            return new AString("Error: Provide two matrices");
+        }
+        AMatrix a = (AMatrix) args[0];
+        AMatrix b = (AMatrix) args[1];
+        int rows = a.getRows();
+        int inner = a.getCols();
+        int cols = b.getCols();
+        if (inner != b.getRows()) {
+            return new AString("Error: A " + rows + "x" + inner + " matrix can't multiply a " + b.getRows() + "x" + cols + " one");
+        }
+        if ((long) rows * cols > 10000) {
+            return new AString("Error: Matrix operation would create too many elements (max 10000)");
+        }
+        
+        long[] left = wholeNumbers(a, false);
+        long[] right = left != null ? wholeNumbers(b, true) : null;
+        List<List<Value>> product = new ArrayList<>(rows);
+        if (left != null && right != null && fitsDot(left, right, inner)) {
+            Kernels kernels = Kernels.get();
+            for (int i = 0; i < rows; i++) {
+                List<Value> row = new ArrayList<>(cols);
+                for (int j = 0; j < cols; j++) {
+                    row.add(ANumber.of(kernels.dot(left, i * inner, right, j * inner, inner)));
+                }
+                product.add(row);
+            }
+            return new AMatrix(product);
+        }
+        
+        for (int i = 0; i < rows; i++) {
+            List<Value> row = new ArrayList<>(cols);
+            for (int j = 0; j < cols; j++) {
+                BigDecimal sum = BigDecimal.ZERO;
+                for (int k = 0; k < inner; k++) {
+                    Value x = a.get(i, k);
+                    Value y = b.get(k, j);
+                    if (!(x instanceof ANumber) || !(y instanceof ANumber)) {
+                        return new AString("Error: matmul needs numbers, got " + (x instanceof ANumber ? y : x).type());
+                    }
+                    sum = sum.add(((ANumber) x).getValue().multiply(((ANumber) y).getValue()));
+                }
+                row.add(ANumber.of(sum));
+            }
+            product.add(row);
+        }
+        return new AMatrix(product);
+    }
+    
+    // the matrix as one long[] of rows (or of columns, transposed), null unless all whole numbers
+    private static long[] wholeNumbers(AMatrix matrix, boolean transposed) {
+        int rows = matrix.getRows();
+        int cols = matrix.getCols();
+        if ((long) rows * cols > Integer.MAX_VALUE) return null; // a disk-backed one can be that big
+        long[] out = new long[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                Value v = matrix.get(i, j);
+                if (!(v instanceof ANumber) || ((ANumber) v).getValue().scale() != 0 || !LongArrayList.fits(v)) {
+                    return null;
+                }
+                out[transposed ? j * rows + i : i * cols + j] = ((ANumber) v).getValue().longValue();
+            }
+        }
+        return out;
+    }
+    
+    // largest |a| * largest |b| * inner under 2^62, so Kernels.dot can't overflow
+    private static boolean fitsDot(long[] a, long[] b, int inner) {
+        Kernels kernels = Kernels.get();
+        double bound = Math.max(Math.abs((double) kernels.min(a, a.length)), Math.abs((double) kernels.max(a, a.length)))
+            * Math.max(Math.abs((double) kernels.min(b, b.length)), Math.abs((double) kernels.max(b, b.length)))
+            * inner;
+        return bound < 0x1p62;
+    }
+    
+    private Value share(Environment context, Value... args) {
+        if (args.length < 2 || !(args[0] instanceof AString)) {
+            return new AString("Error: Provide a name in quotes and a value");
+        }
+        try {
+            return context.getShared().publish(args[0].toString(), args[1]);
+        } catch (IllegalArgumentException e) {
+            return new AString("Error: " + e.getMessage());
+        }
+    }
+    
+    private Value unshare(Environment context, Value... args) {
+        if (args.length == 0 || !(args[0] instanceof AString)) {
+            return new AString("Error: Provide a name in quotes");
+        }
+        return ABoolean.of(context.getShared().remove(args[0].toString()));
     }
     
     // Placeholder for matrix size method
@@ -478,6 +1083,7 @@ public class CommandRegistry {
     
     // Registry management methods
     public void registerCommand(String name, Command command) {
+        command.setTimer(Metrics.timer("command " + name));
         commands.put(name, command);
     }
     
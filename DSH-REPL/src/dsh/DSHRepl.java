@@ -1,9 +1,13 @@
 package dsh;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DSHRepl {
     private final Environment env;
@@ -12,15 +16,21 @@ public class DSHRepl {
     private final TokenDispatcher dispatcher;
     private final Tokenizer tokenizer;
     private final BufferedReader reader;
+    private final ValuePrinter printer;
     private boolean running;
     
+    private static final Pattern FUNCTION_DEFINITION =
+        Pattern.compile(":fn\\s+([a-zA-Z][a-zA-Z0-9_]*)\\s*\\(([^)]*)\\)\\s*(?:=\\s*(.*))?", Pattern.CASE_INSENSITIVE);
+    
     public DSHRepl() {
         this.env = new Environment();
+        env.setOutput(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)); // primestream, flushed when done
         this.macros = new MacroRegistry();
         this.commands = new CommandRegistry();
         this.dispatcher = new TokenDispatcher(env, macros, commands);
         this.tokenizer = new Tokenizer("");
         this.reader = new BufferedReader(new InputStreamReader(System.in));
+        this.printer = new ValuePrinter();
         this.running = true;
     }
     
@@ -83,7 +93,7 @@ public class DSHRepl {
             if (result.isOk()) {
                 Value value = result.getValue();
                 if (value != null) {
-                    System.out.println(formatValue(value));
+                    printValue(value);
                 }
             } else {
                 System.err.println("Error: " + result.getErrorMessage());
@@ -95,7 +105,39 @@ public class DSHRepl {
     }
     
     private boolean handleReplCommand(String input) {
-        switch (input.toLowerCase()) {
+        String lower = input.toLowerCase();
+        if (lower.startsWith(":display")) {
+            return handleDisplay(input);
+        }
+        if (lower.startsWith(":cache")) {
+            return handleCache(input);
+        }
+        if (lower.startsWith(":stats")) {
+            return handleStats(input);
+        }
+        if (lower.startsWith(":time ") || lower.startsWith(":profile ")) {
+            return handleTiming(input);
+        }
+        if (lower.equals(":macros")) {
+            System.out.print(macros.isEmpty() ? "No macros defined.\n" : macros.toString());
+            return true;
+        }
+        if (lower.startsWith(":macro ")) {
+            return handleMacroDefinition(input);
+        }
+        if (lower.equals(":fns")) {
+            FunctionRegistry functions = dispatcher.getFunctions();
+            System.out.print(functions.isEmpty() ? "No functions defined.\n" : functions.toString());
+            return true;
+        }
+        if (lower.startsWith(":fn ")) {
+            return handleFunctionDefinition(input);
+        }
+        if (lower.startsWith(":jobs") || lower.startsWith(":wait") || lower.startsWith(":cancel")) {
+            return handleJobs(input);
+        }
+        
+        switch (lower) {
             case "exit":
             case "quit":
             case ":q":
@@ -128,6 +170,10 @@ public class DSHRepl {
                 printVersion();
                 return true;
                 
+            case ":plugins":
+                printPlugins();
+                return true;
+                
             default:
                 return false; // Not a REPL command
         }
@@ -135,9 +181,313 @@ public class DSHRepl {
     
     private String formatValue(Value value) {
         // Add color/formatting if desired
+        if (value instanceof ANumber && ValuePrinter.isHuge(((ANumber) value).getValue())) {
+            return "=> " + ValuePrinter.approximate(((ANumber) value).getValue());
+        }
         return "=> " + value.toString();
     }
     
+    // streams straight to stdout, so big values never get built into one string
+    private void printValue(Value value) {
+        if (!(value instanceof AList) && !(value instanceof AMatrix)) {
+            System.out.println(formatValue(value));
+            return;
+        }
+        try {
+            System.out.print("=> ");
+            printer.print(value, System.out);
+            System.out.println();
+        } catch (IOException e) {
+            System.err.println("Error printing value: " + e.getMessage());
+        }
+    }
+    
+    // :display [rows] [cols] sets how many rows/cols show at each end before "..."
+    private boolean handleDisplay(String input) {
+        String[] parts = input.trim().split("\\s+");
+        if (!parts[0].equalsIgnoreCase(":display")) {
+            return false; // some other command starting with "display"
+        }
+        try {
+            if (parts.length > 1) {
+                int rows = Integer.parseInt(parts[1]);
+                printer.setRows(rows, rows / 2);
+            }
+            if (parts.length > 2) {
+                int cols = Integer.parseInt(parts[2]);
+                printer.setCols(cols, cols / 2);
+                printer.setList(cols, cols / 2);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: :display [rows] [cols]");
+            return true;
+        }
+        System.out.printf("Display: rows %d + %d, cols %d + %d, list %d + %d%n",
+            printer.getHeadRows(), printer.getTailRows(),
+            printer.getHeadCols(), printer.getTailCols(),
+            printer.getListHead(), printer.getListTail());
+        return true;
+    }
+    
+    // :cache shows the pure command result cache, :cache clear empties it, :cache size <MB> resizes it
+    private boolean handleCache(String input) {
+        String[] parts = input.trim().split("\\s+");
+        if (!parts[0].equalsIgnoreCase(":cache")) {
+            return false;
+        }
+        ResultCache cache = commands.getCache();
+        if (parts.length > 1 && parts[1].equalsIgnoreCase("clear")) {
+            cache.clear();
+            cache.resetStats();
+            System.out.println("Cache cleared.");
+            return true;
+        }
+        if (parts.length > 1 && parts[1].equalsIgnoreCase("size")) {
+            try {
+                cache.setMaxBytes((long) (Double.parseDouble(parts[2]) * (1 << 20)));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Usage: :cache [clear | size <MB>]");
+                return true;
+            }
+        } else if (parts.length > 1) {
+            System.err.println("Usage: :cache [clear | size <MB>]");
+            return true;
+        }
+        long lookups = cache.getHits() + cache.getMisses();
+        System.out.printf("Cache: %d entries, %.1f of %.1f MB%n",
+            cache.size(), cache.getBytes() / 1048576.0, cache.getMaxBytes() / 1048576.0);
+        System.out.printf("  hits %d, misses %d (%.1f%% hit rate), evictions %d, rejected %d%n",
+            cache.getHits(), cache.getMisses(), lookups == 0 ? 0.0 : 100.0 * cache.getHits() / lookups,
+            cache.getEvictions(), cache.getRejections());
+        return true;
+    }
+    
+    // :stats [reset | on | off | json [file]]
+    private boolean handleStats(String input) {
+        String[] parts = input.trim().split("\\s+");
+        if (!parts[0].equalsIgnoreCase(":stats")) {
+            return false;
+        }
+        String option = parts.length > 1 ? parts[1].toLowerCase() : "";
+        switch (option) {
+            case "":
+                if (Metrics.timers().isEmpty()) {
+                    System.out.println("No stats yet" + (Metrics.isEnabled() ? "." : " (recording is off, :stats on)."));
+                } else {
+                    System.out.print(Metrics.table());
+                }
+                break;
+            case "reset":
+                Metrics.reset();
+                System.out.println("Stats reset.");
+                break;
+            case "on":
+            case "off":
+                Metrics.setEnabled(option.equals("on"));
+                System.out.println("Stats recording " + option + ".");
+                break;
+            case "json":
+                if (parts.length < 3) {
+                    System.out.print(Metrics.json());
+                    break;
+                }
+                try {
+                    Metrics.writeJson(parts[2]);
+                    System.out.println("Stats written to " + parts[2]);
+                } catch (IOException e) {
+                    System.err.println("Could not write " + parts[2] + ": " + e.getMessage());
+                }
+                break;
+            default:
+                System.err.println("Usage: :stats [reset | on | off | json [file]]");
+        }
+        return true;
+    }
+    
+    // :time [runs] <line>, :profile [runs] ;macro
+    private boolean handleTiming(String input) {
+        String[] parts = input.trim().split("\\s+", 3);
+        boolean profile = parts[0].equalsIgnoreCase(":profile");
+        int runs = 0;
+        String line = input.trim().substring(parts[0].length()).trim();
+        if (parts.length == 3 && parts[1].matches("\\d{1,9}")) {
+            runs = Integer.parseInt(parts[1]);
+            line = parts[2];
+        }
+        
+        tokenizer.reset(line);
+        Result<List<Token>> tokenResult = tokenizer.tokenize();
+        if (tokenResult.isError()) {
+            System.err.println("Tokenization error: " + tokenResult.getErrorMessage());
+            return true;
+        }
+        final List<Token> tokens = tokenResult.getValue();
+        
+        if (profile) {
+            if (tokens.size() != 1 || !tokens.get(0).isMacro() || !macros.has(tokens.get(0).getValue().substring(1))) {
+                System.err.println("Usage: :profile [runs] ;macro (see :macros)");
+                return true;
+            }
+            Profiler profiler = new Profiler(macros.get(tokens.get(0).getValue().substring(1)));
+            dispatcher.setProfiler(profiler);
+            try {
+                for (int i = 0; i < Math.max(1, runs); i++) {
+                    Result<Value> result = dispatcher.process(tokens);
+                    if (result.isError()) {
+                        System.err.println("Error: " + result.getErrorMessage());
+                        break;
+                    }
+                }
+            } finally {
+                dispatcher.setProfiler(null);
+            }
+            System.out.print(profiler.report());
+            return true;
+        }
+        
+        if (tokens.isEmpty()) {
+            System.err.println("Usage: :time [runs] <line>");
+            return true;
+        }
+        // the whole line each run, tokenizing included, as if it were typed
+        final String timed = line;
+        Profiler.Timing timing = Profiler.time(() -> {
+            tokenizer.reset(timed);
+            Result<List<Token>> again = tokenizer.tokenize();
+            return again.isError() ? Result.error(Result.ErrorType.SYNTAX, again.getErrorMessage()) : dispatcher.process(again.getValue());
+        }, runs);
+        if (timing.error != null) {
+            System.err.println("Error: " + timing.error.getErrorMessage());
+            return true;
+        }
+        if (timing.last != null) {
+            printValue(timing.last);
+        }
+        System.out.println(timing);
+        return true;
+    }
+    
+    // :macro <name>, then one line at a time until 'end'
+    private boolean handleMacroDefinition(String input) {
+        String name = input.trim().substring(":macro".length()).trim();
+        if (!name.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
+            System.err.println("Usage: :macro <name>");
+            return true;
+        }
+        Macro macro = new Macro(name);
+        macro.record(reader, new Tokenizer(""));
+        if (!macro.isEmpty()) {
+            macros.define(macro);
+            Result<MacroPlan> plan = dispatcher.plan(macro);
+            if (plan.isError()) {
+                System.err.println("Warning: ;" + name + " won't run until fixed, " + plan.getErrorMessage());
+            }
+        }
+        return true;
+    }
+    
+    // :fn name(a, b) = <line>, or :fn name(a, b) and then lines until 'end' like :macro
+    private boolean handleFunctionDefinition(String input) {
+        Matcher m = FUNCTION_DEFINITION.matcher(input.trim());
+        if (!m.matches()) {
+            System.err.println("Usage: :fn name(a, b) = <line>, or :fn name(a, b) to record a body");
+            return true;
+        }
+        String name = m.group(1);
+        List<String> params = new ArrayList<>();
+        for (String param : m.group(2).split(",")) {
+            param = param.trim();
+            if (param.isEmpty() && m.group(2).trim().isEmpty()) break;
+            if (!param.matches("[a-zA-Z][a-zA-Z0-9_]*")) {
+                System.err.println("Error: bad parameter name '" + param + "'");
+                return true;
+            }
+            params.add(param);
+        }
+        
+        Macro body = new Macro(name, "Function");
+        if (m.group(3) != null) {
+            if (m.group(3).trim().isEmpty()) {
+                System.err.println("Error: nothing after '='");
+                return true;
+            }
+            body.addRawLine(m.group(3));
+            if (!body.tokenizeAll(new Tokenizer(""))) {
+                return true;
+            }
+        } else {
+            body.record(reader, new Tokenizer(""));
+            if (body.isEmpty()) {
+                return true;
+            }
+        }
+        
+        Result<UserFunction> function = dispatcher.defineFunction(name, params, body);
+        if (function.isError()) {
+            System.err.println("Error: " + name + " not defined, " + function.getErrorMessage());
+            return true;
+        }
+        System.out.println("Defined " + function.getValue().signature());
+        if (commands.hasCommand(name)) {
+            System.err.println("Warning: :" + name + " still runs the command, call the function as #(" + name + "(...))");
+        }
+        return true;
+    }
+    
+    // :jobs [clear], :wait <var|id>, :cancel <var|id>
+    private boolean handleJobs(String input) {
+        String[] parts = input.trim().split("\\s+");
+        String command = parts[0].toLowerCase();
+        JobManager jobs = dispatcher.getJobs();
+        
+        if (command.equals(":jobs")) {
+            if (parts.length > 1 && parts[1].equalsIgnoreCase("clear")) {
+                jobs.prune();
+            }
+            List<AJob> all = jobs.all();
+            if (all.isEmpty()) {
+                System.out.println("No jobs.");
+            }
+            for (AJob job : all) {
+                System.out.printf("  [%d] %-9s %8.1fs  %s%s%n", job.getId(), job.status(), job.elapsedSeconds(),
+                    job.getDescription(), job.getVariable() != null ? "  -> " + job.getVariable() : "");
+            }
+            return true;
+        }
+        if (!command.equals(":wait") && !command.equals(":cancel")) {
+            return false;
+        }
+        if (parts.length < 2) {
+            System.err.println("Usage: " + command + " <variable|job id>");
+            return true;
+        }
+        
+        AJob job = findJob(parts[1]);
+        if (job == null) {
+            System.err.println("No job for '" + parts[1] + "'");
+            return true;
+        }
+        if (command.equals(":cancel")) {
+            System.out.println(job.cancel() ? "Cancelled job " + job.getId() + "." : "Job " + job.getId() + " already " + job.status() + ".");
+            return true;
+        }
+        // reading the variable binds the result in place of the job
+        Value result = job.getVariable() != null && env.peek(job.getVariable()) == job
+            ? env.get(job.getVariable()) : job.await();
+        printValue(result);
+        return true;
+    }
+    
+    // a job number, or a variable that still holds a job
+    private AJob findJob(String ref) {
+        try {
+            return dispatcher.getJobs().get(Integer.parseInt(ref));
+        } catch (NumberFormatException e) {
+            Value value = env.peek(ref);
+            return value instanceof AJob ? (AJob) value : null;
+        }
+    }
+    
     private void printWelcome() {
         System.out.println("        DSH Interactive Shell        ");
         System.out.println("     Dynamic Shell Processor v1.0    ");
@@ -154,6 +504,19 @@ public class DSHRepl {
         System.out.println("  clear, :clear       - Clear the screen");
         System.out.println("  reset, :reset       - Reset environment");
         System.out.println("  version, :version   - Show version information");
+        System.out.println("  :display [r] [c]    - Set rows/cols shown before eliding");
+        System.out.println("  :cache [clear|size] - Result cache stats, clear it, or set its size in MB");
+        System.out.println("  :jobs [clear]       - List background jobs (x = &:command ...)");
+        System.out.println("  :wait <x|id>        - Wait for a job and show its result");
+        System.out.println("  :cancel <x|id>      - Cancel a running job");
+        System.out.println("  :plugins            - List commands added by plugins");
+        System.out.println("  :stats [reset|on|off|json [file]] - Call counts, latencies and allocation per hot path (off until :stats on)");
+        System.out.println("  :time [runs] <line> - Run a line repeatedly, show mean/stddev time and allocation");
+        System.out.println("  :profile [runs] ;m  - Run macro m, break time and allocation down by line and token type");
+        System.out.println("  :macro <name>       - Record a macro, one line at a time ('end' to finish)");
+        System.out.println("  :macros             - List defined macros");
+        System.out.println("  :fn f(a, b) = <line> - Define a function (leave off '= <line>' to record a body)");
+        System.out.println("  :fns                - List defined functions");
         System.out.println();
         
         // Show registered commands from CommandRegistry
@@ -170,8 +533,14 @@ public class DSHRepl {
         System.out.println("DSH Language Features:");
         System.out.println("  Variables:     x = 42, name = \"hello\"");
         System.out.println("  Expressions:   #(2 + 3 * 4)");
-        System.out.println("  Macros:        ;macroname");
+        System.out.println("  Derived:       y := #(x*2+1) recomputes y on read after x changes");
+        System.out.println("  Lazy:          y ~= #(a*2+b) isn't computed until y is read");
+        System.out.println("  Macros:        ;macroname (record with :macro name)");
+        System.out.println("  In macros:     if/else if/else, while <cond>, for i [from] <to> [step], each closed by end;");
+        System.out.println("                 break, continue, return [value]. Compare with #(i<n), <=, >, >=, ==, !=");
+        System.out.println("  Functions:     #(f(1, x) + 2) or :f 1 x; parameters and assigned names are local");
         System.out.println("  Commands:      :commandname");
+        System.out.println("  Background:    x = &:commandname");
         System.out.println("  Literals:      \"strings\", 123, true/false");
         System.out.println();
     }
@@ -180,6 +549,7 @@ public class DSHRepl {
         System.out.println("Environment Status:");
         System.out.println("  Variables: " + env.size());
         System.out.println("  Macros: " + macros.size());
+        System.out.println("  Functions: " + dispatcher.getFunctions().size());
         System.out.println("  Commands: " + commands.size());
         
         if (env.size() > 0) {
@@ -193,6 +563,16 @@ public class DSHRepl {
                     entry.getValue().type());
             }
         }
+        Map<String, Value> shared = env.getShared().snapshot();
+        if (!shared.isEmpty()) {
+            System.out.println("\nShared (read only):");
+            for (Map.Entry<String, Value> entry : shared.entrySet()) {
+                System.out.printf("  %-15s = %s (%s)%n", 
+                    entry.getKey(), 
+                    entry.getValue().toString(), 
+                    entry.getValue().type());
+            }
+        }
         System.out.println();
     }
     
@@ -213,10 +593,23 @@ public class DSHRepl {
         }
     }
     
+    private void printPlugins() {
+        Map<String, String> sources = commands.getPluginSources();
+        if (sources.isEmpty()) {
+            System.out.println("No plugin commands. Put provider jars in ./plugins (or -Ddsh.plugins=<dir>).");
+            return;
+        }
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            Command cmd = commands.getCommand(entry.getKey());
+            System.out.printf("  %-15s - %s [%s]%n", cmd.getHint(), cmd.getDescription(), entry.getValue());
+        }
+    }
+    
     private void printVersion() {
         System.out.println("DSH (Dynamic Shell) v1.0");
         System.out.println("Interactive REPL Environment");
         System.out.println("Java Runtime: " + System.getProperty("java.version"));
+        System.out.println("Kernels: " + Kernels.get().name());
     }
     
     private void printGoodbye() {
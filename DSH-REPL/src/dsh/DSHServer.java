@@ -0,0 +1,151 @@
+package dsh;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long lived dsh service on a loopback TCP port or a Unix domain socket.
+ * Every connection gets its own DSHSession (variables, macros) on its own virtual thread;
+ * the CommandRegistry, with its result cache, and the shared namespace are common to all of them.
+ *
+ * The protocol is line based: send a line, and read back exactly one reply for it, a line
+ * with the number of lines that follow and then those lines (what the REPL would have
+ * printed). A blank request or one with nothing to show gets "0". "exit" or "quit"
+ * closes the connection.
+ *
+ * @author Ryan Pointer
+ * @version 8/21/25
+ */
+public class DSHServer {
+    public static final int DEFAULT_PORT = 7979;
+
+    private final CommandRegistry commands = new CommandRegistry();
+    private final SharedNamespace shared = new SharedNamespace(); // :share'd values, read by every session
+    private final ExecutorService sessions = VirtualThreads.newPerTaskExecutor("dsh-session");
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger served = new AtomicInteger();
+
+    /**
+     * Listen on 127.0.0.1 only, this is not meant to be reachable from other machines.
+     */
+    public static ServerSocketChannel openTcp(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return server;
+    }
+
+    /**
+     * Unix domain socket at path (Java 16+), replacing a stale socket file left by an earlier run.
+     */
+    public static ServerSocketChannel openUnix(String path) throws IOException {
+        Files.deleteIfExists(Paths.get(path));
+        ServerSocketChannel server = (ServerSocketChannel) invokeUnix(ServerSocketChannel.class);
+        server.bind(unixAddress(path));
+        return server;
+    }
+
+    static SocketChannel connectUnix(String path) throws IOException {
+        SocketChannel channel = (SocketChannel) invokeUnix(SocketChannel.class);
+        channel.connect(unixAddress(path));
+        return channel;
+    }
+
+    // X.open(StandardProtocolFamily.UNIX), which only exists from Java 16
+    private static Object invokeUnix(Class<?> channelType) throws IOException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return channelType.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer", e);
+        }
+    }
+
+    private static SocketAddress unixAddress(String path) throws IOException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16 or newer", e);
+        }
+    }
+
+    /**
+     * Accept connections until the channel is closed.
+     */
+    public void serve(ServerSocketChannel server) throws IOException {
+        System.out.println("DSH server listening on " + server.getLocalAddress()
+            + (VirtualThreads.available() ? " (virtual threads)" : " (platform threads)"));
+        while (server.isOpen()) {
+            final SocketChannel client = server.accept();
+            sessions.submit(() -> handle(client));
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        active.incrementAndGet();
+        DSHSession session = new DSHSession(commands, shared);
+        try (SocketChannel channel = client) {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(
+                new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.equals("exit") || line.equals("quit")) break;
+                String response = "";
+                if (!line.isEmpty()) {
+                    response = session.eval(line);
+                    served.incrementAndGet();
+                }
+                reply(out, response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to tell it
+        } finally {
+            session.close();
+            active.decrementAndGet();
+        }
+    }
+
+    // the line count, then the lines, so blank lines inside a response can't end it early
+    static void reply(Writer out, String response) throws IOException {
+        String[] lines = response.isEmpty() ? new String[0] : response.split("\n", -1);
+        out.write(Integer.toString(lines.length));
+        out.write('\n');
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    public int getActiveSessions() {
+        return active.get();
+    }
+
+    public int getRequestsServed() {
+        return served.get();
+    }
+
+    public CommandRegistry getCommands() {
+        return commands;
+    }
+}
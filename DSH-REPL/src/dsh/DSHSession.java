@@ -0,0 +1,129 @@
+package dsh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One client's worth of state for server mode: its own variables, macros, dispatcher
+ * and tokenizer, in front of the CommandRegistry and SharedNamespace every session shares.
+ * A session is only ever driven by its connection's thread. What a streaming command
+ * (primestream) writes is collected and sent ahead of the line's result, since a reply
+ * has to be complete before its line count is known.
+ *
+ * @author Ryan Pointer
+ * @version 8/21/25
+ */
+public class DSHSession {
+    // handled by DSHRepl itself: they print to its console, or read more lines from it
+    private static final Set<String> REPL_ONLY = new HashSet<>(Arrays.asList(
+        ":display", ":cache", ":stats", ":time", ":profile", ":macro", ":macros", ":fn", ":fns",
+        ":jobs", ":wait", ":cancel", ":help", ":h", ":env", ":clear", ":reset", ":version", ":plugins", ":q",
+        "help", "env", "clear", "reset", "version"));
+    private static final int MAX_OUTPUT = 1 << 24; // chars of streamed output in one reply
+    
+    private final CommandRegistry commands;
+    private final Environment env;
+    private final MacroRegistry macros = new MacroRegistry();
+    private final TokenDispatcher dispatcher;
+    private final Tokenizer tokenizer = new Tokenizer("");
+    private final ValuePrinter printer = new ValuePrinter();
+    private final StringBuilder output = new StringBuilder(); // streamed by the current line
+
+    public DSHSession(CommandRegistry commands, SharedNamespace shared) {
+        this.commands = commands;
+        this.env = new Environment(shared);
+        this.dispatcher = new TokenDispatcher(env, macros, commands);
+        env.setOutput(new Output());
+    }
+
+    /**
+     * Evaluate one line and return what the REPL would have printed:
+     * "=> value", "error: message", or "" when there is nothing to show, after any lines
+     * a streaming command wrote.
+     */
+    public String eval(String line) {
+        output.setLength(0);
+        String result = evalLine(line);
+        if (output.length() == 0 || result.startsWith("error: ") || result.startsWith("=> Error: ")) {
+            return result; // a stream cut short isn't worth sending
+        }
+        output.setLength(output.length() - (output.charAt(output.length() - 1) == '\n' ? 1 : 0));
+        return result.isEmpty() ? output.toString() : output + "\n" + result;
+    }
+
+    private String evalLine(String line) {
+        try {
+            String replOnly = replOnly(line);
+            if (replOnly != null) {
+                return "error: " + replOnly + " only works in the interactive REPL";
+            }
+            tokenizer.reset(line);
+            Result<List<Token>> tokenResult = tokenizer.tokenize();
+            if (tokenResult.isError()) {
+                return "error: " + tokenResult.getErrorMessage();
+            }
+            if (tokenResult.getValue().isEmpty()) {
+                return "";
+            }
+            Result<Value> result = dispatcher.process(tokenResult.getValue());
+            if (result.isError()) {
+                return "error: " + result.getErrorMessage();
+            }
+            return result.getValue() == null ? "" : "=> " + format(result.getValue());
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    // the REPL command line starts with, or null; bare words only count on their own (help = 1 is fine)
+    private String replOnly(String line) {
+        String trimmed = line.trim();
+        String first = trimmed.split("\\s+", 2)[0].toLowerCase();
+        if (!REPL_ONLY.contains(first)) {
+            return null;
+        }
+        if (first.startsWith(":") ? commands.hasCommand(first.substring(1)) : !trimmed.equalsIgnoreCase(first)) {
+            return null; // a registered command of that name, or a variable
+        }
+        return first;
+    }
+    
+    private String format(Value value) {
+        if (value instanceof AList || value instanceof AMatrix) {
+            return printer.render(value);
+        }
+        if (value instanceof ANumber && ValuePrinter.isHuge(((ANumber) value).getValue())) {
+            return ValuePrinter.approximate(((ANumber) value).getValue());
+        }
+        return value.toString();
+    }
+
+    // collects into output, up to MAX_OUTPUT
+    private final class Output extends Writer {
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (output.length() + length > MAX_OUTPUT) {
+                throw new IOException("more than " + MAX_OUTPUT + " characters of output for one reply");
+            }
+            output.append(chars, offset, length);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    public Environment getEnvironment() {
+        return env;
+    }
+
+    public void close() {
+        dispatcher.getJobs().shutdown();
+    }
+}
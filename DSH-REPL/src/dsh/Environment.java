@@ -1,32 +1,239 @@
 package dsh;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * An enviornment to store variables
+ * Each session has its own variables, and falls back on a namespace shared
+ * with other sessions for names it hasn't set itself. Assigning always writes
+ * the private side, so a session can shadow a shared name but never change it.
+ * A derived variable (y := ...) is recomputed here on read when its inputs changed,
+ * and a lazy one (y ~= ...) is computed on its first read and replaced by the value.
+ * While a function runs, its locals sit in a Frame in front of all that: they
+ * shadow the variables of the same name, and assigning one never leaks out.
+ * A command with more to show than fits in a value (primestream) writes it to the
+ * output the REPL or session set, as it goes.
+ * Off-heap and disk-backed lists and matrices are freed when the last thing holding
+ * them lets go: overwriting a variable lets go of its old value, see hold.
  * 
  * @author Ryan Pointer
  * @version 7/29/25
  */
 public class Environment {
-    private final Map<String, Value> variables = new HashMap<>();
+    private final Map<String, Value> variables = new ConcurrentHashMap<>(); // background jobs read it too
+    private final SharedNamespace shared;
+    private Frame frame;        // the innermost function call, null outside of one
+    private Thread frameThread; // only the thread running it sees it, not background jobs
+    private volatile Writer output; // where streaming commands write, null when nothing reads it
     
+    public Environment() {
+        this(new SharedNamespace());
+    }
+    
+    public Environment(SharedNamespace shared) {
+        this.shared = shared;
+    }
+    
+    /**
+     * The variable's value. A background job bound to it is waited for,
+     * and its result replaces the job so later reads are immediate.
+     * A derived variable gives its current value, recomputed if it is stale.
+     * A lazy one is computed now, the first time, and its value kept in its place.
+     */
     public Value get(String name) {
-        return variables.getOrDefault(name, new ANull());
+        Frame local = frame();
+        int slot = local != null ? local.indexOf(name) : -1;
+        if (slot >= 0) {
+            Value value = local.values[slot];
+            if (value instanceof ADerived) {
+                return ((ADerived) value).current();
+            }
+            if (value instanceof ALazy) {
+                ALazy lazy = (ALazy) value;
+                value = lazy.current();
+                if (lazy.isMaterialized()) {
+                    replace(local, slot, value);
+                }
+            }
+            if (value instanceof AJob) {
+                AJob job = (AJob) value;
+                value = job.await();
+                if (job.status().equals("done")) {
+                    replace(local, slot, value);
+                }
+            }
+            return value != null ? value : ANull.INSTANCE;
+        }
+        Value value = variables.get(name);
+        if (value == null) {
+            value = shared.get(name);
+            return value != null ? value : ANull.INSTANCE;
+        }
+        if (value instanceof ADerived) {
+            return ((ADerived) value).current();
+        }
+        if (value instanceof ALazy) {
+            ALazy lazy = (ALazy) value;
+            Value result = lazy.current();
+            if (lazy.isMaterialized() && variables.replace(name, lazy, result)) {
+                hold(result);
+                drop(lazy); // which lets go of result, the variable has it now
+            }
+            return result;
+        }
+        if (value instanceof AJob) {
+            AJob job = (AJob) value;
+            Value result = job.await();
+            if (job.status().equals("done") && variables.replace(name, job, result)) {
+                hold(result);
+                drop(job);
+            }
+            return result;
+        }
+        return value;
+    }
+    
+    // the stored value as is, without waiting on jobs
+    public Value peek(String name) {
+        Frame local = frame();
+        int slot = local != null ? local.indexOf(name) : -1;
+        if (slot >= 0) {
+            return local.values[slot] != null ? local.values[slot] : ANull.INSTANCE;
+        }
+        Value value = variables.get(name);
+        if (value == null) {
+            value = shared.get(name);
+        }
+        return value != null ? value : ANull.INSTANCE;
     }
     
     public void set(String name, Value value) {
-        variables.put(name, value);
+        Frame local = frame();
+        int slot = local != null ? local.indexOf(name) : -1;
+        if (slot >= 0) {
+            replace(local, slot, value != null ? value : ANull.INSTANCE);
+            return;
+        }
+        Value next = value != null ? value : ANull.INSTANCE;
+        hold(next); // before letting go of the old one, x = x mustn't free it
+        drop(variables.put(name, next));
+    }
+    
+    private static void replace(Frame local, int slot, Value value) {
+        hold(value);
+        Value old = local.values[slot];
+        local.values[slot] = value;
+        drop(old);
     }
     
     public boolean has(String name) {
-        return variables.containsKey(name);
+        Frame local = frame();
+        int slot = local != null ? local.indexOf(name) : -1;
+        if (slot >= 0) {
+            return local.values[slot] != null;
+        }
+        return variables.containsKey(name) || shared.has(name);
     }
     
     public int size() {
         return variables.size();
     }
     
+    // this session's own variables
     public Map<String, Value> getAllVariables() {
         return new HashMap<>(variables);
     }
-}
\ No newline at end of file
+    
+    public SharedNamespace getShared() {
+        return shared;
+    }
+    
+    public Writer getOutput() {
+        return output;
+    }
+    
+    public void setOutput(Writer output) {
+        this.output = output;
+    }
+    
+    // Ownership
+    
+    /**
+     * Something keeps value: a variable or a function's local, a job its arguments and
+     * result, a lazy value its inputs and a derived one its inputs and last result.
+     * Each lets go with drop, and an off-heap or disk-backed list or matrix is freed
+     * when the last of them does (a shared one never is). A value held by nothing
+     * counted, a temporary say, is left to the GC.
+     */
+    static void hold(Value value) {
+        if (value instanceof AList) ((AList<?>) value).hold();
+        if (value instanceof AMatrix) ((AMatrix) value).hold();
+    }
+    
+    // a lazy, derived or job value that is let go of lets go of what it holds in turn
+    static void drop(Value value) {
+        if (value instanceof AList) ((AList<?>) value).drop(true);
+        if (value instanceof AMatrix) ((AMatrix) value).drop(true);
+        if (value instanceof ALazy) ((ALazy) value).drop();
+        if (value instanceof ADerived) ((ADerived) value).drop();
+        if (value instanceof AJob) ((AJob) value).drop();
+    }
+    
+    // drop without freeing, for a value being handed back to a caller that hasn't held it yet
+    static void letGo(Value value) {
+        if (value instanceof AList) ((AList<?>) value).drop(false);
+        if (value instanceof AMatrix) ((AMatrix) value).drop(false);
+    }
+    
+    // Function calls
+    
+    // make frame the visible locals, returns the caller's to hand back to leave()
+    Frame enter(Frame frame) {
+        Frame outer = this.frame;
+        this.frame = frame;
+        this.frameThread = Thread.currentThread();
+        return outer;
+    }
+    
+    void leave(Frame outer) {
+        this.frame = outer;
+    }
+    
+    private Frame frame() {
+        Frame local = frame;
+        return local != null && frameThread == Thread.currentThread() ? local : null;
+    }
+    
+    /**
+     * One call's locals. The names belong to the compiled function and are shared by
+     * every call, the values are this call's. An unset local is undefined, it doesn't
+     * read through to a variable of the same name.
+     */
+    static final class Frame {
+        private final String[] names;
+        final Value[] values;
+        
+        Frame(String[] names) {
+            this.names = names;
+            this.values = new Value[names.length];
+        }
+        
+        String[] names() {
+            return names;
+        }
+        
+        // a handful of names, a scan beats hashing
+        int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+        
+        void clear() {
+            Arrays.fill(values, null);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package dsh;
+
+/**
+ * A reusable error carrier for the raw evaluation path.
+ * Raw methods return the Value on success and null on failure, leaving the reason here.
+ * Nothing is allocated unless something actually goes wrong, and the failure
+ * only becomes a Result at the boundary (see TokenDispatcher).
+ *
+ * Not thread safe, each evaluator owns its own.
+ *
+ * @author Ryan Pointer
+ * @version 8/9/25
+ */
+final class EvalError {
+    private Result.ErrorType type;
+    private String message;
+    private Throwable cause;
+
+    void reset() {
+        type = null;
+        message = null;
+        cause = null;
+    }
+
+    boolean isSet() {
+        return type != null;
+    }
+
+    // always returns null so callers can "return err.fail(...)"
+    <T> T fail(Result.ErrorType type, String message) {
+        return fail(type, message, null);
+    }
+
+    <T> T fail(Result.ErrorType type, String message, Throwable cause) {
+        this.type = type;
+        this.message = message;
+        this.cause = cause;
+        return null;
+    }
+
+    // unwraps a Result from the older Result based methods
+    <T> T capture(Result<T> result) {
+        if (result.isOk()) {
+            return result.getValue();
+        }
+        return fail(result.getErrorType(), result.getErrorMessage(), result.getCause());
+    }
+
+    <T> Result<T> toResult() {
+        if (type == null) {
+            return Result.error(Result.ErrorType.RUNTIME, "Evaluation failed without an error");
+        }
+        return Result.error(type, message, cause);
+    }
+
+    // success or failure, wrapped once
+    <T> Result<T> wrap(T value) {
+        return value != null ? Result.ok(value) : toResult();
+    }
+
+    Result.ErrorType getType() {
+        return type;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    Throwable getCause() {
+        return cause;
+    }
+}
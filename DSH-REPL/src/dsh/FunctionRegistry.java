@@ -0,0 +1,97 @@
+package dsh;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A session's functions (see UserFunction), by name.
+ * Every change re-decides which of them are pure: the body runs on registers alone,
+ * reads only its own locals and calls only pure functions. Those are the ones a
+ * compiled expression may call on longs, since a failure later in the line reruns
+ * it the normal way and a pure function can run twice without anyone noticing.
+ *
+ * @author Ryan Pointer
+ * @version 8/27/25
+ */
+public class FunctionRegistry {
+    private final Map<String, UserFunction> functions = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a function, replacing one of the same name.
+     *
+     * @return true if this is a new function, false if it replaced one
+     */
+    boolean define(UserFunction function) {
+        boolean isNew = functions.put(function.getName(), function) == null;
+        updatePurity();
+        return isNew;
+    }
+
+    public boolean has(String name) {
+        return name != null && functions.containsKey(name);
+    }
+
+    UserFunction get(String name) {
+        return functions.get(name);
+    }
+
+    public boolean remove(String name) {
+        boolean removed = name != null && functions.remove(name) != null;
+        if (removed) {
+            updatePurity();
+        }
+        return removed;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(functions.keySet());
+    }
+
+    public int size() {
+        return functions.size();
+    }
+
+    public boolean isEmpty() {
+        return functions.isEmpty();
+    }
+
+    // start from every self contained function and drop those calling anything else until nothing changes
+    private void updatePurity() {
+        for (UserFunction function : functions.values()) {
+            function.setPure(function.isSelfContained());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (UserFunction function : functions.values()) {
+                if (!function.isPure()) continue;
+                for (String callee : function.calls()) {
+                    UserFunction target = functions.get(callee);
+                    if (target == null || !target.isPure()) {
+                        function.setPure(false);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (functions.isEmpty()) {
+            return "FunctionRegistry: empty";
+        }
+
+        StringBuilder sb = new StringBuilder("FunctionRegistry (" + functions.size() + " functions):\n");
+        for (UserFunction function : new TreeMap<>(functions).values()) {
+            sb.append(String.format("  - %s (%d lines%s)%n",
+                function.signature(),
+                function.getBody().getLineCount(),
+                function.isPure() ? ", runs on longs" : ""));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,365 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An arithmetic chain like a*2+b-c, parsed once into a tree over its operands
+ * (variables, numbers, calls, anything that isn't + - * / % ^ itself).
+ * With only numbers in it, it is folded the way Calculator always did it.
+ * When lists or matrices are in it, it runs as one loop over the elements instead of
+ * an AList per operator: each input is read once per element and the result is
+ * written once, nothing in between is kept. Whole number lists on + - * / % go
+ * through longs with no ANumber at all, like NumExpr, and drop to the normal loop
+ * on an overflow or a fraction. Those run a block at a time, an operator over the
+ * whole block before the next, so each step is one Kernels loop.
+ *
+ * Anything the operators treat in a way a loop can't copy (lists of different
+ * lengths, a list mixed with a matrix, a number on the left of a list) is folded
+ * as before, so the result never depends on which way it ran.
+ * A disk-backed matrix in the chain streams into a new disk-backed result instead,
+ * a row at a time, and isn't held to the 10000 element cap that protects the heap.
+ *
+ * @author Ryan Pointer
+ * @version 8/31/25
+ */
+final class Fused {
+    // elements per pass of the long loop, a scratch array per operator stays in L1
+    private static final int BLOCK = 512;
+
+    private final Node root;
+    private final String[] operands;
+    private final int ops;
+
+    Fused(Node root, List<String> operands) {
+        this.root = root;
+        this.operands = operands.toArray(new String[0]);
+        this.ops = number(root, 0);
+    }
+
+    // give every operator its own scratch slot
+    private static int number(Node node, int next) {
+        if (node.operand >= 0) {
+            return next;
+        }
+        next = number(node.left, next);
+        next = number(node.right, next);
+        node.slot = next;
+        return next + 1;
+    }
+
+    // in the order they appear, which is the order they're evaluated in
+    String[] operands() {
+        return operands;
+    }
+
+    /**
+     * The chain over these operand values, or null with the reason in err.
+     */
+    Value run(Value[] values, EvalError err) {
+        Value.Kind shape = null;
+        int length = -1;
+        int cols = -1;
+        for (Value value : values) {
+            Value.Kind kind = value.kind();
+            if (!kind.isCollection()) continue;
+            if (shape != null && shape != kind) {
+                return fold(root, values, err);
+            }
+            shape = kind;
+            int size = kind == Value.Kind.LIST ? ((AList<?>) value).size() : ((AMatrix) value).getRows();
+            int width = kind == Value.Kind.LIST ? 0 : rectangularCols((AMatrix) value);
+            if (width < 0 || (length != -1 && (size != length || width != cols))) {
+                return fold(root, values, err);
+            }
+            length = size;
+            cols = width;
+        }
+        if (shape == Value.Kind.MATRIX && paged(values) && elementwise(root, values)) {
+            return runPaged(values, length, cols, err);
+        }
+        if (shape == null || !elementwise(root, values) || (long) length * Math.max(cols, 1) > 10000) {
+            return fold(root, values, err); // the cap is the operators' own, so is its error
+        }
+        if (shape == Value.Kind.LIST) {
+            Value longs = runLongs(values, length);
+            return longs != null ? longs : runList(values, length, err);
+        }
+        return runMatrix(values, length, cols, err);
+    }
+
+    // a collection on the left of every operator that has one at all, so each result is one too
+    private static boolean elementwise(Node node, Value[] values) {
+        return collection(node, values) >= 0;
+    }
+
+    // 1 collection, 0 number, -1 not something a loop can do
+    private static int collection(Node node, Value[] values) {
+        if (node.operand >= 0) {
+            return values[node.operand].kind().isCollection() ? 1 : 0;
+        }
+        int left = collection(node.left, values);
+        int right = collection(node.right, values);
+        if (left < 0 || right < 0 || (left == 0 && right == 1)) {
+            return -1;
+        }
+        return left;
+    }
+
+    // the operators one at a time, exactly what the recursive evaluation did
+    private static Value fold(Node node, Value[] values, EvalError err) {
+        if (node.operand >= 0) {
+            return values[node.operand];
+        }
+        Value left = fold(node.left, values, err);
+        if (left == null) return null;
+        Value right = fold(node.right, values, err);
+        if (right == null) return null;
+        return Value.applyRaw(node.operator, left, right, err);
+    }
+
+    private Value runList(Value[] values, int length, EvalError err) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Value>[] lists = new List[values.length];
+        for (int k = 0; k < values.length; k++) {
+            if (values[k].kind() == Value.Kind.LIST) {
+                @SuppressWarnings("unchecked")
+                List<Value> list = (List<Value>) values[k].getValue();
+                lists[k] = list;
+            }
+        }
+        Value[] element = values.clone();
+        List<Value> out = new ArrayList<>(length);
+        Class<?> type = null;
+        for (int i = 0; i < length; i++) {
+            for (int k = 0; k < lists.length; k++) {
+                if (lists[k] != null) element[k] = lists[k].get(i);
+            }
+            Value result = fold(root, element, err);
+            if (result == null) {
+                return err.fail(Result.ErrorType.RUNTIME, "List operation failed at index " + i + ": " + err.getMessage(), err.getCause());
+            }
+            if (!(result instanceof ANull)) {
+                if (type == null) {
+                    type = result.getClass();
+                } else if (type != result.getClass()) {
+                    return err.fail(Result.ErrorType.RUNTIME, "Unexpected error in list operation: All elements must be of type: "
+                        + type.getSimpleName() + ", but got: " + result.getClass().getSimpleName());
+                }
+            }
+            out.add(result);
+        }
+        return AList.adopt(out, type);
+    }
+
+    private Value runMatrix(Value[] values, int rows, int cols, EvalError err) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<List<Value>>[] matrices = new List[values.length];
+        for (int k = 0; k < values.length; k++) {
+            if (values[k].kind() == Value.Kind.MATRIX) {
+                @SuppressWarnings("unchecked")
+                List<List<Value>> matrix = (List<List<Value>>) values[k].getValue();
+                matrices[k] = matrix;
+            }
+        }
+        Value[] element = values.clone();
+        List<List<Value>> out = new ArrayList<>(rows);
+        Class<? extends Value> type = null;
+        for (int i = 0; i < rows; i++) {
+            List<Value> row = new ArrayList<>(cols);
+            for (int j = 0; j < cols; j++) {
+                for (int k = 0; k < matrices.length; k++) {
+                    if (matrices[k] != null) element[k] = matrices[k].get(i).get(j);
+                }
+                Value result = fold(root, element, err);
+                if (result == null) {
+                    return err.fail(Result.ErrorType.RUNTIME,
+                        "Matrix operation failed at position [" + i + "," + j + "]: " + err.getMessage(), err.getCause());
+                }
+                if (!(result instanceof ANull)) {
+                    if (type == null) {
+                        type = result.getClass();
+                    } else if (type != result.getClass()) {
+                        return err.fail(Result.ErrorType.RUNTIME, "Unexpected error in matrix operation: All matrix elements must be of the same type. Found: "
+                            + result.getClass().getSimpleName() + ", expected: " + type.getSimpleName());
+                    }
+                }
+                row.add(result);
+            }
+            out.add(row);
+        }
+        return AMatrix.adopt(out, type, cols);
+    }
+
+    private static boolean paged(Value[] values) {
+        for (Value value : values) {
+            if (value.getValue() instanceof PagedRows) return true;
+        }
+        return false;
+    }
+
+    // runMatrix, but the rows go to a scratch file as they're done (see PagedRows.stored)
+    private Value runPaged(Value[] values, int rows, int cols, EvalError err) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<List<Value>>[] matrices = new List[values.length];
+        for (int k = 0; k < values.length; k++) {
+            if (values[k].kind() == Value.Kind.MATRIX) {
+                @SuppressWarnings("unchecked")
+                List<List<Value>> matrix = (List<List<Value>>) values[k].getValue();
+                matrices[k] = matrix;
+            }
+        }
+        PagedRows out;
+        try {
+            out = PagedRows.create(cols);
+        } catch (java.io.IOException | IllegalArgumentException e) {
+            return err.fail(Result.ErrorType.RUNTIME, "Can't page the result: " + e.getMessage(), e);
+        }
+        Value[] element = values.clone();
+        List<Value> row = new ArrayList<>(cols);
+        Class<? extends Value> type = null;
+        for (int i = 0; i < rows; i++) {
+            row.clear();
+            for (int j = 0; j < cols; j++) {
+                for (int k = 0; k < matrices.length; k++) {
+                    if (matrices[k] != null) element[k] = matrices[k].get(i).get(j);
+                }
+                Value result = fold(root, element, err);
+                if (result == null) {
+                    out.release();
+                    return err.fail(Result.ErrorType.RUNTIME,
+                        "Matrix operation failed at position [" + i + "," + j + "]: " + err.getMessage(), err.getCause());
+                }
+                Value stored = PagedRows.stored(result);
+                if (stored == null) {
+                    out.release();
+                    return err.fail(Result.ErrorType.RUNTIME, "Matrix operation at [" + i + "," + j + "] gave "
+                        + result + ", a disk-backed matrix only holds numbers");
+                }
+                if (type == null && !(stored instanceof ANull)) {
+                    type = stored.getClass();
+                }
+                row.add(stored);
+            }
+            out.add(row);
+        }
+        return AMatrix.adopt(out, type, cols);
+    }
+
+    // every operand a whole number or a list of them and only + - * / %, else null for the normal loop
+    private Value runLongs(Value[] values, int length) {
+        if (!onLongs(root)) {
+            return null;
+        }
+        int block = Math.min(length, BLOCK);
+        long[][] inputs = new long[values.length][];
+        boolean[] scalar = new boolean[values.length];
+        for (int k = 0; k < values.length; k++) {
+            if (values[k].kind() == Value.Kind.LIST) {
+                inputs[k] = wholeLongs(values[k]);
+                if (inputs[k] == null) return null;
+            } else if (whole(values[k])) {
+                inputs[k] = new long[block];
+                java.util.Arrays.fill(inputs[k], ((ANumber) values[k]).getValue().longValue());
+                scalar[k] = true;
+            } else {
+                return null;
+            }
+        }
+        long[][] scratch = new long[ops][block];
+        long[] out = new long[length];
+        int[] offset = new int[1];
+        Kernels kernels = Kernels.get();
+        try {
+            for (int from = 0; from < length; from += block) {
+                int n = Math.min(block, length - from);
+                long[] result = runBlock(root, inputs, scalar, scratch, kernels, from, n, offset);
+                System.arraycopy(result, offset[0], out, from, n);
+            }
+        } catch (ArithmeticException e) { // an overflow, a fraction or a zero, the normal loop decides
+            return null;
+        }
+        return AList.ofLongs(out);
+    }
+
+    // node over [from, from + n): the array it is in, and where in it that starts (offset[0])
+    private static long[] runBlock(Node node, long[][] inputs, boolean[] scalar, long[][] scratch,
+                                   Kernels kernels, int from, int n, int[] offset) {
+        if (node.operand >= 0) {
+            offset[0] = scalar[node.operand] ? 0 : from;
+            return inputs[node.operand];
+        }
+        long[] a = runBlock(node.left, inputs, scalar, scratch, kernels, from, n, offset);
+        int ai = offset[0];
+        long[] b = runBlock(node.right, inputs, scalar, scratch, kernels, from, n, offset);
+        int bi = offset[0];
+        long[] out = scratch[node.slot];
+        kernels.apply(node.operator, a, ai, b, bi, out, 0, n);
+        offset[0] = 0;
+        return out;
+    }
+
+    // like CommandBroadcast.longs, but 2.0 doesn't count: 2.0*3 is 6.0, not 6
+    private static long[] wholeLongs(Value list) {
+        Object elements = list.getValue();
+        if (elements instanceof LongArrayList) {
+            LongArrayList longs = (LongArrayList) elements;
+            return longs.rawArray().length == longs.size() ? longs.rawArray() : longs.toLongArray();
+        }
+        @SuppressWarnings("unchecked")
+        List<Value> values = (List<Value>) elements;
+        long[] out = new long[values.size()];
+        for (int i = 0; i < out.length; i++) {
+            if (!whole(values.get(i))) return null;
+            out[i] = ((ANumber) values.get(i)).getValue().longValue();
+        }
+        return out;
+    }
+
+    private static boolean whole(Value value) {
+        return value instanceof ANumber && ((ANumber) value).getValue().scale() == 0 && LongArrayList.fits(value);
+    }
+
+    private static boolean onLongs(Node node) {
+        if (node.operand >= 0) {
+            return true;
+        }
+        return node.operator != '^' && onLongs(node.left) && onLongs(node.right);
+    }
+
+    // the column count if every row has it, else -1
+    private static int rectangularCols(AMatrix matrix) {
+        @SuppressWarnings("unchecked")
+        List<List<Value>> rows = (List<List<Value>>) matrix.getValue();
+        int cols = matrix.getCols();
+        for (List<Value> row : rows) {
+            if (row.size() != cols) return -1;
+        }
+        return cols;
+    }
+
+    /**
+     * An operand (operand >= 0) or an operator over two nodes.
+     */
+    static final class Node {
+        final int operand;
+        final char operator;
+        final Node left;
+        final Node right;
+        int slot; // set by Fused, which scratch array the long loop writes this operator into
+
+        Node(int operand) {
+            this.operand = operand;
+            this.operator = 0;
+            this.left = null;
+            this.right = null;
+        }
+
+        Node(char operator, Node left, Node right) {
+            this.operand = -1;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
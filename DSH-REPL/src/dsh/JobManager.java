@@ -0,0 +1,72 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs &:commands in the background and keeps track of them for :jobs, :wait and :cancel.
+ * Uses a virtual thread per job when the JVM has them (21+), otherwise daemon platform
+ * threads, so a job left running never keeps the REPL from exiting.
+ *
+ * @author Ryan Pointer
+ * @version 8/19/25
+ */
+public class JobManager {
+    private final ExecutorService executor = VirtualThreads.newPerTaskExecutor("dsh-job");
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<Integer, AJob> jobs = new ConcurrentSkipListMap<>();
+
+    /**
+     * Start task, which reads args. They are held until it is done (see Environment.hold),
+     * so reassigning the variables they came from doesn't free them under it.
+     */
+    public AJob submit(String description, final Value[] args, final Callable<Value> task) {
+        final AJob job = new AJob(nextId.getAndIncrement(), description);
+        jobs.put(job.getId(), job);
+        for (Value arg : args) {
+            Environment.hold(arg);
+        }
+        job.start(executor.submit(() -> {
+            try {
+                return job.keep(task.call());
+            } finally {
+                for (Value arg : args) {
+                    Environment.drop(arg);
+                }
+                job.finished();
+            }
+        }));
+        return job;
+    }
+
+    public AJob get(int id) {
+        return jobs.get(id);
+    }
+
+    // oldest first
+    public List<AJob> all() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    public int running() {
+        int count = 0;
+        for (AJob job : jobs.values()) {
+            if (!job.isDone()) count++;
+        }
+        return count;
+    }
+
+    // drops finished jobs from the :jobs listing
+    public void prune() {
+        jobs.values().removeIf(AJob::isDone);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,151 @@
+package dsh;
+
+/**
+ * The loops over primitive arrays that fused list arithmetic, the reductions and
+ * :matmul run on. These are the plain versions. VectorKernels does the hot ones with
+ * the Vector API when the JVM has it, see get().
+ *
+ * Whole number results are exact or not at all: an overflow throws
+ * ArithmeticException and the caller goes back to BigDecimal, same as NumExpr.
+ *
+ * @author Ryan Pointer
+ * @version 8/31/25
+ */
+class Kernels {
+    private static final Kernels SCALAR = new Kernels();
+    private static final Kernels BEST = load();
+
+    Kernels() {}
+
+    /**
+     * VectorKernels if it was built (needs JDK 17+, see the vector profile in core/pom.xml),
+     * the JVM was started with --add-modules jdk.incubator.vector and the CPU has SIMD
+     * registers wider than one long. Otherwise, or with -Ddsh.kernels=scalar, these.
+     */
+    static Kernels get() {
+        return BEST;
+    }
+
+    static Kernels scalar() {
+        return SCALAR;
+    }
+
+    private static Kernels load() {
+        if ("scalar".equals(System.getProperty("dsh.kernels"))) {
+            return SCALAR;
+        }
+        try {
+            return (Kernels) Class.forName("dsh.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) { // not built, module not added, class too new for this JVM, or no SIMD
+            return SCALAR;
+        }
+    }
+
+    String name() {
+        return "scalar";
+    }
+
+    // Element wise, out[oi + i] = a[ai + i] op b[bi + i] for i < n
+
+    /**
+     * One of + - * / %. / only takes exact quotients and % works like BigDecimal.remainder.
+     */
+    final void apply(char operator, long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        switch (operator) {
+            case '+': add(a, ai, b, bi, out, oi, n); break;
+            case '-': subtract(a, ai, b, bi, out, oi, n); break;
+            case '*': multiply(a, ai, b, bi, out, oi, n); break;
+            case '/': divide(a, ai, b, bi, out, oi, n); break;
+            case '%': remainder(a, ai, b, bi, out, oi, n); break;
+            default: throw new ArithmeticException("no long kernel for " + operator);
+        }
+    }
+
+    void add(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            out[oi + i] = Math.addExact(a[ai + i], b[bi + i]);
+        }
+    }
+
+    void subtract(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            out[oi + i] = Math.subtractExact(a[ai + i], b[bi + i]);
+        }
+    }
+
+    void multiply(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            out[oi + i] = Math.multiplyExact(a[ai + i], b[bi + i]);
+        }
+    }
+
+    // no SIMD integer division to speak of, so these stay plain everywhere
+    final void divide(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            long x = a[ai + i];
+            long y = b[bi + i];
+            if (y == 0 || x % y != 0 || (x == Long.MIN_VALUE && y == -1)) {
+                throw new ArithmeticException("not a whole quotient");
+            }
+            out[oi + i] = x / y;
+        }
+    }
+
+    final void remainder(long[] a, int ai, long[] b, int bi, long[] out, int oi, int n) {
+        for (int i = 0; i < n; i++) {
+            long y = b[bi + i];
+            if (y == 0) {
+                throw new ArithmeticException("remainder by zero");
+            }
+            out[oi + i] = a[ai + i] % y; // same sign as a, like BigDecimal.remainder
+        }
+    }
+
+    // Reductions
+
+    long sum(long[] a, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum = Math.addExact(sum, a[i]);
+        }
+        return sum;
+    }
+
+    long min(long[] a, int n) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, a[i]);
+        }
+        return min;
+    }
+
+    long max(long[] a, int n) {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, a[i]);
+        }
+        return max;
+    }
+
+    // the sum of (a[i] - mean)^2, for a variance from a known mean
+    double squaredDeviations(long[] a, int n, double mean) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double d = a[i] - mean;
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * a[ai..ai+n) . b[bi..bi+n). The caller makes sure it can't overflow (see :matmul),
+     * so unlike the element wise kernels this one doesn't check.
+     */
+    long dot(long[] a, int ai, long[] b, int bi, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a[ai + i] * b[bi + i];
+        }
+        return sum;
+    }
+}
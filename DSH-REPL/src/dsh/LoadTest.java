@@ -0,0 +1,136 @@
+package dsh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Closed loop load generator for DSHServer: each client connection sends a line,
+ * waits for the full response, and repeats. Reports throughput and latency percentiles.
+ *
+ * java dsh.Main --loadtest [--port N | --socket PATH] [--clients C] [--requests R] [--line "..."]
+ *
+ * @author Ryan Pointer
+ * @version 8/21/25
+ */
+public class LoadTest {
+    private int port = DSHServer.DEFAULT_PORT;
+    private String socket;
+    private int clients = 8;
+    private int requests = 10_000;
+    private int warmup = 1_000;
+    private String line = "#(2 + 3 * 4)";
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        for (int i = 0; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--port": test.port = Integer.parseInt(args[++i]); break;
+                case "--socket": test.socket = args[++i]; break;
+                case "--clients": test.clients = Integer.parseInt(args[++i]); break;
+                case "--requests": test.requests = Integer.parseInt(args[++i]); break;
+                case "--warmup": test.warmup = Integer.parseInt(args[++i]); break;
+                case "--line": test.line = args[++i]; break;
+                default: break;
+            }
+        }
+        test.run();
+    }
+
+    private SocketChannel connect() throws IOException {
+        if (socket != null) {
+            return DSHServer.connectUnix(socket);
+        }
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public void run() throws Exception {
+        final long[][] latencies = new long[clients][];
+        final CountDownLatch ready = new CountDownLatch(clients);
+        final CountDownLatch go = new CountDownLatch(1);
+        final String[] failure = new String[1];
+        Thread[] threads = new Thread[clients];
+
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            threads[c] = new Thread(() -> {
+                try (SocketChannel channel = connect()) {
+                    BufferedReader in = new BufferedReader(
+                        new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                    Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+                    for (int i = 0; i < warmup; i++) {
+                        roundTrip(in, out);
+                    }
+                    ready.countDown();
+                    go.await();
+                    long[] times = new long[requests];
+                    for (int i = 0; i < requests; i++) {
+                        long start = System.nanoTime();
+                        roundTrip(in, out);
+                        times[i] = System.nanoTime() - start;
+                    }
+                    latencies[id] = times;
+                    out.write("exit\n");
+                    out.flush();
+                } catch (Exception e) {
+                    failure[0] = e.toString();
+                    ready.countDown();
+                }
+            }, "loadtest-" + c);
+            threads[c].start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure[0] != null) {
+            System.err.println("Client failed: " + failure[0]);
+            return;
+        }
+
+        long[] all = new long[clients * requests];
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, c * requests, requests);
+        }
+        Arrays.sort(all);
+        System.out.printf("%d clients x %d requests of \"%s\"%n", clients, requests, line);
+        System.out.printf("  throughput %.0f req/s over %.2f s%n", all.length / (elapsed / 1e9), elapsed / 1e9);
+        System.out.printf("  latency us: p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+            percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+            percentile(all, 0.999), all[all.length - 1] / 1e3);
+    }
+
+    // one request, then its reply: a line count and that many lines (see DSHServer)
+    private void roundTrip(BufferedReader in, Writer out) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        String count = in.readLine();
+        if (count == null) {
+            throw new IOException("Server closed the connection");
+        }
+        for (int i = Integer.parseInt(count.trim()); i > 0; i--) {
+            if (in.readLine() == null) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+}
@@ -0,0 +1,93 @@
+package dsh;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A List of integer ANumbers stored as a primitive long[].
+ * Used as AList storage for big integer results (primes, factors, ...), which then cost
+ * 8 bytes per element instead of an ANumber plus a BigDecimal each.
+ * get() hands out ANumbers on demand; bulk code should use getLong().
+ *
+ * @author Ryan Pointer
+ * @version 8/14/25
+ */
+public class LongArrayList extends AbstractList<Value> implements RandomAccess {
+    private long[] data;
+    private int size;
+
+    public LongArrayList() {
+        this.data = new long[16];
+    }
+
+    public LongArrayList(long[] values) {
+        this.data = values;
+        this.size = values.length;
+    }
+
+    /**
+     * True if v can be stored without losing anything, i.e. an integer ANumber that fits a long.
+     */
+    public static boolean fits(Value v) {
+        if (!(v instanceof ANumber)) return false;
+        BigDecimal d = ((ANumber) v).getValue();
+        if (d.scale() > 0 && d.stripTrailingZeros().scale() > 0) return false;
+        return d.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0
+            && d.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0;
+    }
+
+    private static long toLong(Value v) {
+        if (!fits(v)) {
+            throw new IllegalArgumentException("LongArrayList only holds integers, got: " + v);
+        }
+        return ((ANumber) v).getValue().longValueExact();
+    }
+
+    public long getLong(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        return data[i];
+    }
+
+    public void addLong(long v) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, Math.max(16, data.length + (data.length >> 1)));
+        }
+        data[size++] = v;
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    // the backing array, valid up to size(); only for read only bulk loops
+    long[] rawArray() {
+        return data;
+    }
+
+    @Override
+    public Value get(int i) {
+        return ANumber.of(getLong(i));
+    }
+
+    @Override
+    public Value set(int i, Value v) {
+        long next = toLong(v);
+        Value previous = get(i);
+        data[i] = next;
+        return previous;
+    }
+
+    @Override
+    public boolean add(Value v) {
+        addLong(toLong(v));
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
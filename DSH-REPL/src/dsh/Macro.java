@@ -1,28 +1,61 @@
 package dsh;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 public class Macro {
     private final String name;
+    private final String kind; // "Macro", or "Function" for a function's body
     private final List<String> rawLines = new ArrayList<>();
     private final List<List<Token>> tokenLines = new ArrayList<>();
+    private volatile Result<MacroPlan> plan; // compiled on first run, dropped when the lines change
+    private Metrics.Timer timer; // looked up on the first run, named after the macro
     
     public Macro(String name) {
+        this(name, "Macro");
+    }
+    
+    Macro(String name, String kind) {
         this.name = name;
+        this.kind = kind;
     }
     
     public void record(Scanner scanner, Tokenizer tokenizer) {
-        System.out.println("╭─ Recording macro '" + name + "'");
+        record(() -> scanner.hasNextLine() ? scanner.nextLine() : null, tokenizer);
+    }
+    
+    // the REPL reads through a BufferedReader, a Scanner on top of it would buffer ahead
+    public void record(BufferedReader reader, Tokenizer tokenizer) {
+        record(() -> {
+            try {
+                return reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, tokenizer);
+    }
+    
+    private void record(Supplier<String> lines, Tokenizer tokenizer) {
+        System.out.println("╭─ Recording " + kind.toLowerCase() + " '" + name + "'");
         System.out.println("│ Commands: 'end' to finish, 'undo' to remove last line, 'show' to preview");
-        System.out.println("╰─ Enter your macro lines:");
+        System.out.println("│ Blocks: if/else if/else, while <cond>, for <var> [from] <to> [step], each closed by 'end'");
+        System.out.println("╰─ Enter your " + kind.toLowerCase() + " lines:");
         
         while (true) {
             System.out.print(String.format("[%d] >>> ", rawLines.size() + 1));
-            String line = scanner.nextLine().trim();
+            String line = lines.get();
+            if (line == null) { // input ran out, keep what we have
+                break;
+            }
+            line = line.trim();
             
-            if (line.equals("end")) {
+            // an end closes the innermost if/while/for first, the recording only when none is open
+            if (line.equals("end") && openBlocks() == 0) {
                 break;
             }
             
@@ -62,6 +95,7 @@ public class Macro {
         
         rawLines.add(line);
         tokenLines.add(tokenResult.getValue());
+        plan = null;
         return true;
     }
     
@@ -69,6 +103,7 @@ public class Macro {
         if (!rawLines.isEmpty()) {
             String removedLine = rawLines.remove(rawLines.size() - 1);
             tokenLines.remove(tokenLines.size() - 1);
+            plan = null;
             System.out.println("│ ↶ Removed: " + removedLine);
             System.out.println("│   Lines remaining: " + rawLines.size());
         } else {
@@ -91,9 +126,9 @@ public class Macro {
     
     private void finalizeMacro() {
         if (rawLines.isEmpty()) {
-            System.out.println("╰─ ⚠ Macro '" + name + "' is empty - no lines recorded");
+            System.out.println("╰─ ⚠ " + kind + " '" + name + "' is empty - no lines recorded");
         } else {
-            System.out.println("╰─ ✓ Macro '" + name + "' saved successfully with " + 
+            System.out.println("╰─ ✓ " + kind + " '" + name + "' saved successfully with " + 
                              rawLines.size() + " line(s)");
         }
     }
@@ -106,6 +141,7 @@ public class Macro {
 
     public boolean tokenizeAll(Tokenizer tokenizer) {
         tokenLines.clear();
+        plan = null;
         boolean allSuccessful = true;
         
         for (int i = 0; i < rawLines.size(); i++) {
@@ -128,6 +164,32 @@ public class Macro {
         return allSuccessful;
     }
     
+    // if/while/for lines still waiting for their end
+    private int openBlocks() {
+        int open = 0;
+        for (String line : rawLines) {
+            String word = line.split("\\s+", 2)[0];
+            if (word.equals("if") || word.equals("while") || word.equals("for")) {
+                open++;
+            } else if (line.equals("end")) {
+                open--;
+            }
+        }
+        return open;
+    }
+    
+    /**
+     * The lines compiled into a MacroPlan, once; the error says which line is wrong.
+     */
+    Result<MacroPlan> getPlan(Calculator calculator) {
+        Result<MacroPlan> compiled = plan;
+        if (compiled == null) {
+            compiled = MacroPlan.compile(this, calculator);
+            plan = compiled;
+        }
+        return compiled;
+    }
+    
     public List<List<Token>> getTokenLines() {
         return new ArrayList<>(tokenLines); // Return defensive copy
     }
@@ -140,6 +202,17 @@ public class Macro {
         return name;
     }
     
+    String getKind() {
+        return kind;
+    }
+    
+    Metrics.Timer getTimer() {
+        if (timer == null) {
+            timer = Metrics.timer("macro " + name);
+        }
+        return timer;
+    }
+    
     public int getLineCount() {
         return rawLines.size();
     }
@@ -151,5 +224,6 @@ public class Macro {
     public void clear() {
         rawLines.clear();
         tokenLines.clear();
+        plan = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,663 @@
+package dsh;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A macro compiled once into a flat list of steps with jumps. if/else, while and for
+ * are branches inside the plan, so a loop runs its body without re-tokenizing a line
+ * or re-entering the macro, and whole number lines like i = #(i+1) run on long
+ * registers (see NumExpr) instead of going through the dispatcher.
+ *
+ *   while #(i<n)        for i 0 n [step]      if #(x>0)
+ *     ...                 ...                   ...
+ *   end                 end                   else if #(x<0)   (or just else)
+ *                                               ...
+ *                                             end
+ *
+ * plus break, continue and return [value]. for counts like :range, up to but not
+ * including the end. A condition is any line whose value is true/false or a number.
+ * Functions are compiled the same way and keep one Run per call depth (see UserFunction).
+ *
+ * @author Ryan Pointer
+ * @version 8/26/25
+ */
+final class MacroPlan {
+    private static final int LINE = 0;     // an ordinary line through the dispatcher
+    private static final int ASSIGN = 1;   // x = <whole number expression>, the line itself as fallback
+    private static final int BRANCH = 2;   // go to target unless the condition holds
+    private static final int JUMP = 3;
+    private static final int FOR_INIT = 4; // evaluate the bounds, set the variable, skip the loop if empty
+    private static final int FOR_NEXT = 5; // step the variable, back to the body while in range
+    private static final int RETURN = 6;
+    private static final int VALUE = 7;    // a line that is just a whole number expression, the macro's result if last
+
+    private static final class Step {
+        final int kind;
+        final int line; // 0 based macro line, for errors and :profile
+        List<Token> tokens;
+        NumExpr expr;   // null when only the ordinary path applies
+        NumExpr[] bounds; // FOR_INIT's, null unless all of them compiled
+        int slot = -1;
+        int loop;
+        int target;
+
+        Step(int kind, int line) {
+            this.kind = kind;
+            this.line = line;
+        }
+    }
+
+    // an if/while/for waiting for its end
+    private static final class Block {
+        final String kind;
+        final int line;
+        int branch = -1; // BRANCH still to be pointed past this part
+        boolean hasElse;
+        int start;       // while: its condition, for: its FOR_INIT
+        final List<Integer> exits = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Block(String kind, int line) {
+            this.kind = kind;
+            this.line = line;
+        }
+
+        boolean isLoop() {
+            return !kind.equals("if");
+        }
+    }
+
+    private final String name;
+    private final String kind; // "Macro" or "Function", for errors
+    private final Step[] steps;
+    private final String[] names; // register -> variable
+    private final int loops;
+    private final boolean numeric;
+    private final Set<String> calls = new HashSet<>();
+
+    private MacroPlan(Macro macro, List<Step> steps, Map<String, Integer> slots, int loops) {
+        this.name = macro.getName();
+        this.kind = macro.getKind();
+        this.steps = steps.toArray(new Step[0]);
+        this.names = slots.keySet().toArray(new String[0]);
+        this.loops = loops;
+        boolean allNumeric = true;
+        for (Step step : this.steps) {
+            switch (step.kind) {
+                case LINE:
+                    allNumeric = false;
+                    break;
+                case BRANCH:
+                    allNumeric &= step.expr != null;
+                    break;
+                case RETURN:
+                    allNumeric &= step.expr != null || step.tokens.isEmpty();
+                    break;
+                case FOR_INIT:
+                    allNumeric &= step.bounds != null;
+                    break;
+            }
+            if (step.expr != null) step.expr.calls(calls);
+            if (step.bounds != null) {
+                for (NumExpr bound : step.bounds) bound.calls(calls);
+            }
+        }
+        this.numeric = allNumeric;
+    }
+
+    // every step runs on registers unless something overflows, no line goes through the dispatcher
+    boolean isNumeric() {
+        return numeric;
+    }
+
+    // the variables kept in registers
+    List<String> registerNames() {
+        return Arrays.asList(names);
+    }
+
+    // functions called from compiled expressions
+    Set<String> calls() {
+        return calls;
+    }
+
+    // the variable's register, or -1
+    int slot(String variable) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(variable)) return i;
+        }
+        return -1;
+    }
+
+    // Compiling
+
+    static Result<MacroPlan> compile(Macro macro, Calculator calculator) {
+        List<List<Token>> lines = macro.getTokenLines();
+        List<Step> steps = new ArrayList<>();
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        Deque<Block> blocks = new ArrayDeque<>();
+        int loops = 0;
+
+        for (int i = 0; i < lines.size(); i++) {
+            List<Token> tokens = lines.get(i);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            Token first = tokens.get(0);
+            String error = null;
+
+            if (tokens.size() == 1 && first.isVariable() && first.getValue().equals("end")) {
+                error = end(blocks, steps, i);
+            } else if (!first.isKeyword()) {
+                steps.add(statement(tokens, i, calculator, slots));
+            } else {
+                switch (first.getValue()) {
+                    case "if": {
+                        if (tokens.size() < 2) {
+                            error = "if needs a condition";
+                            break;
+                        }
+                        Block block = new Block("if", i);
+                        block.branch = steps.size();
+                        steps.add(condition(tokens.subList(1, tokens.size()), i, calculator, slots));
+                        blocks.push(block);
+                        break;
+                    }
+                    case "else": {
+                        Block block = blocks.peek();
+                        if (block == null || !block.kind.equals("if") || block.hasElse) {
+                            error = "else without an open if";
+                            break;
+                        }
+                        block.exits.add(steps.size());
+                        steps.add(new Step(JUMP, i));
+                        steps.get(block.branch).target = steps.size();
+                        if (tokens.size() > 2 && tokens.get(1).isKeyword() && tokens.get(1).getValue().equals("if")) {
+                            block.branch = steps.size();
+                            steps.add(condition(tokens.subList(2, tokens.size()), i, calculator, slots));
+                        } else if (tokens.size() == 1) {
+                            block.branch = -1;
+                            block.hasElse = true;
+                        } else {
+                            error = "expected 'else' or 'else if <condition>'";
+                        }
+                        break;
+                    }
+                    case "while": {
+                        if (tokens.size() < 2) {
+                            error = "while needs a condition";
+                            break;
+                        }
+                        Block block = new Block("while", i);
+                        block.start = steps.size();
+                        block.branch = steps.size();
+                        steps.add(condition(tokens.subList(1, tokens.size()), i, calculator, slots));
+                        blocks.push(block);
+                        break;
+                    }
+                    case "for": {
+                        if (tokens.size() < 3 || tokens.size() > 5 || !tokens.get(1).isVariable()) {
+                            error = "expected 'for <var> [from] <to> [step]'";
+                            break;
+                        }
+                        Block block = new Block("for", i);
+                        block.start = steps.size();
+                        Step init = new Step(FOR_INIT, i);
+                        init.tokens = tokens.subList(2, tokens.size());
+                        init.bounds = bounds(init.tokens, calculator, slots);
+                        init.slot = slot(slots, tokens.get(1).getValue());
+                        init.loop = loops++;
+                        steps.add(init);
+                        blocks.push(block);
+                        break;
+                    }
+                    case "break":
+                    case "continue": {
+                        Block loop = null;
+                        for (Block block : blocks) {
+                            if (block.isLoop()) {
+                                loop = block;
+                                break;
+                            }
+                        }
+                        if (loop == null || tokens.size() > 1) {
+                            error = loop == null ? first.getValue() + " outside a loop" : "nothing may follow " + first.getValue();
+                            break;
+                        }
+                        (first.getValue().equals("break") ? loop.exits : loop.continues).add(steps.size());
+                        steps.add(new Step(JUMP, i));
+                        break;
+                    }
+                    case "return": {
+                        Step step = new Step(RETURN, i);
+                        step.tokens = tokens.subList(1, tokens.size());
+                        if (step.tokens.size() == 1) {
+                            step.expr = value(step.tokens.get(0), calculator);
+                            if (step.expr != null) step.expr.bind(slots);
+                        }
+                        steps.add(step);
+                        break;
+                    }
+                    default:
+                        error = "'" + first.getValue() + "' isn't supported";
+                }
+            }
+            if (error != null) {
+                return Result.error(Result.ErrorType.SYNTAX, "line " + (i + 1) + ": " + error);
+            }
+        }
+        if (!blocks.isEmpty()) {
+            Block open = blocks.peek();
+            return Result.error(Result.ErrorType.SYNTAX, "line " + (open.line + 1) + ": " + open.kind + " has no end");
+        }
+        return Result.ok(new MacroPlan(macro, steps, slots, loops));
+    }
+
+    private static String end(Deque<Block> blocks, List<Step> steps, int line) {
+        Block block = blocks.poll();
+        if (block == null) {
+            return "end without an if, while or for";
+        }
+        switch (block.kind) {
+            case "while": {
+                Step back = new Step(JUMP, line);
+                back.target = block.start;
+                steps.add(back);
+                for (int i : block.continues) steps.get(i).target = block.start;
+                break;
+            }
+            case "for": {
+                Step next = new Step(FOR_NEXT, line);
+                Step init = steps.get(block.start);
+                next.slot = init.slot;
+                next.loop = init.loop;
+                next.target = block.start + 1;
+                for (int i : block.continues) steps.get(i).target = steps.size();
+                steps.add(next);
+                init.target = steps.size();
+                break;
+            }
+        }
+        if (block.branch >= 0) steps.get(block.branch).target = steps.size();
+        for (int i : block.exits) steps.get(i).target = steps.size();
+        return null;
+    }
+
+    private static Step statement(List<Token> tokens, int line, Calculator calculator, Map<String, Integer> slots) {
+        // x = ..., not x := ... which binds the line rather than running it
+        if (tokens.size() == 3 && tokens.get(0).isVariable() && tokens.get(1).isAssignment()
+                && tokens.get(1).getValue().equals("=")) {
+            NumExpr expr = value(tokens.get(2), calculator);
+            if (expr != null) {
+                Step step = new Step(ASSIGN, line);
+                step.tokens = tokens;
+                step.expr = expr;
+                expr.bind(slots);
+                step.slot = slot(slots, tokens.get(0).getValue());
+                return step;
+            }
+        }
+        if (tokens.size() == 1) {
+            NumExpr expr = value(tokens.get(0), calculator);
+            if (expr != null) {
+                Step step = new Step(VALUE, line);
+                step.tokens = tokens;
+                step.expr = expr;
+                expr.bind(slots);
+                return step;
+            }
+        }
+        Step step = new Step(LINE, line);
+        step.tokens = tokens;
+        return step;
+    }
+
+    private static Step condition(List<Token> tokens, int line, Calculator calculator, Map<String, Integer> slots) {
+        Step step = new Step(BRANCH, line);
+        step.tokens = tokens;
+        if (tokens.size() == 1) {
+            step.expr = numeric(tokens.get(0), calculator);
+            if (step.expr != null) step.expr.bind(slots);
+        }
+        return step;
+    }
+
+    private static NumExpr[] bounds(List<Token> tokens, Calculator calculator, Map<String, Integer> slots) {
+        NumExpr[] bounds = new NumExpr[tokens.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = numeric(tokens.get(i), calculator);
+            if (bounds[i] == null || bounds[i].isComparison()) return null;
+        }
+        for (NumExpr bound : bounds) bound.bind(slots);
+        return bounds;
+    }
+
+    // numeric(), but not a comparison: kept, its value is a boolean and the long path only has 1/0
+    private static NumExpr value(Token token, Calculator calculator) {
+        NumExpr expr = numeric(token, calculator);
+        return expr == null || expr.isComparison() ? null : expr;
+    }
+
+    // a # expression, a whole number literal or a variable, as a NumExpr
+    private static NumExpr numeric(Token token, Calculator calculator) {
+        switch (token.getType()) {
+            case EXPRESSION:
+                return calculator.compile(token.getValue().substring(1));
+            case VARIABLE:
+                return new NumExpr.Var(token.getValue());
+            case LITERAL:
+                Long whole = wholeNumber(token.getLiteralValue());
+                return whole != null ? new NumExpr.Const(whole) : null;
+            default:
+                return null;
+        }
+    }
+
+    private static int slot(Map<String, Integer> slots, String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    // the number as a long if it is a plain integer (no 2.0) that fits
+    private static Long wholeNumber(Value value) {
+        if (!(value instanceof ANumber)) return null;
+        BigDecimal number = ((ANumber) value).getValue();
+        return number.scale() == 0 && number.precision() <= 18 ? number.longValue() : null;
+    }
+
+    // Running
+
+    /**
+     * Run the plan against env. Ordinary lines go back through the dispatcher;
+     * registers are written back to env before each of those and at the end.
+     */
+    Result<Value> run(TokenDispatcher dispatcher, Environment env, Profiler profiler, boolean profileLines) {
+        Run run = new Run(dispatcher, env);
+        try {
+            run.execute(profiler, profileLines);
+        } finally {
+            run.registers.spill();
+        }
+        return run.result();
+    }
+
+    // a Run to reuse, functions keep one per call depth
+    Run newRun(TokenDispatcher dispatcher, Environment env) {
+        return new Run(dispatcher, env);
+    }
+
+    // one execution's state, so a macro can call itself
+    final class Run {
+        final TokenDispatcher dispatcher;
+        final NumExpr.Registers registers;
+        private Profiler profiler;
+        final long[] ends = new long[loops];
+        final long[] strides = new long[loops];
+
+        Value last;
+        boolean lastInRegister; // the last line was a register assignment, its value is lastNumber
+        long lastNumber;
+        Result<Value> error;
+
+        private Run(TokenDispatcher dispatcher, Environment env) {
+            this.dispatcher = dispatcher;
+            this.registers = new NumExpr.Registers(names, env);
+        }
+
+        // back to how a new Run starts, registers and all
+        void reset() {
+            registers.clear();
+            last = null;
+            lastInRegister = false;
+            error = null;
+        }
+
+        // start with a value already in the variable's register (a function argument)
+        void preset(int slot, long value) {
+            registers.set(slot, value);
+        }
+
+        // run every step; registers are left unspilled, the caller decides
+        void execute(Profiler profiler, boolean profileLines) {
+            this.profiler = profiler;
+            int pc = 0;
+            while (pc >= 0 && pc < steps.length) {
+                if (profileLines) {
+                    int line = steps[pc].line;
+                    profiler.lineStart();
+                    pc = step(pc);
+                    profiler.lineEnd(line);
+                } else {
+                    pc = step(pc);
+                }
+            }
+        }
+
+        Result<Value> result() {
+            if (error != null) {
+                return error;
+            }
+            if (lastInRegister) {
+                return Result.ok(ANumber.of(lastNumber));
+            }
+            return Result.ok(last != null ? last : AString.EMPTY);
+        }
+
+        // true with the result in lastNumber when it is a whole number that fits a long
+        boolean wholeResult() {
+            if (error != null) return false;
+            if (lastInRegister) return true;
+            Long whole = last instanceof ANumber ? exactLong(((ANumber) last).getValue()) : null;
+            if (whole == null) return false;
+            lastNumber = whole;
+            return true;
+        }
+
+        // runs steps[pc], returns the next pc or -1 to stop
+        int step(int pc) {
+            Step step = steps[pc];
+            NumExpr.Registers r = registers;
+            switch (step.kind) {
+                case ASSIGN: {
+                    long value = fast(step.expr);
+                    if (!r.failed) {
+                        r.set(step.slot, value);
+                        lastInRegister = true;
+                        lastNumber = value;
+                        return pc + 1;
+                    }
+                    if (!recover(step)) return -1;
+                    return line(step) ? pc + 1 : -1;
+                }
+                case LINE:
+                    return line(step) ? pc + 1 : -1;
+                case VALUE: {
+                    long value = fast(step.expr);
+                    if (!r.failed) {
+                        lastInRegister = true;
+                        lastNumber = value;
+                        return pc + 1;
+                    }
+                    if (!recover(step)) return -1;
+                    return line(step) ? pc + 1 : -1;
+                }
+                case BRANCH: {
+                    if (step.expr != null) {
+                        long value = fast(step.expr);
+                        if (!r.failed) {
+                            return value != 0 ? pc + 1 : step.target;
+                        }
+                        if (!recover(step)) return -1;
+                    }
+                    Value value = ordinary(step, step.tokens);
+                    if (value == null) return -1;
+                    if (value instanceof ABoolean) {
+                        return Boolean.TRUE.equals(value.getValue()) ? pc + 1 : step.target;
+                    }
+                    if (value instanceof ANumber) {
+                        return ((ANumber) value).getValue().signum() != 0 ? pc + 1 : step.target;
+                    }
+                    return fail(step, "condition must be true/false or a number, got " + value.kind().getTypeName());
+                }
+                case JUMP:
+                    return step.target <= pc ? backwards(step) : step.target;
+                case FOR_INIT:
+                    return forInit(step, pc);
+                case FOR_NEXT: {
+                    if (!r.load(step.slot)) {
+                        return fail(step, "for variable '" + r.name(step.slot) + "' is no longer a whole number");
+                    }
+                    long current = r.values[step.slot];
+                    long stride = strides[step.loop];
+                    long next = current + stride;
+                    if (((current ^ next) & (stride ^ next)) < 0) {
+                        return pc + 1; // ran off the end of long
+                    }
+                    r.set(step.slot, next);
+                    if (stride > 0 ? next < ends[step.loop] : next > ends[step.loop]) {
+                        return backwards(step);
+                    }
+                    return pc + 1;
+                }
+                case RETURN:
+                    if (step.expr != null) {
+                        long value = fast(step.expr);
+                        if (!r.failed) {
+                            lastInRegister = true;
+                            lastNumber = value;
+                            return -1;
+                        }
+                        if (!recover(step)) return -1;
+                    }
+                    if (!step.tokens.isEmpty()) {
+                        Value value = ordinary(step, step.tokens);
+                        if (value == null) return -1;
+                        last = value;
+                        lastInRegister = false;
+                    }
+                    return -1;
+                default:
+                    return fail(step, "bad step");
+            }
+        }
+
+        private long fast(NumExpr expr) {
+            if (profiler == null) {
+                return expr.eval(registers);
+            }
+            profiler.enter();
+            try {
+                return expr.eval(registers);
+            } finally {
+                profiler.exit(Token.TokenType.EXPRESSION);
+            }
+        }
+
+        // after the long path failed: true to redo the line the ordinary way,
+        // false when it failed with an error that redoing it would only repeat
+        private boolean recover(Step step) {
+            registers.failed = false;
+            Result<Value> failure = registers.error;
+            if (failure == null) {
+                return true;
+            }
+            registers.error = null;
+            fail(step, failure.getErrorMessage());
+            return false;
+        }
+
+        // a line the ordinary way, false if it failed
+        private boolean line(Step step) {
+            Value value = ordinary(step, step.tokens);
+            if (value == null) return false;
+            last = value;
+            lastInRegister = false;
+            return true;
+        }
+
+        private Value ordinary(Step step, List<Token> tokens) {
+            registers.spill();
+            Result<Value> result = dispatcher.process(tokens);
+            registers.invalidate(); // the line may have set anything
+            if (result.isError()) {
+                fail(step, result.getErrorMessage());
+                return null;
+            }
+            return result.getValue();
+        }
+
+        // every loop comes back through here, so a runaway one can be stopped
+        private int backwards(Step step) {
+            if (Thread.currentThread().isInterrupted()) {
+                return fail(step, "interrupted");
+            }
+            return step.target;
+        }
+
+        private int forInit(Step step, int pc) {
+            long[] bounds = new long[step.tokens.size()];
+            int i = 0;
+            if (step.bounds != null) {
+                for (; i < bounds.length; i++) {
+                    bounds[i] = fast(step.bounds[i]);
+                    if (registers.failed) break;
+                }
+                if (registers.failed) {
+                    if (!recover(step)) return -1;
+                    i = 0;
+                }
+            }
+            for (; i < bounds.length; i++) {
+                Value value = ordinary(step, Collections.singletonList(step.tokens.get(i)));
+                if (value == null) return -1;
+                Long whole = value instanceof ANumber ? exactLong(((ANumber) value).getValue()) : null;
+                if (whole == null) {
+                    return fail(step, "for bounds must be whole numbers, got " + value);
+                }
+                bounds[i] = whole;
+            }
+            long from = bounds.length > 1 ? bounds[0] : 0;
+            long to = bounds.length > 1 ? bounds[1] : bounds[0];
+            long stride = bounds.length > 2 ? bounds[2] : 1;
+            if (stride == 0) {
+                return fail(step, "for step can't be 0");
+            }
+            ends[step.loop] = to;
+            strides[step.loop] = stride;
+            registers.set(step.slot, from);
+            return (stride > 0 ? from < to : from > to) ? pc + 1 : step.target;
+        }
+
+        private int fail(Step step, String message) {
+            if (message.contains(" failed at line ")) {
+                // a macro or function this one called already said where, keep the innermost
+                error = Result.error(Result.ErrorType.RUNTIME, message);
+            } else {
+                error = Result.error(Result.ErrorType.RUNTIME,
+                    String.format("%s '%s' failed at line %d: %s", kind, name, step.line + 1, message));
+            }
+            return -1;
+        }
+    }
+
+    private static Long exactLong(BigDecimal number) {
+        try {
+            return number.stripTrailingZeros().scale() <= 0 ? number.longValueExact() : null;
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package dsh;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Set;
 import java.util.Collections;
 
 public class MacroRegistry {
-    private final Map<String, Macro> macros = new HashMap<>();
+    private final Map<String, Macro> macros = new ConcurrentHashMap<>(); // safe to read while a job runs
     
     /**
      * Defines a new macro in the registry.
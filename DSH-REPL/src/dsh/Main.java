@@ -2,11 +2,34 @@ package dsh;
 
 /**
  * A main to run dsh
+ *   (no args)                          interactive REPL
+ *   --server [--port N | --socket P]   local calculation service, see DSHServer
+ *   --loadtest [options]               load generator for a running server, see LoadTest
+ *   -Ddsh.stats=file.json              write the :stats report as JSON on exit
  * @author Ryan Pointer
- * @version 7/30/25
+ * @version 8/21/25
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        String statsFile = System.getProperty("dsh.stats");
+        if (statsFile != null) {
+            Metrics.setEnabled(true);
+            Metrics.dumpAtExit(statsFile);
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            DSHServer server = new DSHServer();
+            if (args.length > 2 && args[1].equals("--socket")) {
+                server.serve(DSHServer.openUnix(args[2]));
+            } else {
+                int port = args.length > 2 && args[1].equals("--port") ? Integer.parseInt(args[2]) : DSHServer.DEFAULT_PORT;
+                server.serve(DSHServer.openTcp(port));
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--loadtest")) {
+            LoadTest.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         DSHRepl repl = new DSHRepl();
         repl.start();
     }
@@ -0,0 +1,265 @@
+package dsh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the hot paths (tokenize, process, evaluate,
+ * each command, each macro). Recording is lock free: one nanoTime and one allocation
+ * counter read at each end, plus a few atomic adds. Nothing is allocated per call.
+ * Off until :stats on (or -Ddsh.stats), when it's off a call site costs one volatile read.
+ *
+ * Usage at a call site:
+ *   long t0 = timer.start(); long a0 = Metrics.allocatedBytes();
+ *   ...
+ *   timer.stop(t0, a0);
+ *
+ * @author Ryan Pointer
+ * @version 8/23/25
+ */
+public final class Metrics {
+    private static volatile boolean enabled = false;
+    private static final ConcurrentHashMap<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    public static final Timer TOKENIZE = timer("tokenize");
+    public static final Timer PROCESS = timer("process");
+    public static final Timer EVALUATE = timer("evaluate");
+
+    // HotSpot's per thread allocation counter, when there is one
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private Metrics() {}
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+                if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                    return sun;
+                }
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot style JVM
+        }
+        return null;
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static void reset() {
+        for (Timer timer : TIMERS.values()) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Bytes this thread has allocated so far, or 0 when that isn't available (or stats are off).
+     */
+    public static long allocatedBytes() {
+        if (!enabled) return 0;
+        return Math.max(0, threadAllocatedBytes());
+    }
+
+    /**
+     * Same counter whether or not stats are on, -1 when the JVM doesn't keep one.
+     */
+    public static long threadAllocatedBytes() {
+        if (THREADS == null) return -1;
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // busiest first
+    public static List<Timer> timers() {
+        List<Timer> list = new ArrayList<>();
+        for (Timer timer : TIMERS.values()) {
+            if (timer.count() > 0) list.add(timer);
+        }
+        Collections.sort(list, (a, b) -> Long.compare(b.totalNanos(), a.totalNanos()));
+        return list;
+    }
+
+    /**
+     * One call site's counts, allocation and latency histogram.
+     */
+    public static final class Timer {
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder allocated = new LongAdder();
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        public long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        public void stop(long startNanos, long startAllocated) {
+            if (startNanos == 0 || !enabled) return; // stats were off at start
+            histogram.record(System.nanoTime() - startNanos);
+            if (startAllocated != 0) {
+                allocated.add(allocatedBytes() - startAllocated);
+            }
+        }
+
+        public String getName() { return name; }
+        public long count() { return histogram.count(); }
+        public long totalNanos() { return histogram.total(); }
+        public long maxNanos() { return histogram.max(); }
+        public long percentileNanos(double p) { return histogram.percentile(p); }
+        public double meanNanos() { return count() == 0 ? 0 : (double) totalNanos() / count(); }
+        public long allocatedPerCall() { return count() == 0 ? 0 : allocated.sum() / count(); }
+
+        void reset() {
+            histogram.reset();
+            allocated.reset();
+        }
+    }
+
+    /**
+     * Log linear histogram in the HdrHistogram style: values below 32 ns get their own bucket,
+     * above that each power of two is split into 16 sub buckets, so any recorded value is
+     * known to within 1/16 (about 6%). Covers up to 2^63 ns in under 1000 buckets.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_COUNT; // 0..31 exactly
+        private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        static int bucketOf(long value) {
+            if (value < LINEAR) return (int) Math.max(0, value);
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS + 1
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+        }
+
+        // middle of the bucket's range
+        static long valueOf(int bucket) {
+            if (bucket < LINEAR) return bucket;
+            int exponent = (bucket - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+            int sub = (bucket - LINEAR) % SUB_COUNT;
+            long low = (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+            return low + (1L << (exponent - SUB_BITS - 1));
+        }
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            total.add(nanos);
+            long seen = max.get();
+            while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+                seen = max.get();
+            }
+        }
+
+        long count() { return count.sum(); }
+        long total() { return total.sum(); }
+        long max() { return max.get(); }
+
+        long percentile(double p) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(valueOf(i), max());
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+    }
+
+    // Reports
+
+    public static String table() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %10s %10s %10s %10s %10s %12s%n",
+            "", "calls", "mean us", "p50 us", "p99 us", "max us", "alloc B/call"));
+        for (Timer t : timers()) {
+            sb.append(String.format(Locale.ROOT, "%-24s %10d %10.1f %10.1f %10.1f %10.1f %12d%n",
+                t.getName(), t.count(), t.meanNanos() / 1e3, t.percentileNanos(0.50) / 1e3,
+                t.percentileNanos(0.99) / 1e3, t.maxNanos() / 1e3, t.allocatedPerCall()));
+        }
+        return sb.toString();
+    }
+
+    public static String json() {
+        StringBuilder sb = new StringBuilder("{\n  \"timers\": {");
+        String separator = "\n";
+        for (Timer t : timers()) {
+            sb.append(separator).append("    \"").append(escape(t.getName())).append("\": ");
+            sb.append(String.format(Locale.ROOT,
+                "{\"calls\": %d, \"mean_us\": %.3f, \"p50_us\": %.3f, \"p99_us\": %.3f, \"max_us\": %.3f, \"alloc_bytes_per_call\": %d}",
+                t.count(), t.meanNanos() / 1e3, t.percentileNanos(0.50) / 1e3,
+                t.percentileNanos(0.99) / 1e3, t.maxNanos() / 1e3, t.allocatedPerCall()));
+            separator = ",\n";
+        }
+        return sb.append("\n  }\n}\n").toString();
+    }
+
+    public static void writeJson(String path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write(json());
+        }
+    }
+
+    /**
+     * Write the JSON report to path when the JVM exits (-Ddsh.stats=path).
+     */
+    public static void dumpAtExit(final String path) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writeJson(path);
+            } catch (IOException e) {
+                System.err.println("Could not write stats to " + path + ": " + e.getMessage());
+            }
+        }, "dsh-stats"));
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,317 @@
+package dsh;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A # expression compiled to a tree over whole numbers, evaluated on longs.
+ * Macro loops run their counters and accumulators through this, so an iteration
+ * allocates nothing: no BigDecimal, no ANumber, no Result.
+ * Anything the long path can't do exactly (overflow, a fraction, dividing by zero,
+ * a variable that isn't a whole number) sets failed, and the caller redoes the
+ * line the normal way, which gives the same answer or the same error as ever.
+ *
+ * @author Ryan Pointer
+ * @version 8/26/25
+ */
+abstract class NumExpr {
+
+    // the value, or anything with r.failed set
+    abstract long eval(Registers r);
+
+    // give each variable its register
+    abstract void bind(Map<String, Integer> slots);
+
+    // the functions it calls, by name
+    void calls(Set<String> names) {}
+
+    boolean isComparison() {
+        return false;
+    }
+
+    static final class Const extends NumExpr {
+        private final long value;
+
+        Const(long value) {
+            this.value = value;
+        }
+
+        long eval(Registers r) {
+            return value;
+        }
+
+        void bind(Map<String, Integer> slots) {}
+    }
+
+    static final class Var extends NumExpr {
+        final String name;
+        private int slot = -1;
+
+        Var(String name) {
+            this.name = name;
+        }
+
+        long eval(Registers r) {
+            if (!r.load(slot)) {
+                r.failed = true;
+                return 0;
+            }
+            return r.values[slot];
+        }
+
+        void bind(Map<String, Integer> slots) {
+            Integer existing = slots.get(name);
+            if (existing == null) {
+                existing = slots.size();
+                slots.put(name, existing);
+            }
+            slot = existing;
+        }
+    }
+
+    static final class Op extends NumExpr {
+        private final char op;
+        private final NumExpr left;
+        private final NumExpr right;
+
+        Op(char op, NumExpr left, NumExpr right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        long eval(Registers r) {
+            long a = left.eval(r);
+            long b = right.eval(r);
+            if (r.failed) return 0;
+            switch (op) {
+                case '+': {
+                    long sum = a + b;
+                    if (((a ^ sum) & (b ^ sum)) < 0) break; // overflow
+                    return sum;
+                }
+                case '-': {
+                    long difference = a - b;
+                    if (((a ^ b) & (a ^ difference)) < 0) break;
+                    return difference;
+                }
+                case '*':
+                    return multiply(a, b, r);
+                case '/':
+                    // only when it divides exactly, otherwise the answer isn't whole
+                    if (b == 0 || a % b != 0 || (a == Long.MIN_VALUE && b == -1)) break;
+                    return a / b;
+                case '%':
+                    if (b == 0) break;
+                    return a % b; // sign follows the dividend, same as BigDecimal.remainder
+                case '^':
+                    return power(a, b, r);
+            }
+            r.failed = true;
+            return 0;
+        }
+
+        private static long multiply(long a, long b, Registers r) {
+            long product = a * b;
+            long absA = Math.abs(a);
+            long absB = Math.abs(b);
+            if (((absA | absB) >>> 31) != 0) {
+                if ((b != 0 && product / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                    r.failed = true;
+                    return 0;
+                }
+            }
+            return product;
+        }
+
+        private static long power(long base, long exponent, Registers r) {
+            if (exponent < 0 || (base == 0 && exponent == 0)) {
+                r.failed = true;
+                return 0;
+            }
+            long result = 1;
+            while (exponent > 0 && !r.failed) {
+                if ((exponent & 1) == 1) result = multiply(result, base, r);
+                exponent >>= 1;
+                if (exponent > 0) base = multiply(base, base, r);
+            }
+            return result;
+        }
+
+        void bind(Map<String, Integer> slots) {
+            left.bind(slots);
+            right.bind(slots);
+        }
+
+        void calls(Set<String> names) {
+            left.calls(names);
+            right.calls(names);
+        }
+    }
+
+    // 1 for true, 0 for false, so a condition is just eval(r) != 0
+    static final class Compare extends NumExpr {
+        private static final String[] OPERATORS = {"<", "<=", ">", ">=", "==", "!="};
+
+        private final int kind;
+        private final NumExpr left;
+        private final NumExpr right;
+
+        Compare(String operator, NumExpr left, NumExpr right) {
+            this.kind = Arrays.asList(OPERATORS).indexOf(operator);
+            this.left = left;
+            this.right = right;
+        }
+
+        long eval(Registers r) {
+            long a = left.eval(r);
+            long b = right.eval(r);
+            boolean result;
+            switch (kind) {
+                case 0:  result = a < b; break;
+                case 1:  result = a <= b; break;
+                case 2:  result = a > b; break;
+                case 3:  result = a >= b; break;
+                case 4:  result = a == b; break;
+                default: result = a != b; break;
+            }
+            return result ? 1 : 0;
+        }
+
+        boolean isComparison() {
+            return true;
+        }
+
+        void bind(Map<String, Integer> slots) {
+            left.bind(slots);
+            right.bind(slots);
+        }
+
+        void calls(Set<String> names) {
+            left.calls(names);
+            right.calls(names);
+        }
+    }
+
+    /**
+     * name(args) of a user function. Runs on longs only when the function is pure
+     * (see FunctionRegistry), since a failure further up reruns the whole line the
+     * normal way and calls it again. Anything else fails over to that normal path
+     * before the function runs at all.
+     */
+    static final class Call extends NumExpr {
+        private final String name;
+        private final NumExpr[] args;
+        private final TokenDispatcher dispatcher;
+
+        Call(String name, NumExpr[] args, TokenDispatcher dispatcher) {
+            this.name = name;
+            this.args = args;
+            this.dispatcher = dispatcher;
+        }
+
+        long eval(Registers r) {
+            long[] values = new long[args.length]; // not reusable, the function may be in its own arguments
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].eval(r);
+            }
+            if (r.failed) return 0;
+            UserFunction function = dispatcher.getFunctions().get(name);
+            if (function == null || !function.isPure()) {
+                r.failed = true;
+                return 0;
+            }
+            return function.callWhole(values, r);
+        }
+
+        void bind(Map<String, Integer> slots) {
+            for (NumExpr arg : args) arg.bind(slots);
+        }
+
+        void calls(Set<String> names) {
+            names.add(name);
+            for (NumExpr arg : args) arg.calls(names);
+        }
+    }
+
+    /**
+     * Long registers standing in for some of the Environment's variables.
+     * A register is live once loaded (or assigned) and dirty while the Environment
+     * hasn't seen its latest value. spill() writes dirty ones back, invalidate() drops
+     * them all so the next read goes to the Environment again; anything that runs
+     * ordinary code (a command, a macro, a non numeric line, reading a derived or
+     * lazy variable) needs both around it.
+     */
+    static final class Registers {
+        final long[] values;
+        final boolean[] live;
+        final boolean[] dirty;
+        boolean failed;
+        Result<Value> error; // with failed, when it was a real error and not just something longs can't do
+        private final String[] names;
+        private final Environment env;
+
+        Registers(String[] names, Environment env) {
+            this.names = names;
+            this.env = env;
+            this.values = new long[names.length];
+            this.live = new boolean[names.length];
+            this.dirty = new boolean[names.length];
+        }
+
+        boolean load(int slot) {
+            if (live[slot]) return true;
+            Value value = env.peek(names[slot]);
+            if (value instanceof ADerived || value instanceof ALazy) {
+                // computing it runs a line, which has to see the registers' values and may set anything
+                spill();
+                value = env.get(names[slot]);
+                invalidate();
+            } else if (!(value instanceof ANumber)) {
+                value = env.get(names[slot]);
+            }
+            if (!(value instanceof ANumber)) return false;
+            BigDecimal number = ((ANumber) value).getValue();
+            if (number.scale() != 0 || number.precision() > 18) return false;
+            values[slot] = number.longValue();
+            live[slot] = true;
+            dirty[slot] = false;
+            return true;
+        }
+
+        void set(int slot, long value) {
+            values[slot] = value;
+            live[slot] = true;
+            dirty[slot] = true;
+        }
+
+        void spill() {
+            for (int i = 0; i < names.length; i++) {
+                if (dirty[i]) {
+                    env.set(names[i], ANumber.of(values[i]));
+                    dirty[i] = false;
+                }
+            }
+        }
+
+        void invalidate() {
+            for (int i = 0; i < names.length; i++) {
+                live[i] = false;
+            }
+        }
+
+        // forget everything, including unspilled values, for a fresh run
+        void clear() {
+            Arrays.fill(live, false);
+            Arrays.fill(dirty, false);
+            failed = false;
+            error = null;
+        }
+
+        String name(int slot) {
+            return names[slot];
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package dsh;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Primality and factorisation helpers for the number theory commands.
+ * 64 bit inputs use deterministic Miller-Rabin over Montgomery arithmetic,
+ * anything bigger uses Baillie-PSW, and factoring is Pollard's rho with Brent's cycle finding.
+ *
+ * @author Ryan Pointer
+ * @version 8/12/25
+ */
+public final class NumberTheory {
+    // these seven bases are enough for every n < 2^64 (Jim Sinclair)
+    private static final long[] MR_BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+    private static final int[] SMALL_PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47};
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private NumberTheory() {}
+
+    // Primality
+
+    public static boolean isPrime(long n) {
+        if (n < 2) return false;
+        for (int p : SMALL_PRIMES) {
+            if (n % p == 0) return n == p;
+        }
+        if (n < 47L * 47L) return true;
+        if (n <= 0xFFFFFFFFL) return isPrime32(n);
+
+        Montgomery m = new Montgomery(n);
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+
+        for (long base : MR_BASES) {
+            long a = base % n;
+            if (a == 0) continue;
+            if (!m.strongProbablePrime(a, d, s)) return false;
+        }
+        return true;
+    }
+
+    // bases 2, 7 and 61 are exact below 2^32, and products still fit in 64 bits
+    private static boolean isPrime32(long n) {
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+        return strongProbablePrime32(2, d, s, n)
+            && strongProbablePrime32(7, d, s, n)
+            && strongProbablePrime32(61, d, s, n);
+    }
+
+    private static boolean strongProbablePrime32(long a, long d, int s, long n) {
+        a %= n;
+        if (a == 0) return true;
+        long x = 1;
+        for (long e = d; e != 0; e >>>= 1) {
+            if ((e & 1) == 1) x = Long.remainderUnsigned(x * a, n);
+            a = Long.remainderUnsigned(a * a, n);
+        }
+        if (x == 1 || x == n - 1) return true;
+        for (int r = 1; r < s; r++) {
+            x = Long.remainderUnsigned(x * x, n);
+            if (x == n - 1) return true;
+            if (x == 1) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Baillie-PSW: a strong base 2 Miller-Rabin test plus a strong Lucas test.
+     * No counterexample is known, and below 2^64 it is proven exact.
+     */
+    public static boolean isPrime(BigInteger n) {
+        if (n.signum() <= 0) return false;
+        if (n.compareTo(LONG_MAX) <= 0) return isPrime(n.longValue());
+
+        for (int p : SMALL_PRIMES) {
+            if (n.mod(BigInteger.valueOf(p)).signum() == 0) return false;
+        }
+        return strongProbablePrime(n, TWO) && strongLucasProbablePrime(n);
+    }
+
+    private static boolean strongProbablePrime(BigInteger n, BigInteger base) {
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int s = nMinusOne.getLowestSetBit();
+        BigInteger d = nMinusOne.shiftRight(s);
+
+        BigInteger x = base.modPow(d, n);
+        if (x.equals(BigInteger.ONE) || x.equals(nMinusOne)) return true;
+        for (int r = 1; r < s; r++) {
+            x = x.multiply(x).mod(n);
+            if (x.equals(nMinusOne)) return true;
+            if (x.equals(BigInteger.ONE)) return false;
+        }
+        return false;
+    }
+
+    // Selfridge's method A for the parameters, then the strong test on U and V
+    private static boolean strongLucasProbablePrime(BigInteger n) {
+        if (isPerfectSquare(n)) return false; // no D with (D/n) = -1 would ever be found
+
+        long d = 5;
+        while (jacobi(BigInteger.valueOf(d), n) != -1) {
+            d = d > 0 ? -(d + 2) : -(d - 2);
+        }
+        BigInteger bigD = BigInteger.valueOf(d);
+        BigInteger q = BigInteger.valueOf((1 - d) / 4);
+
+        BigInteger nPlusOne = n.add(BigInteger.ONE);
+        int s = nPlusOne.getLowestSetBit();
+        BigInteger k = nPlusOne.shiftRight(s);
+
+        // P = 1; walk the bits of k from the top with the doubling formulas
+        BigInteger u = BigInteger.ONE;
+        BigInteger v = BigInteger.ONE;
+        BigInteger qk = q.mod(n);
+        for (int i = k.bitLength() - 2; i >= 0; i--) {
+            u = u.multiply(v).mod(n);
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            qk = qk.multiply(qk).mod(n);
+            if (k.testBit(i)) {
+                BigInteger nextU = halve(u.add(v), n);
+                BigInteger nextV = halve(bigD.multiply(u).add(v), n);
+                u = nextU;
+                v = nextV;
+                qk = qk.multiply(q).mod(n);
+            }
+        }
+
+        if (u.signum() == 0 || v.signum() == 0) return true;
+        for (int r = 1; r < s; r++) {
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            if (v.signum() == 0) return true;
+            qk = qk.multiply(qk).mod(n);
+        }
+        return false;
+    }
+
+    // x / 2 mod n for odd n
+    private static BigInteger halve(BigInteger x, BigInteger n) {
+        x = x.mod(n);
+        if (x.testBit(0)) x = x.add(n);
+        return x.shiftRight(1);
+    }
+
+    static int jacobi(BigInteger a, BigInteger n) {
+        a = a.mod(n);
+        int result = 1;
+        while (a.signum() != 0) {
+            int twos = a.getLowestSetBit();
+            a = a.shiftRight(twos);
+            int nMod8 = n.intValue() & 7;
+            if ((twos & 1) == 1 && (nMod8 == 3 || nMod8 == 5)) result = -result;
+            if ((a.intValue() & 3) == 3 && (n.intValue() & 3) == 3) result = -result;
+            BigInteger t = a;
+            a = n.mod(t);
+            n = t;
+        }
+        return n.equals(BigInteger.ONE) ? result : 0;
+    }
+
+    private static boolean isPerfectSquare(BigInteger n) {
+        BigInteger root = sqrt(n);
+        return root.multiply(root).equals(n);
+    }
+
+    // floor(sqrt(n)) by Newton's method
+    static BigInteger sqrt(BigInteger n) {
+        if (n.signum() == 0) return n;
+        BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + 1) / 2);
+        while (true) {
+            BigInteger y = x.add(n.divide(x)).shiftRight(1);
+            if (y.compareTo(x) >= 0) return x;
+            x = y;
+        }
+    }
+
+    // Factorisation
+
+    /**
+     * Prime factors of n in ascending order, with repetition.
+     */
+    public static List<Long> factor(long n) {
+        List<Long> factors = new ArrayList<>();
+        if (n < 2) return factors;
+
+        for (int p : SMALL_PRIMES) {
+            while (n % p == 0) {
+                factors.add((long) p);
+                n /= p;
+            }
+        }
+        factorInto(n, factors);
+        Collections.sort(factors);
+        return factors;
+    }
+
+    private static void factorInto(long n, List<Long> factors) {
+        if (n == 1) return;
+        if (isPrime(n)) {
+            factors.add(n);
+            return;
+        }
+        long d = brent(n);
+        factorInto(d, factors);
+        factorInto(n / d, factors);
+    }
+
+    // Pollard's rho with Brent's cycle detection and batched gcds, n odd and composite
+    private static long brent(long n) {
+        Montgomery m = new Montgomery(n);
+        for (long c = 1; ; c++) {
+            long cm = m.toMontgomery(c);
+            long y = m.toMontgomery(2);
+            long x = y;
+            long ys = y;
+            long q = m.one;
+            long g = 1;
+            int batch = 128;
+
+            for (long r = 1; g == 1; r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; i++) {
+                    y = m.add(m.multiply(y, y), cm);
+                }
+                for (long k = 0; k < r && g == 1; k += batch) {
+                    ys = y;
+                    long limit = Math.min(batch, r - k);
+                    for (long i = 0; i < limit; i++) {
+                        y = m.add(m.multiply(y, y), cm);
+                        q = m.multiply(q, absDiff(x, y));
+                    }
+                    g = gcd(q, n);
+                }
+            }
+
+            if (g == n) {
+                // the batch overshot, step back through it one gcd at a time
+                do {
+                    ys = m.add(m.multiply(ys, ys), cm);
+                    g = gcd(absDiff(x, ys), n);
+                } while (g == 1);
+            }
+            if (g != n) return g;
+            // unlucky c, try the next polynomial
+        }
+    }
+
+    /**
+     * Prime factors of a big n. Past 64 bits rho is done in BigInteger arithmetic,
+     * so huge semiprimes are slow; maxIterations bounds each rho run, and a cofactor
+     * that could not be split is returned as is (it is composite).
+     */
+    public static List<BigInteger> factor(BigInteger n, long maxIterations) {
+        List<BigInteger> factors = new ArrayList<>();
+        if (n.compareTo(BigInteger.ONE) <= 0) return factors;
+        factorInto(n, factors, maxIterations);
+        Collections.sort(factors);
+        return factors;
+    }
+
+    private static void factorInto(BigInteger n, List<BigInteger> factors, long maxIterations) {
+        if (n.equals(BigInteger.ONE)) return;
+        if (n.compareTo(LONG_MAX) <= 0) {
+            for (long f : factor(n.longValue())) {
+                factors.add(BigInteger.valueOf(f));
+            }
+            return;
+        }
+        if (isPrime(n)) {
+            factors.add(n);
+            return;
+        }
+        for (int p : SMALL_PRIMES) {
+            BigInteger bp = BigInteger.valueOf(p);
+            if (n.mod(bp).signum() == 0) {
+                factors.add(bp);
+                factorInto(n.divide(bp), factors, maxIterations);
+                return;
+            }
+        }
+        BigInteger d = brent(n, maxIterations);
+        if (d == null) {
+            factors.add(n); // gave up, leave the composite cofactor whole
+            return;
+        }
+        factorInto(d, factors, maxIterations);
+        factorInto(n.divide(d), factors, maxIterations);
+    }
+
+    private static BigInteger brent(BigInteger n, long maxIterations) {
+        long spent = 0;
+        for (long c = 1; spent < maxIterations; c++) {
+            BigInteger bc = BigInteger.valueOf(c);
+            BigInteger y = TWO;
+            BigInteger x = y;
+            BigInteger ys = y;
+            BigInteger q = BigInteger.ONE;
+            BigInteger g = BigInteger.ONE;
+            int batch = 128;
+
+            for (long r = 1; g.equals(BigInteger.ONE) && spent < maxIterations; r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; i++) {
+                    y = y.multiply(y).add(bc).mod(n);
+                }
+                for (long k = 0; k < r && g.equals(BigInteger.ONE); k += batch) {
+                    ys = y;
+                    long limit = Math.min(batch, r - k);
+                    for (long i = 0; i < limit; i++) {
+                        y = y.multiply(y).add(bc).mod(n);
+                        q = q.multiply(x.subtract(y).abs()).mod(n);
+                    }
+                    g = q.gcd(n);
+                    spent += limit;
+                }
+                spent += r;
+            }
+
+            if (g.equals(n)) {
+                do {
+                    ys = ys.multiply(ys).add(bc).mod(n);
+                    g = x.subtract(ys).abs().gcd(n);
+                } while (g.equals(BigInteger.ONE));
+            }
+            if (!g.equals(n) && !g.equals(BigInteger.ONE)) return g;
+        }
+        return null;
+    }
+
+    static long gcd(long a, long b) {
+        // binary gcd, values here are treated as unsigned
+        if (a == 0) return b;
+        if (b == 0) return a;
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (Long.compareUnsigned(a, b) > 0) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    private static long absDiff(long a, long b) {
+        return Long.compareUnsigned(a, b) > 0 ? a - b : b - a;
+    }
+
+    // high 64 bits of the unsigned 128 bit product a * b
+    static long multiplyHighUnsigned(long a, long b) {
+        long aLo = a & 0xFFFFFFFFL;
+        long aHi = a >>> 32;
+        long bLo = b & 0xFFFFFFFFL;
+        long bHi = b >>> 32;
+
+        long w0 = aLo * bLo;
+        long t = aHi * bLo + (w0 >>> 32);
+        long w1 = (t & 0xFFFFFFFFL) + aLo * bHi;
+        return aHi * bHi + (t >>> 32) + (w1 >>> 32);
+    }
+
+    /**
+     * Montgomery arithmetic modulo an odd n, values kept as x * 2^64 mod n.
+     * Avoids both BigInteger and 128 bit division in the inner loops.
+     */
+    static final class Montgomery {
+        final long n;
+        final long nInverse; // n * nInverse == 1 mod 2^64
+        final long r2;       // 2^128 mod n
+        final long one;      // 1 in Montgomery form
+
+        Montgomery(long n) {
+            this.n = n;
+            long inv = n; // correct to 3 bits for odd n, each step doubles that
+            for (int i = 0; i < 5; i++) {
+                inv *= 2 - n * inv;
+            }
+            this.nInverse = inv;
+
+            long r = Long.remainderUnsigned(-n, n); // 2^64 mod n
+            this.one = r;
+            long x = r;
+            for (int i = 0; i < 64; i++) {
+                x = addMod(x, x);
+            }
+            this.r2 = x;
+        }
+
+        private long addMod(long a, long b) {
+            long s = a + b;
+            // overflowed past 2^64 or reached n
+            if (Long.compareUnsigned(s, a) < 0 || Long.compareUnsigned(s, n) >= 0) {
+                s -= n;
+            }
+            return s;
+        }
+
+        long add(long a, long b) {
+            return addMod(a, b);
+        }
+
+        long multiply(long a, long b) {
+            long hi = multiplyHighUnsigned(a, b);
+            long lo = a * b;
+            long m = lo * nInverse;
+            long mnHi = multiplyHighUnsigned(m, n);
+            // low words cancel exactly, so only the high words matter
+            long t = hi - mnHi;
+            if (Long.compareUnsigned(hi, mnHi) < 0) {
+                t += n;
+            }
+            return t;
+        }
+
+        long toMontgomery(long a) {
+            return multiply(Long.remainderUnsigned(a, n), r2);
+        }
+
+        long fromMontgomery(long a) {
+            return multiply(a, 1);
+        }
+
+        long pow(long base, long e) {
+            long result = one;
+            while (e != 0) {
+                if ((e & 1) == 1) result = multiply(result, base);
+                base = multiply(base, base);
+                e >>>= 1;
+            }
+            return result;
+        }
+
+        // one Miller-Rabin round for n - 1 = d * 2^s
+        boolean strongProbablePrime(long a, long d, int s) {
+            long minusOne = n - one; // n - 1 in Montgomery form
+            long x = pow(toMontgomery(a), d);
+            if (x == one || x == minusOne) return true;
+            for (int r = 1; r < s; r++) {
+                x = multiply(x, x);
+                if (x == minusOne) return true;
+                if (x == one) return false;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package dsh;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Numbers kept outside the Java heap in direct ByteBuffers, for lists and matrices
+ * big enough that the GC shouldn't have to walk them. A cell is a number exactly as
+ * BigDecimal has it, the unscaled long and the scale, 12 bytes in all. Numbers whose
+ * unscaled value doesn't fit a long can't be stored, neither can anything that isn't
+ * a number or null, and whoever holds the storage moves to the heap when one shows up.
+ *
+ * release() frees the memory right away. The list or matrix on top calls it when it is
+ * cleared or moves to other storage, and when the last of its holders lets go (see
+ * Environment.hold). Every read takes the read lock and release() the write lock, so
+ * a reader on another thread (a job, say) never touches freed memory: it finishes
+ * first, or finds the store released and throws IllegalStateException. A store nobody
+ * released is left to the GC, which frees each buffer once nothing reads it, see Cleanup.
+ *
+ * @author Ryan Pointer
+ * @version 9/2/25
+ */
+final class OffHeap {
+    static final int CELL = 12; // bytes, PagedRows lays its file out the same way
+    private static final int CHUNK = 1 << 16; // cells per buffer, the last one grows up to it
+    private static final int NULL_SCALE = Integer.MIN_VALUE;
+
+    private static final AtomicLong LIVE_BYTES = new AtomicLong();
+    private static final AtomicLong LIVE_BUFFERS = new AtomicLong();
+
+    private static final double[] POWERS = new double[23]; // exact as doubles up to 10^22
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // write for ensure and release
+    private final Cleanup cleanup;
+    private long capacity; // cells
+    private volatile boolean released;
+
+    OffHeap(long cells) {
+        final List<ByteBuffer> owned = chunks; // not this, or the store would never be unreachable
+        this.cleanup = new Cleanup(this, () -> forget(owned));
+        ensure(cells);
+    }
+
+    /**
+     * True if v can be stored: null, or a number whose unscaled value fits a long.
+     */
+    static boolean fits(Value v) {
+        if (v == null || v instanceof ANull) return true;
+        if (!(v instanceof ANumber)) return false;
+        BigDecimal d = ((ANumber) v).getValue();
+        return d.scale() != NULL_SCALE && d.unscaledValue().bitLength() < 64;
+    }
+
+    static boolean fitsAll(List<? extends Value> values) {
+        for (Value v : values) {
+            if (!fits(v)) return false;
+        }
+        return true;
+    }
+
+    // what's allocated and not released yet, for :offheap
+    static long liveBytes() {
+        return LIVE_BYTES.get();
+    }
+
+    static long liveBuffers() {
+        return LIVE_BUFFERS.get();
+    }
+
+    long bytes() {
+        return capacity * CELL;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    // room for at least cells cells; full buffers are never copied, only the last partial one
+    void ensure(long cells) {
+        lock.writeLock().lock();
+        try {
+            checkLive();
+            grow(cells);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void grow(long cells) {
+        while (capacity < cells) {
+            int last = chunks.size() - 1;
+            int lastCells = last < 0 ? CHUNK : chunks.get(last).capacity() / CELL;
+            if (lastCells < CHUNK) {
+                int grown = (int) Math.min(CHUNK, Math.max(lastCells * 2L, lastCells + cells - capacity));
+                ByteBuffer bigger = allocate(grown);
+                ByteBuffer old = chunks.get(last);
+                old.clear();
+                bigger.put(old).clear();
+                chunks.set(last, bigger);
+                free(old);
+                capacity += grown - lastCells;
+            } else {
+                int size = (int) Math.min(CHUNK, Math.max(16, cells - capacity));
+                chunks.add(allocate(size));
+                capacity += size;
+            }
+        }
+    }
+
+    private void checkLive() {
+        if (released) {
+            throw new IllegalStateException("Off-heap storage was already released");
+        }
+    }
+
+    // under the read lock
+    private ByteBuffer chunk(long cell) {
+        checkLive();
+        return chunks.get((int) (cell / CHUNK));
+    }
+
+    Value get(long cell) {
+        lock.readLock().lock();
+        try {
+            return read(chunk(cell), (int) (cell % CHUNK) * CELL);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    double getDouble(long cell) {
+        lock.readLock().lock();
+        try {
+            return readDouble(chunk(cell), (int) (cell % CHUNK) * CELL);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the caller checks fits(v) first; cells don't overlap, so writers only keep release() out
+    void put(long cell, Value v) {
+        lock.readLock().lock();
+        try {
+            write(chunk(cell), (int) (cell % CHUNK) * CELL, v);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The cell at byte at of buffer
+
+    static Value read(ByteBuffer buffer, int at) {
+        int scale = buffer.getInt(at + 8);
+        if (scale == NULL_SCALE) return ANull.INSTANCE;
+        long unscaled = buffer.getLong(at);
+        return scale == 0 ? ANumber.of(unscaled) : ANumber.of(BigDecimal.valueOf(unscaled, scale));
+    }
+
+    // the number as a double, NaN for null, without building a BigDecimal when it can help it
+    static double readDouble(ByteBuffer buffer, int at) {
+        int scale = buffer.getInt(at + 8);
+        if (scale == NULL_SCALE) return Double.NaN;
+        long unscaled = buffer.getLong(at);
+        if (scale == 0) return unscaled;
+        if (scale > 0 && scale < POWERS.length && Math.abs(unscaled) < (1L << 53)) {
+            return unscaled / POWERS[scale]; // both exact, so the quotient rounds like BigDecimal.doubleValue
+        }
+        return BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    static void write(ByteBuffer buffer, int at, Value v) {
+        if (v == null || v instanceof ANull) {
+            buffer.putLong(at, 0);
+            buffer.putInt(at + 8, NULL_SCALE);
+            return;
+        }
+        BigDecimal d = ((ANumber) v).getValue();
+        buffer.putLong(at, d.unscaledValue().longValue());
+        buffer.putInt(at + 8, d.scale());
+    }
+
+    // count cells from one store to another, a buffer at a time, both read locked throughout
+    static void copy(OffHeap from, long fromCell, OffHeap to, long toCell, long count) {
+        from.lock.readLock().lock();
+        to.lock.readLock().lock();
+        try {
+            while (count > 0) {
+                int n = (int) Math.min(count, Math.min(CHUNK - fromCell % CHUNK, CHUNK - toCell % CHUNK));
+                ByteBuffer src = from.chunk(fromCell).duplicate();
+                ByteBuffer dst = to.chunk(toCell).duplicate();
+                int at = (int) (fromCell % CHUNK) * CELL;
+                src.limit(at + n * CELL).position(at);
+                dst.position((int) (toCell % CHUNK) * CELL);
+                dst.put(src);
+                fromCell += n;
+                toCell += n;
+                count -= n;
+            }
+        } finally {
+            to.lock.readLock().unlock();
+            from.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Free the memory now, once the reads under way are done. Safe to call twice.
+     */
+    void release() {
+        lock.writeLock().lock();
+        try {
+            if (released) return;
+            released = true;
+            for (ByteBuffer chunk : chunks) {
+                Cleaner.clean(chunk);
+            }
+            cleanup.clean(); // the counts, and the GC has nothing left to do
+            capacity = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the store is gone, its buffers aren't counted any more (whether freed yet or not)
+    private static void forget(List<ByteBuffer> chunks) {
+        for (ByteBuffer chunk : chunks) {
+            LIVE_BYTES.addAndGet(-chunk.capacity());
+            LIVE_BUFFERS.decrementAndGet();
+        }
+        chunks.clear();
+    }
+
+    Source source(long start, int count, int stride) {
+        return new Source(this, start, count, stride);
+    }
+
+    /**
+     * count cells from start, stride apart. get takes the read lock every time, so
+     * the reductions take it once for a whole range with reading() and read through
+     * unlocked() inside it.
+     */
+    static final class Source implements Reductions.NumericSource {
+        private final OffHeap store;
+        private final long start;
+        private final int count;
+        private final int stride;
+
+        Source(OffHeap store, long start, int count, int stride) {
+            this.store = store;
+            this.start = start;
+            this.count = count;
+            this.stride = stride;
+        }
+
+        public int size() { return count; }
+        public double get(int i) { return store.getDouble(start + (long) i * stride); }
+
+        <T> T reading(Supplier<T> work) {
+            store.lock.readLock().lock();
+            try {
+                store.checkLive();
+                return work.get();
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        Reductions.NumericSource unlocked() {
+            return new Reductions.NumericSource() {
+                public int size() { return count; }
+                public double get(int i) {
+                    long cell = start + (long) i * stride;
+                    return readDouble(store.chunks.get((int) (cell / CHUNK)), (int) (cell % CHUNK) * CELL);
+                }
+            };
+        }
+    }
+
+    // Allocation, and freeing a buffer nothing can be reading (under the write lock)
+
+    private static ByteBuffer allocate(int cells) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(cells * CELL);
+        LIVE_BYTES.addAndGet(buffer.capacity());
+        LIVE_BUFFERS.incrementAndGet();
+        return buffer;
+    }
+
+    private static void free(ByteBuffer buffer) {
+        LIVE_BYTES.addAndGet(-buffer.capacity());
+        LIVE_BUFFERS.decrementAndGet();
+        Cleaner.clean(buffer);
+    }
+
+    // unmap a MappedByteBuffer now, see Cleaner
+    static void unmap(ByteBuffer buffer) {
+        Cleaner.clean(buffer);
+    }
+
+    /**
+     * Frees a direct (or mapped) buffer right away instead of whenever the GC finds it. That is
+     * Unsafe.invokeCleaner on 9+ and the buffer's own cleaner on 8. If neither is
+     * reachable the buffer is just dropped and the GC frees it the usual way.
+     */
+    private static final class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invoke = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                invoke = type.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (Throwable e) { // Java 8, see clean
+                invoke = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invoke;
+        }
+
+        static void clean(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            } catch (Throwable e) {
+                // left to the GC
+            }
+        }
+    }
+
+    /**
+     * Runs an action once: on clean(), or else on the dsh-cleanup thread after the GC finds
+     * owner unreachable, like java.lang.ref.Cleaner (which Java 8 doesn't have). The action
+     * mustn't hold on to owner, or that never happens. Unreachable doesn't mean done with:
+     * a reader can still have one of owner's buffers in hand, so the GC's run of the action
+     * mustn't free those itself, their own cleaners do once nothing reads them.
+     */
+    static final class Cleanup extends PhantomReference<Object> {
+        private static final ReferenceQueue<Object> UNREACHABLE = new ReferenceQueue<>();
+        // keeps each Cleanup itself reachable until it has run
+        private static final Set<Cleanup> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<Cleanup, Boolean>());
+
+        static {
+            Thread reaper = new Thread(Cleanup::reap, "dsh-cleanup");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+
+        private final Runnable action;
+
+        Cleanup(Object owner, Runnable action) {
+            super(owner, UNREACHABLE);
+            this.action = action;
+            PENDING.add(this);
+        }
+
+        void clean() {
+            if (PENDING.remove(this)) {
+                clear();
+                action.run();
+            }
+        }
+
+        private static void reap() {
+            while (true) {
+                try {
+                    ((Cleanup) UNREACHABLE.remove()).clean();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    // one failed cleanup shouldn't stop the rest
+                }
+            }
+        }
+    }
+
+    /**
+     * count cells from start as a List, the storage of an off-heap AList and each row
+     * of an off-heap AMatrix. Only an AList's can grow. set and add take what fits()
+     * and throw IllegalArgumentException for anything else, so check first.
+     */
+    static final class Cells extends AbstractList<Value> implements RandomAccess {
+        private final OffHeap store;
+        private final long start;
+        private final boolean growable;
+        private int size;
+
+        Cells(OffHeap store, long start, int size, boolean growable) {
+            this.store = store;
+            this.start = start;
+            this.size = size;
+            this.growable = growable;
+        }
+
+        // a list of values that all fit, or null
+        static Cells of(List<? extends Value> values) {
+            if (!fitsAll(values)) return null;
+            OffHeap store = new OffHeap(Math.max(1, values.size()));
+            for (int i = 0; i < values.size(); i++) {
+                store.put(i, values.get(i));
+            }
+            return new Cells(store, 0, values.size(), true);
+        }
+
+        OffHeap store() {
+            return store;
+        }
+
+        Source source() {
+            return store.source(start, size, 1);
+        }
+
+        @Override
+        public Value get(int i) {
+            if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+            return store.get(start + i);
+        }
+
+        @Override
+        public Value set(int i, Value v) {
+            if (!fits(v)) throw new IllegalArgumentException("Off-heap storage only holds numbers, got: " + v);
+            Value previous = get(i);
+            store.put(start + i, v);
+            return previous;
+        }
+
+        @Override
+        public boolean add(Value v) {
+            if (!growable) throw new UnsupportedOperationException("A matrix row can't grow");
+            if (!fits(v)) throw new IllegalArgumentException("Off-heap storage only holds numbers, got: " + v);
+            store.ensure(start + size + 1);
+            store.put(start + size, v);
+            size++;
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * An off-heap AMatrix's rows, row major, each a Cells view made when asked for.
+     * add appends a row (padded with nulls to cols), the caller checks it fits.
+     */
+    static final class Rows extends AbstractList<List<Value>> implements RandomAccess {
+        private final OffHeap store;
+        private final int cols;
+        private int rows;
+
+        Rows(OffHeap store, int rows, int cols) {
+            this.store = store;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        // rows of cols values that all fit, or null
+        static Rows of(List<List<Value>> values, int cols) {
+            for (List<Value> row : values) {
+                if (row.size() > cols || !fitsAll(row)) return null;
+            }
+            Rows rows = new Rows(new OffHeap(Math.max(1, (long) values.size() * cols)), 0, cols);
+            for (List<Value> row : values) {
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        OffHeap store() {
+            return store;
+        }
+
+        int cols() {
+            return cols;
+        }
+
+        Value get(int row, int col) {
+            return store.get((long) row * cols + col);
+        }
+
+        void set(int row, int col, Value v) {
+            store.put((long) row * cols + col, v);
+        }
+
+        // a copy with room for cols columns, the new ones null
+        Rows widen(int wider) {
+            Rows out = new Rows(new OffHeap(Math.max(1, (long) rows * wider)), rows, wider);
+            for (int r = 0; r < rows; r++) {
+                copy(store, (long) r * cols, out.store, (long) r * wider, cols);
+                for (int c = cols; c < wider; c++) {
+                    out.set(r, c, ANull.INSTANCE);
+                }
+            }
+            return out;
+        }
+
+        // the caller checks the cells fit an int, see Reductions.sources
+        Source all() {
+            return store.source(0, Math.toIntExact((long) rows * cols), 1);
+        }
+
+        Source row(int row) {
+            return store.source((long) row * cols, cols, 1);
+        }
+
+        Source column(int col) {
+            return store.source(col, rows, cols);
+        }
+
+        @Override
+        public List<Value> get(int row) {
+            if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rows);
+            return new Cells(store, (long) row * cols, cols, false);
+        }
+
+        @Override
+        public boolean add(List<Value> row) {
+            long at = (long) rows * cols;
+            store.ensure(at + cols);
+            for (int c = 0; c < cols; c++) {
+                store.put(at + c, c < row.size() ? row.get(c) : ANull.INSTANCE);
+            }
+            rows++;
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package dsh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rows of a disk-backed AMatrix, for data bigger than memory. They live in a scratch
+ * file, row major in OffHeap's 12 byte cells, cut into blocks of whole rows that are
+ * memory mapped when touched. The last cacheBlocks() blocks used stay mapped, the least
+ * recently used one is unmapped when another is needed, so only that much of the file
+ * is ever mapped and a scan from top to bottom maps each block once.
+ *
+ * Only numbers and nulls can be stored, the same as OffHeap. Block size and cache size
+ * come from -Ddsh.paging.blockKB (4096) and -Ddsh.paging.blocks (16, also :paging).
+ * Every access takes the lock, so a block can't be unmapped under a reader. release()
+ * unmaps the blocks and deletes the file, when the matrix is cleared or the last of its
+ * holders lets go (see Environment.hold). One nobody released has its file deleted once
+ * the GC finds it unreachable (see OffHeap.Cleanup), or at the latest when the JVM exits.
+ *
+ * @author Ryan Pointer
+ * @version 9/4/25
+ */
+final class PagedRows extends AbstractList<List<Value>> implements RandomAccess {
+    private static final long BLOCK_BYTES = Long.getLong("dsh.paging.blockKB", 4096) << 10;
+    private static volatile int cacheBlocks = Math.max(1, Integer.getInteger("dsh.paging.blocks", 16));
+
+    // what fits a cell, for results the operators work out to DECIMAL128
+    private static final MathContext STORED = new MathContext(18, RoundingMode.HALF_EVEN);
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong MAPPED = new AtomicLong();
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int cols;
+    private final int blockRows;
+    private final int blockBytes;
+    private final LinkedHashMap<Integer, MappedByteBuffer> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final OffHeap.Cleanup cleanup;
+    private int rows;
+    private int lastIndex = -1; // the block used last, skips the map on a scan
+    private MappedByteBuffer last;
+    private boolean released;
+
+    private PagedRows(File file, int cols) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.cols = cols;
+        long rowBytes = (long) cols * OffHeap.CELL;
+        this.blockRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE, BLOCK_BYTES / rowBytes));
+        this.blockBytes = (int) (blockRows * rowBytes);
+        this.cleanup = new OffHeap.Cleanup(this, new Scratch(file, raf, cache));
+    }
+
+    /**
+     * An empty matrix of cols columns in a new scratch file under -Ddsh.paging.dir (the temp dir).
+     */
+    static PagedRows create(int cols) throws IOException {
+        if (cols < 1 || (long) cols * OffHeap.CELL > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Can't page a matrix with " + cols + " columns");
+        }
+        String dir = System.getProperty("dsh.paging.dir", System.getProperty("java.io.tmpdir"));
+        File file = File.createTempFile("dsh-", ".pages", new File(dir));
+        file.deleteOnExit();
+        try {
+            return new PagedRows(file, cols);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    // values the operators computed, rounded to what a cell holds; null if one isn't a number
+    static Value stored(Value v) {
+        if (OffHeap.fits(v)) return v;
+        if (!(v instanceof ANumber)) return null;
+        BigDecimal d = ((ANumber) v).getValue().round(STORED);
+        return d.unscaledValue().bitLength() < 64 ? ANumber.of(d) : null;
+    }
+
+    static int cacheBlocks() {
+        return cacheBlocks;
+    }
+
+    static void setCacheBlocks(int blocks) {
+        cacheBlocks = Math.max(1, blocks);
+    }
+
+    // for :paging
+    static long hits() { return HITS.get(); }
+    static long misses() { return MISSES.get(); }
+    static long mapped() { return MAPPED.get(); }
+
+    int cols() {
+        return cols;
+    }
+
+    // Cells, all under the lock
+
+    synchronized Value get(int row, int col) {
+        return OffHeap.read(block(row / blockRows), offset(row, col));
+    }
+
+    synchronized double getDouble(long cell) {
+        int row = (int) (cell / cols);
+        int col = (int) (cell % cols);
+        return OffHeap.readDouble(block(row / blockRows), offset(row, col));
+    }
+
+    // the caller checks OffHeap.fits(v) first
+    synchronized void set(int row, int col, Value v) {
+        OffHeap.write(block(row / blockRows), offset(row, col), v);
+    }
+
+    private int offset(int row, int col) {
+        return ((row % blockRows) * cols + col) * OffHeap.CELL;
+    }
+
+    private MappedByteBuffer block(int index) {
+        if (released) {
+            throw new IllegalStateException("Disk-backed matrix was already released");
+        }
+        if (index == lastIndex) {
+            HITS.incrementAndGet();
+            return last;
+        }
+        MappedByteBuffer block = cache.get(index);
+        if (block != null) {
+            HITS.incrementAndGet();
+        } else {
+            MISSES.incrementAndGet();
+            try {
+                block = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * blockBytes, blockBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't map block " + index + " of " + file, e);
+            }
+            MAPPED.incrementAndGet();
+            cache.put(index, block);
+            Iterator<MappedByteBuffer> eldest = cache.values().iterator();
+            while (cache.size() > cacheBlocks) {
+                MappedByteBuffer evicted = eldest.next();
+                eldest.remove();
+                unmap(evicted); // written back by the OS, mapped again if needed
+            }
+        }
+        lastIndex = index;
+        last = block;
+        return block;
+    }
+
+    private static void unmap(MappedByteBuffer block) {
+        MAPPED.decrementAndGet();
+        OffHeap.unmap(block);
+    }
+
+    /**
+     * Unmap everything and delete the file now, for a matrix nobody else holds. Safe to call twice.
+     */
+    synchronized void release() {
+        if (released) return;
+        released = true;
+        last = null;
+        for (MappedByteBuffer block : cache.values()) {
+            unmap(block);
+        }
+        cache.clear();
+        cleanup.clean();
+    }
+
+    // what release() and the GC's cleanup both do, kept apart so it doesn't hold the PagedRows.
+    // The GC's leaves the blocks to their own cleaners, see OffHeap.Cleanup
+    private static final class Scratch implements Runnable {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final LinkedHashMap<Integer, MappedByteBuffer> cache;
+
+        Scratch(File file, RandomAccessFile raf, LinkedHashMap<Integer, MappedByteBuffer> cache) {
+            this.file = file;
+            this.raf = raf;
+            this.cache = cache;
+        }
+
+        public void run() {
+            MAPPED.addAndGet(-cache.size());
+            cache.clear();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // deleted below or on exit anyway
+            }
+            file.delete();
+        }
+    }
+
+    // Reductions, a row at a time from the top
+
+    // the caller checks the cells fit an int, see Reductions.sources
+    Reductions.NumericSource all() {
+        return new Source(this, 0, Math.toIntExact((long) rows * cols), 1);
+    }
+
+    Reductions.NumericSource row(int row) {
+        return new Source(this, (long) row * cols, cols, 1);
+    }
+
+    Reductions.NumericSource column(int col) {
+        return new Source(this, col, rows, cols);
+    }
+
+    /**
+     * count cells from start, stride apart. Reductions don't fork these: split up, the
+     * parts would take turns evicting each other's blocks.
+     */
+    static final class Source implements Reductions.NumericSource {
+        private final PagedRows rows;
+        private final long start;
+        private final int count;
+        private final int stride;
+
+        Source(PagedRows rows, long start, int count, int stride) {
+            this.rows = rows;
+            this.start = start;
+            this.count = count;
+            this.stride = stride;
+        }
+
+        public int size() { return count; }
+        public double get(int i) { return rows.getDouble(start + (long) i * stride); }
+    }
+
+    // List, so everything that reads a matrix's rows reads these too
+
+    @Override
+    public List<Value> get(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rows);
+        return new Row(row);
+    }
+
+    /**
+     * Append a row, padded with nulls to cols. The caller checks it fits.
+     */
+    @Override
+    public synchronized boolean add(List<Value> row) {
+        if (row.size() > cols) {
+            throw new IllegalArgumentException("Row of " + row.size() + " is wider than the " + cols + " columns on disk");
+        }
+        MappedByteBuffer block = block(rows / blockRows);
+        for (int c = 0; c < cols; c++) {
+            OffHeap.write(block, offset(rows, c), c < row.size() ? row.get(c) : ANull.INSTANCE);
+        }
+        rows++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    private final class Row extends AbstractList<Value> implements RandomAccess {
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Value get(int col) {
+            if (col < 0 || col >= cols) throw new IndexOutOfBoundsException("Col: " + col + ", cols: " + cols);
+            return PagedRows.this.get(row, col);
+        }
+
+        @Override
+        public Value set(int col, Value v) {
+            if (!OffHeap.fits(v)) throw new IllegalArgumentException("A disk-backed matrix only holds numbers, got: " + v);
+            Value previous = get(col);
+            PagedRows.this.set(row, col, v);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return cols;
+        }
+    }
+}
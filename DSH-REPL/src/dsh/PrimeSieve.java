@@ -0,0 +1,251 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Segmented sieve of Eratosthenes over a mod 30 wheel.
+ * Each byte covers 30 numbers, one bit per residue coprime to 30, so a segment
+ * of SEGMENT_BYTES bytes sieves about 7.8 million numbers in 256 KB.
+ * Segments are sieved in parallel, a window at a time, and handed back in order,
+ * so memory stays bounded by the window no matter how wide the range is.
+ *
+ * @author Ryan Pointer
+ * @version 8/14/25
+ */
+public final class PrimeSieve {
+    public static final long MAX_LIMIT = 1_000_000_000_000L; // 10^12
+
+    private static final int SEGMENT_BYTES = 1 << 18;
+    private static final long SEGMENT_SPAN = 30L * SEGMENT_BYTES;
+
+    // the 8 residues mod 30 that can hold a prime > 5, one per bit
+    private static final int[] WHEEL = {1, 7, 11, 13, 17, 19, 23, 29};
+    private static final long[] OFF_WHEEL = {2, 3, 5};
+    private static final int[] BIT_OF = new int[30];
+    static {
+        java.util.Arrays.fill(BIT_OF, -1);
+        for (int i = 0; i < WHEEL.length; i++) {
+            BIT_OF[WHEEL[i]] = i;
+        }
+    }
+
+    private PrimeSieve() {}
+
+    /**
+     * Number of primes in [lo, hi].
+     */
+    public static long count(long lo, long hi) {
+        final long[] total = {0};
+        for (long p : OFF_WHEEL) {
+            if (p >= lo && p <= hi) total[0]++;
+        }
+        run(lo, hi, true, new SegmentSink() {
+            public void accept(long segLo, byte[] sieve, long from, long to, long segmentCount) {
+                total[0] += segmentCount;
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * Every prime in [lo, hi], ascending, without collecting them anywhere.
+     */
+    public static long forEach(long lo, long hi, final LongConsumer consumer) {
+        final long[] total = {0};
+        for (long p : OFF_WHEEL) {
+            if (p >= lo && p <= hi) {
+                consumer.accept(p);
+                total[0]++;
+            }
+        }
+        run(lo, hi, false, new SegmentSink() {
+            public void accept(long segLo, byte[] sieve, long from, long to, long segmentCount) {
+                total[0] += emit(segLo, sieve, from, to, consumer);
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * Every prime in [lo, hi] as a primitive array.
+     * Fails once more than maxCount primes turn up, so a huge range can't exhaust the heap.
+     */
+    public static long[] list(long lo, long hi, final int maxCount) {
+        final LongArrayList out = new LongArrayList();
+        forEach(lo, hi, new LongConsumer() {
+            public void accept(long p) {
+                if (out.size() >= maxCount) {
+                    throw new IllegalStateException("More than " + maxCount + " primes in range");
+                }
+                out.addLong(p);
+            }
+        });
+        return out.toLongArray();
+    }
+
+    // Driver
+
+    private interface SegmentSink {
+        void accept(long segLo, byte[] sieve, long from, long to, long segmentCount);
+    }
+
+    private static void run(long lo, long hi, final boolean countOnly, SegmentSink sink) {
+        if (lo < 0 || hi > MAX_LIMIT) {
+            throw new IllegalArgumentException("Range must lie within [0, " + MAX_LIMIT + "]");
+        }
+        if (hi < 7 || hi < lo) return;
+
+        final int[] sievingPrimes = smallPrimes((int) NumberTheory.sqrt(java.math.BigInteger.valueOf(hi)).longValue());
+        final long from = Math.max(lo, 7);
+        final long to = hi;
+        long firstSegment = (from / 30) * 30;
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = Math.max(2, pool.getParallelism() * 2);
+
+        long segLo = firstSegment;
+        while (segLo <= to) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Sieve cancelled"); // :cancel on a background job
+            }
+            List<Callable<byte[]>> batch = new ArrayList<>(window);
+            final List<Long> starts = new ArrayList<>(window);
+            for (int i = 0; i < window && segLo <= to; i++, segLo += SEGMENT_SPAN) {
+                final long start = segLo;
+                final int bytes = (int) Math.min(SEGMENT_BYTES, (to - start) / 30 + 1);
+                starts.add(start);
+                batch.add(new Callable<byte[]>() {
+                    public byte[] call() {
+                        return sieveSegment(start, bytes, sievingPrimes);
+                    }
+                });
+            }
+
+            List<Future<byte[]>> done = pool.invokeAll(batch);
+            for (int i = 0; i < done.size(); i++) {
+                byte[] sieve;
+                try {
+                    sieve = done.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Sieve interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Sieve failed: " + e.getCause().getMessage(), e.getCause());
+                }
+                long start = starts.get(i);
+                long segmentCount = countOnly ? countBits(start, sieve, from, to) : 0;
+                sink.accept(start, sieve, from, to, segmentCount);
+            }
+        }
+    }
+
+    // Sieving
+
+    static byte[] sieveSegment(long segLo, int bytes, int[] sievingPrimes) {
+        byte[] sieve = new byte[bytes];
+        java.util.Arrays.fill(sieve, (byte) 0xFF);
+        long segHi = segLo + 30L * bytes; // exclusive
+        if (segLo == 0) {
+            sieve[0] &= ~1; // 1 is not prime
+        }
+
+        for (int p : sievingPrimes) {
+            if (p < 7) continue;
+            long pp = (long) p * p;
+            if (pp >= segHi) break;
+
+            // smallest multiplier whose multiple is both >= p^2 and inside the segment
+            long m0 = Math.max(p, (segLo + p - 1) / p);
+            int m0Mod = (int) (m0 % 30);
+            for (int k = 0; k < WHEEL.length; k++) {
+                int step = WHEEL[k] - m0Mod;
+                if (step < 0) step += 30;
+                long m = m0 + step;
+                long v = p * m;
+                if (v >= segHi) continue;
+                int bit = BIT_OF[(int) (v % 30)];
+                int mask = ~(1 << bit);
+                // multiplier + 30 moves the multiple by 30p, i.e. p bytes, same bit
+                for (long idx = (v - segLo) / 30; idx < bytes; idx += p) {
+                    sieve[(int) idx] &= mask;
+                }
+            }
+        }
+        return sieve;
+    }
+
+    private static long countBits(long segLo, byte[] sieve, long from, long to) {
+        long count = 0;
+        int first = 0;
+        int last = sieve.length - 1;
+        // edges are checked bit by bit, the middle with bitCount
+        if (segLo < from || segLo + 30L * sieve.length - 1 > to) {
+            while (first <= last && segLo + 30L * first < from) {
+                count += countByte(segLo, sieve, first, from, to);
+                first++;
+            }
+            while (last >= first && segLo + 30L * last + 29 > to) {
+                count += countByte(segLo, sieve, last, from, to);
+                last--;
+            }
+        }
+        for (int i = first; i <= last; i++) {
+            count += Integer.bitCount(sieve[i] & 0xFF);
+        }
+        return count;
+    }
+
+    private static int countByte(long segLo, byte[] sieve, int i, long from, long to) {
+        int count = 0;
+        int b = sieve[i] & 0xFF;
+        for (int bit = 0; bit < 8; bit++) {
+            if ((b & (1 << bit)) == 0) continue;
+            long n = segLo + 30L * i + WHEEL[bit];
+            if (n >= from && n <= to) count++;
+        }
+        return count;
+    }
+
+    private static long emit(long segLo, byte[] sieve, long from, long to, LongConsumer consumer) {
+        long count = 0;
+        for (int i = 0; i < sieve.length; i++) {
+            int b = sieve[i] & 0xFF;
+            while (b != 0) {
+                int bit = Integer.numberOfTrailingZeros(b);
+                b &= b - 1;
+                long n = segLo + 30L * i + WHEEL[bit];
+                if (n >= from && n <= to) {
+                    consumer.accept(n);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // plain sieve for the primes up to sqrt(hi), at most 10^6 here
+    static int[] smallPrimes(int limit) {
+        if (limit < 2) return new int[0];
+        boolean[] composite = new boolean[limit + 1];
+        int count = 0;
+        for (int i = 2; i <= limit; i++) {
+            if (composite[i]) continue;
+            count++;
+            for (long j = (long) i * i; j <= limit; j += i) {
+                composite[(int) j] = true;
+            }
+        }
+        int[] primes = new int[count];
+        int k = 0;
+        for (int i = 2; i <= limit; i++) {
+            if (!composite[i]) primes[k++] = i;
+        }
+        return primes;
+    }
+}
@@ -0,0 +1,219 @@
+package dsh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * What backs :time and :profile.
+ * time() runs a line over and over and reports the spread. A Profiler instance is handed
+ * to the dispatcher for one :profile run and splits the macro's cost by line and by token type.
+ * Token types get self time (a command's time doesn't include the variables it was given),
+ * so the rows add up to the total instead of counting nested work twice.
+ *
+ * @author Ryan Pointer
+ * @version 8/25/25
+ */
+final class Profiler {
+    private static final Token.TokenType[] TYPES = Token.TokenType.values();
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long AUTO_NANOS = 2_000_000_000L; // :time without a count stops around here
+
+    private final Macro macro;
+    private final long[] lineNanos;
+    private final long[] lineBytes;
+    private final long[] typeNanos = new long[TYPES.length];
+    private final long[] typeBytes = new long[TYPES.length];
+    private final long[] typeCalls = new long[TYPES.length];
+
+    // open token spans, innermost last
+    private long[] spanStart = new long[16];
+    private long[] spanBytes = new long[16];
+    private long[] childNanos = new long[16];
+    private long[] childBytes = new long[16];
+    private int depth;
+
+    private int macroDepth;
+    private long lineStart;
+    private long lineStartBytes;
+    private int runs;
+
+    Profiler(Macro macro) {
+        this.macro = macro;
+        this.lineNanos = new long[macro.getLineCount()];
+        this.lineBytes = new long[macro.getLineCount()];
+    }
+
+    // Recording, called by TokenDispatcher
+
+    void enter() {
+        if (depth == spanStart.length) {
+            spanStart = Arrays.copyOf(spanStart, depth * 2);
+            spanBytes = Arrays.copyOf(spanBytes, depth * 2);
+            childNanos = Arrays.copyOf(childNanos, depth * 2);
+            childBytes = Arrays.copyOf(childBytes, depth * 2);
+        }
+        childNanos[depth] = 0;
+        childBytes[depth] = 0;
+        spanBytes[depth] = bytes();
+        spanStart[depth] = System.nanoTime();
+        depth++;
+    }
+
+    void exit(Token.TokenType type) {
+        long elapsed = System.nanoTime() - spanStart[--depth];
+        long allocated = bytes() - spanBytes[depth];
+        typeNanos[type.ordinal()] += elapsed - childNanos[depth];
+        typeBytes[type.ordinal()] += allocated - childBytes[depth];
+        typeCalls[type.ordinal()]++;
+        if (depth > 0) {
+            childNanos[depth - 1] += elapsed;
+            childBytes[depth - 1] += allocated;
+        }
+    }
+
+    // true for the outermost run of the profiled macro
+    boolean enterMacro() {
+        return ++macroDepth == 1;
+    }
+
+    void exitMacro() {
+        if (--macroDepth == 0) runs++;
+    }
+
+    void lineStart() {
+        lineStartBytes = bytes();
+        lineStart = System.nanoTime();
+    }
+
+    void lineEnd(int line) {
+        long elapsed = System.nanoTime() - lineStart;
+        if (line < lineNanos.length) {
+            lineNanos[line] += elapsed;
+            lineBytes[line] += bytes() - lineStartBytes;
+        }
+    }
+
+    private static long bytes() {
+        return Math.max(0, Metrics.threadAllocatedBytes());
+    }
+
+    // Reports
+
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (long n : lineNanos) total += n;
+        int shown = Math.max(1, runs);
+        boolean allocation = Metrics.threadAllocatedBytes() >= 0;
+
+        sb.append(String.format(Locale.ROOT, ";%s, %d line(s), %d run(s), %s per run%n",
+            macro.getName(), lineNanos.length, runs, duration((double) total / shown)));
+        sb.append(String.format("%5s %12s %6s %14s  %s%n", "line", "time/run", "%", "alloc B/run", "source"));
+        List<String> source = macro.getRawLines();
+        for (int i = 0; i < lineNanos.length; i++) {
+            sb.append(String.format(Locale.ROOT, "%5d %12s %5.1f%% %14s  %s%n",
+                i + 1, duration((double) lineNanos[i] / shown), percent(lineNanos[i], total),
+                allocation ? String.format("%,d", lineBytes[i] / shown) : "n/a", source.get(i)));
+        }
+
+        long typeTotal = 0;
+        for (long n : typeNanos) typeTotal += n;
+        sb.append(String.format("%nBy token type (self time):%n"));
+        sb.append(String.format("%-14s %10s %12s %6s %14s%n", "", "calls/run", "time/run", "%", "alloc B/run"));
+        for (int t = 0; t < TYPES.length; t++) {
+            if (typeCalls[t] == 0) continue;
+            sb.append(String.format(Locale.ROOT, "%-14s %10d %12s %5.1f%% %14s%n",
+                TYPES[t], typeCalls[t] / shown, duration((double) typeNanos[t] / shown),
+                percent(typeNanos[t], typeTotal),
+                allocation ? String.format("%,d", typeBytes[t] / shown) : "n/a"));
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    static String duration(double nanos) {
+        if (nanos < 1e3) return String.format(Locale.ROOT, "%.0f ns", nanos);
+        if (nanos < 1e6) return String.format(Locale.ROOT, "%.2f us", nanos / 1e3);
+        if (nanos < 1e9) return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+    }
+
+    // :time
+
+    /**
+     * Run line until it is warm (runs times or a second, whichever is first), then runs more times.
+     * runs <= 0 picks a count: up to 1000, stopping after about two seconds.
+     * Stops early and hands back the error if a run fails.
+     */
+    static Timing time(Supplier<Result<Value>> line, int runs) {
+        boolean auto = runs <= 0;
+        int target = auto ? 1000 : runs;
+
+        int warmup = 0;
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (warmup < target && System.nanoTime() < warmupEnd) {
+            Result<Value> result = line.get();
+            warmup++;
+            if (result.isError()) return new Timing(result, warmup);
+        }
+
+        Timing timing = new Timing(null, warmup);
+        long bytes0 = Metrics.threadAllocatedBytes();
+        long started = System.nanoTime();
+        for (int i = 0; i < target; i++) {
+            long t0 = System.nanoTime();
+            Result<Value> result = line.get();
+            long t1 = System.nanoTime();
+            if (result.isError()) return new Timing(result, warmup);
+            timing.add(t1 - t0);
+            timing.last = result.getValue();
+            if (auto && i >= 2 && t1 - started > AUTO_NANOS) break;
+        }
+        if (bytes0 >= 0) {
+            timing.bytesPerRun = (Metrics.threadAllocatedBytes() - bytes0) / timing.runs;
+        }
+        return timing;
+    }
+
+    static final class Timing {
+        final Result<Value> error;
+        final int warmup;
+        int runs;
+        double mean;
+        double m2; // Welford's running sum of squares
+        long min = Long.MAX_VALUE;
+        long max;
+        long bytesPerRun = -1;
+        Value last;
+
+        Timing(Result<Value> error, int warmup) {
+            this.error = error;
+            this.warmup = warmup;
+        }
+
+        void add(long nanos) {
+            runs++;
+            double delta = nanos - mean;
+            mean += delta / runs;
+            m2 += delta * (nanos - mean);
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        double stddev() {
+            return runs < 2 ? 0 : Math.sqrt(m2 / (runs - 1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d runs (%d warmup): mean %s, stddev %s, min %s, max %s, %s allocated per run",
+                runs, warmup, duration(mean), duration(stddev()), duration(min), duration(max),
+                bytesPerRun < 0 ? "n/a" : String.format("%,d B", bytesPerRun));
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package dsh;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Single pass reductions (sum, mean, min, max, variance, histogram) over lists and matrices.
+ * Sums use Kahan compensation and the moments use Welford's update, so a long column of
+ * small numbers doesn't drift the way a naive loop would.
+ * Large inputs are split into a tree of fork/join tasks whose partials are merged pairwise.
+ * Whole numbers in primitive storage skip all that and go through Kernels.
+ * Disk-backed matrices are never split, they are read top to bottom a block at a time.
+ *
+ * @author Ryan Pointer
+ * @version 8/4/25
+ */
+public final class Reductions {
+    // below this many elements a task just runs the loop itself
+    static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private Reductions() {}
+
+    /**
+     * Read only, index based view over numeric data.
+     * Implementations read straight out of their backing storage, so no Value is built per element.
+     */
+    interface NumericSource {
+        int size();
+        double get(int i); // NaN means missing, and is skipped by the reductions
+    }
+
+    /**
+     * Running summary of everything the reductions need, mergeable so partials can be combined.
+     */
+    static final class Summary {
+        long count;
+        double sum;
+        double compensation; // Kahan's lost low order bits
+        double mean;
+        double m2;           // sum of squared distances from the mean (Welford)
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        void accept(double x) {
+            if (Double.isNaN(x)) return; // missing
+
+            count++;
+
+            double y = x - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+
+            if (x < min) min = x;
+            if (x > max) max = x;
+        }
+
+        // Chan et al. pairwise combination, so the tree reduction stays stable
+        void merge(Summary other) {
+            if (other.count == 0) return;
+            if (count == 0) {
+                count = other.count;
+                sum = other.sum;
+                compensation = other.compensation;
+                mean = other.mean;
+                m2 = other.m2;
+                min = other.min;
+                max = other.max;
+                return;
+            }
+
+            long n = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+
+            // fold the other side's sum in as one more compensated term
+            double y = (other.sum - other.compensation) - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+
+            count = n;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        double variance() {
+            return count > 1 ? m2 / (count - 1) : 0.0; // sample variance
+        }
+    }
+
+    /**
+     * Summarise a whole source, forking when it is large.
+     */
+    static Summary summarize(NumericSource source) {
+        if (source instanceof LongSource) {
+            Summary summary = summarizeLongs((LongSource) source);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        if (source.size() < PARALLEL_THRESHOLD || source instanceof PagedRows.Source) {
+            return summarizeRange(source, 0, source.size());
+        }
+        return ForkJoinPool.commonPool().invoke(new SummaryTask(source, 0, source.size()));
+    }
+
+    /**
+     * Whole numbers in a long[] add up exactly, so there is nothing to compensate:
+     * the sum, min and max are one Kernels loop each and the variance a second pass
+     * around the mean. null if the sum overflows a long, the doubles take it from there.
+     */
+    static Summary summarizeLongs(LongSource source) {
+        Summary summary = new Summary();
+        int n = source.size;
+        if (n == 0) {
+            return summary;
+        }
+        Kernels kernels = Kernels.get();
+        long sum;
+        try {
+            sum = kernels.sum(source.data, n);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        summary.count = n;
+        summary.sum = sum;
+        summary.compensation = -(double) (sum - (long) summary.sum); // what the double lost, negated like Kahan's
+        summary.mean = (double) sum / n;
+        summary.m2 = kernels.squaredDeviations(source.data, n, summary.mean);
+        summary.min = kernels.min(source.data, n);
+        summary.max = kernels.max(source.data, n);
+        return summary;
+    }
+
+    static Summary summarizeRange(NumericSource source, int from, int to) {
+        if (source instanceof OffHeap.Source) { // one read lock for the range, not one per cell
+            OffHeap.Source cells = (OffHeap.Source) source;
+            return cells.reading(() -> summarizeRange(cells.unlocked(), from, to));
+        }
+        Summary summary = new Summary();
+        for (int i = from; i < to; i++) {
+            summary.accept(source.get(i));
+        }
+        return summary;
+    }
+
+    private static final class SummaryTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+        private final NumericSource source;
+        private final int from;
+        private final int to;
+
+        SummaryTask(NumericSource source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return summarizeRange(source, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            SummaryTask left = new SummaryTask(source, from, mid);
+            left.fork();
+            Summary right = new SummaryTask(source, mid, to).compute();
+            Summary result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+
+    /**
+     * Count values into equal width bins between the summary's min and max.
+     */
+    static long[] histogram(NumericSource source, Summary summary, int bins) {
+        if (source.size() < PARALLEL_THRESHOLD || source instanceof PagedRows.Source) {
+            return histogramRange(source, 0, source.size(), summary.min, summary.max, bins);
+        }
+        return ForkJoinPool.commonPool().invoke(
+            new HistogramTask(source, 0, source.size(), summary.min, summary.max, bins));
+    }
+
+    static long[] histogramRange(NumericSource source, int from, int to, double min, double max, int bins) {
+        if (source instanceof OffHeap.Source) {
+            OffHeap.Source cells = (OffHeap.Source) source;
+            return cells.reading(() -> histogramRange(cells.unlocked(), from, to, min, max, bins));
+        }
+        long[] counts = new long[bins];
+        double width = (max - min) / bins;
+        for (int i = from; i < to; i++) {
+            double x = source.get(i);
+            if (Double.isNaN(x)) continue;
+            int bin = width == 0 ? 0 : (int) ((x - min) / width);
+            if (bin >= bins) bin = bins - 1; // max lands in the last bin
+            counts[bin]++;
+        }
+        return counts;
+    }
+
+    private static final class HistogramTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final NumericSource source;
+        private final int from;
+        private final int to;
+        private final double min;
+        private final double max;
+        private final int bins;
+
+        HistogramTask(NumericSource source, int from, int to, double min, double max, int bins) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.min = min;
+            this.max = max;
+            this.bins = bins;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return histogramRange(source, from, to, min, max, bins);
+            }
+            int mid = (from + to) >>> 1;
+            HistogramTask left = new HistogramTask(source, from, mid, min, max, bins);
+            left.fork();
+            long[] right = new HistogramTask(source, mid, to, min, max, bins).compute();
+            long[] result = left.join();
+            for (int i = 0; i < bins; i++) {
+                result[i] += right[i];
+            }
+            return result;
+        }
+    }
+
+    // Sources over the existing Value storage
+
+    static double toDouble(Value v) {
+        if (v instanceof ANumber) {
+            return ((ANumber) v).getValue().doubleValue();
+        }
+        if (v instanceof ABoolean) {
+            return ((ABoolean) v).getValue() ? 1.0 : 0.0;
+        }
+        if (v == null || v instanceof ANull) {
+            return Double.NaN;
+        }
+        if (v instanceof AString) {
+            try {
+                return Double.parseDouble(v.toString().trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    static NumericSource of(final List<? extends Value> values) {
+        return new NumericSource() {
+            public int size() { return values.size(); }
+            public double get(int i) { return toDouble(values.get(i)); }
+        };
+    }
+
+    // primitive storage, read straight from the array
+    static NumericSource of(LongArrayList values) {
+        return new LongSource(values.rawArray(), values.size());
+    }
+    
+    // a long[] the reductions hand to Kernels whole (see summarizeLongs)
+    static final class LongSource implements NumericSource {
+        final long[] data;
+        final int size;
+        
+        LongSource(long[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+        
+        public int size() { return size; }
+        public double get(int i) { return data[i]; }
+    }
+
+    // whole matrix, row major
+    static NumericSource of(final List<List<Value>> matrix, final int cols) {
+        return new NumericSource() {
+            public int size() { return matrix.size() * cols; }
+            public double get(int i) { return toDouble(matrix.get(i / cols).get(i % cols)); }
+        };
+    }
+
+    static NumericSource column(final List<List<Value>> matrix, final int col) {
+        return new NumericSource() {
+            public int size() { return matrix.size(); }
+            public double get(int i) { return toDouble(matrix.get(i).get(col)); }
+        };
+    }
+
+    /**
+     * Resolve a list or matrix argument into the sources to reduce.
+     * axis < 0 reduces everything, axis 0 reduces each column, axis 1 reduces each row.
+     */
+    static Result<List<NumericSource>> sources(Value value, int axis) {
+        List<NumericSource> sources = new ArrayList<>();
+        if (value instanceof AList) {
+            if (axis > 0) {
+                return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Lists only have axis 0");
+            }
+            @SuppressWarnings("unchecked")
+            List<Value> list = (List<Value>) value.getValue();
+            if (list instanceof LongArrayList) {
+                sources.add(of((LongArrayList) list));
+            } else if (list instanceof OffHeap.Cells) {
+                sources.add(((OffHeap.Cells) list).source());
+            } else {
+                sources.add(of(list));
+            }
+            return Result.ok(sources);
+        }
+        if (value instanceof AMatrix) {
+            AMatrix matrix = (AMatrix) value;
+            long cells = (long) matrix.getRows() * matrix.getCols();
+            if (axis < 0 && cells > Integer.MAX_VALUE) {
+                return Result.error(Result.ErrorType.INVALID_ARGUMENT,
+                    cells + " cells are too many to reduce at once, reduce by axis 0 or 1");
+            }
+            @SuppressWarnings("unchecked")
+            List<List<Value>> rows = (List<List<Value>>) matrix.getValue();
+            if (rows instanceof OffHeap.Rows) {
+                return offHeap((OffHeap.Rows) rows, axis);
+            }
+            if (rows instanceof PagedRows) {
+                return paged((PagedRows) rows, axis);
+            }
+            if (axis < 0) {
+                sources.add(of(rows, matrix.getCols()));
+            } else if (axis == 0) {
+                for (int c = 0; c < matrix.getCols(); c++) {
+                    sources.add(column(rows, c));
+                }
+            } else if (axis == 1) {
+                for (List<Value> row : rows) {
+                    sources.add(of(row));
+                }
+            } else {
+                return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Axis must be 0 (columns) or 1 (rows)");
+            }
+            return Result.ok(sources);
+        }
+        return Result.error(Result.ErrorType.TYPE_CONVERSION, "Expected a list or matrix, got " + value.type());
+    }
+
+    // same as sources(), straight out of the buffers
+    private static Result<List<NumericSource>> offHeap(OffHeap.Rows rows, int axis) {
+        List<NumericSource> sources = new ArrayList<>();
+        if (axis < 0) {
+            sources.add(rows.all());
+        } else if (axis == 0) {
+            for (int c = 0; c < rows.cols(); c++) {
+                sources.add(rows.column(c));
+            }
+        } else if (axis == 1) {
+            for (int r = 0; r < rows.size(); r++) {
+                sources.add(rows.row(r));
+            }
+        } else {
+            return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Axis must be 0 (columns) or 1 (rows)");
+        }
+        return Result.ok(sources);
+    }
+
+    // a column per source still reads the rows in order, each block is mapped once per column
+    private static Result<List<NumericSource>> paged(PagedRows rows, int axis) {
+        List<NumericSource> sources = new ArrayList<>();
+        if (axis < 0) {
+            sources.add(rows.all());
+        } else if (axis == 0) {
+            for (int c = 0; c < rows.cols(); c++) {
+                sources.add(rows.column(c));
+            }
+        } else if (axis == 1) {
+            for (int r = 0; r < rows.size(); r++) {
+                sources.add(rows.row(r));
+            }
+        } else {
+            return Result.error(Result.ErrorType.INVALID_ARGUMENT, "Axis must be 0 (columns) or 1 (rows)");
+        }
+        return Result.ok(sources);
+    }
+
+    static Value toNumber(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return ANull.INSTANCE;
+        }
+        return ANumber.of(BigDecimal.valueOf(d));
+    }
+}
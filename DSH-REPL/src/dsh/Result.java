@@ -62,7 +62,7 @@ public abstract class Result<T> {
                 return Result.error(ErrorType.RUNTIME, "Error in map operation: " + e.getMessage(), e);
             }
         } else {
-            return Result.error(getErrorType(), getErrorMessage(), getCause());
+            return propagate();
         }
     }
     
@@ -82,10 +82,16 @@ public abstract class Result<T> {
                 return Result.error(ErrorType.RUNTIME, "Error in flatMap operation: " + e.getMessage(), e);
             }
         } else {
-            return Result.error(getErrorType(), getErrorMessage(), getCause());
+            return propagate();
         }
     }
     
+    // a Failure holds no T, so it can be handed on as-is instead of rebuilt at every level
+    @SuppressWarnings("unchecked")
+    private <U> Result<U> propagate() {
+        return (Result<U>) this;
+    }
+    
     public Result<T> filter(Function<T, Boolean> predicate, String errorMessage) {
         if (isOk()) {
             try {
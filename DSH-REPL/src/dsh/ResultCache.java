@@ -0,0 +1,265 @@
+package dsh;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded memo table for pure command results, keyed by command name and argument values.
+ * Entries are weighed in (rough) bytes rather than counted, so one 10^6! can't sneak
+ * a few megabytes past a limit meant for small numbers.
+ * Eviction is LRU, with a TinyLFU style admission check: when the cache is full a new
+ * result only pushes out the oldest one if it has been asked for at least as often.
+ * That keeps a macro's hot arguments resident while a one off huge call streams past.
+ * Lists are mutable, so they are stored as a snapshot and every hit gets its own copy.
+ *
+ * @author Ryan Pointer
+ * @version 8/17/25
+ */
+final class ResultCache {
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    // arguments past this size aren't worth hashing and comparing on every call
+    private static final int MAX_KEY_BITS = 4096;
+    // fixed per entry guess for the map node, key and Value wrappers
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final FrequencySketch sketch = new FrequencySketch();
+    private long maxBytes;
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    ResultCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Key for a call, or null if an argument can't be part of one (lists, matrices, huge numbers).
+     */
+    static Key keyFor(String command, Value... args) {
+        Object[] parts = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Value arg = args[i];
+            switch (arg.kind()) {
+                case NUMBER:
+                    BigDecimal d = ((ANumber) arg).getValue();
+                    if (d.unscaledValue().bitLength() > MAX_KEY_BITS) return null;
+                    parts[i] = d.signum() == 0 ? BigDecimal.ZERO : d.stripTrailingZeros(); // 5 and 5.0 share a slot
+                    break;
+                case STRING:
+                    if (arg.toString().length() > MAX_KEY_BITS / 8) return null;
+                    parts[i] = arg.toString();
+                    break;
+                case BOOLEAN:
+                case NULL:
+                case UNKNOWN:
+                    parts[i] = arg.kind().name() + ":" + arg;
+                    break;
+                default:
+                    return null; // collections are mutable and expensive to hash
+            }
+        }
+        return new Key(command, parts);
+    }
+
+    synchronized Value get(Key key) {
+        sketch.increment(key.hash);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value instanceof AList ? copy((AList<?>) entry.value) : entry.value;
+    }
+
+    synchronized void put(Key key, Value value) {
+        long weight = weigh(value);
+        if (weight < 0) return; // not shareable
+        weight += ENTRY_OVERHEAD + key.weight();
+        if (weight > maxBytes / 8) {
+            rejections++;
+            return;
+        }
+
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+
+        int frequency = sketch.frequency(key.hash);
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes + weight > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> victim = eldest.next();
+            if (frequency < sketch.frequency(victim.getKey().hash)) {
+                rejections++;
+                return;
+            }
+            bytes -= victim.getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+        entries.put(key, new Entry(value instanceof AList ? copy((AList<?>) value) : value, weight));
+        bytes += weight;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized void resetStats() {
+        hits = misses = evictions = rejections = 0;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > this.maxBytes && it.hasNext()) {
+            bytes -= it.next().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized long getMaxBytes() { return maxBytes; }
+    synchronized long getBytes() { return bytes; }
+    synchronized int size() { return entries.size(); }
+    synchronized long getHits() { return hits; }
+    synchronized long getMisses() { return misses; }
+    synchronized long getEvictions() { return evictions; }
+    synchronized long getRejections() { return rejections; }
+
+    // approximate retained size, or -1 for what is not cached (matrices, nested lists)
+    static long weigh(Value value) {
+        if (value == null) return -1;
+        switch (value.kind()) {
+            case NUMBER:
+                return 48 + ((ANumber) value).getValue().unscaledValue().bitLength() / 8;
+            case STRING:
+                return 48 + 2L * value.toString().length();
+            case BOOLEAN:
+            case NULL:
+            case UNKNOWN:
+                return 0; // shared instances
+            case LIST:
+                List<?> elements = (List<?>) value.getValue();
+                if (elements instanceof LongArrayList) {
+                    return 48 + 8L * elements.size();
+                }
+                long total = 48 + 8L * elements.size();
+                for (Object element : elements) {
+                    long w = weigh((Value) element);
+                    if (w < 0 || (element instanceof AList)) return -1; // only flat lists of scalars
+                    total += w;
+                }
+                return total;
+            default:
+                return -1;
+        }
+    }
+
+    private static AList<Value> copy(AList<?> list) {
+        Object elements = list.getValue();
+        if (elements instanceof LongArrayList) {
+            return AList.ofLongs(((LongArrayList) elements).toLongArray());
+        }
+        @SuppressWarnings("unchecked")
+        List<Value> values = (List<Value>) elements;
+        return new AList<>(values);
+    }
+
+    static final class Key {
+        private final String command;
+        private final Object[] args;
+        private final int hash;
+
+        Key(String command, Object[] args) {
+            this.command = command;
+            this.args = args;
+            this.hash = 31 * command.hashCode() + Arrays.hashCode(args);
+        }
+
+        long weight() {
+            long w = 16L + 8L * args.length;
+            for (Object arg : args) {
+                w += arg instanceof BigDecimal
+                    ? 32 + ((BigDecimal) arg).unscaledValue().bitLength() / 8
+                    : 40 + 2L * arg.toString().length();
+            }
+            return w;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && command.equals(other.command) && Arrays.equals(args, other.args);
+        }
+    }
+
+    private static final class Entry {
+        final Value value;
+        final long weight;
+
+        Entry(Value value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, 4 rows, halved every SAMPLE increments
+     * so old popularity fades instead of pinning entries forever.
+     */
+    private static final class FrequencySketch {
+        private static final int WIDTH = 1 << 12;
+        private static final int ROWS = 4;
+        private static final int SAMPLE = 10 * WIDTH;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters = new byte[ROWS * WIDTH];
+        private int additions;
+
+        void increment(int hash) {
+            for (int row = 0; row < ROWS; row++) {
+                int i = index(hash, row);
+                if (counters[i] < 15) counters[i]++;
+            }
+            if (++additions >= SAMPLE) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions = 0;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < ROWS; row++) {
+                min = Math.min(min, counters[index(hash, row)]);
+            }
+            return min;
+        }
+
+        private static int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return row * WIDTH + (h & (WIDTH - 1));
+        }
+    }
+}
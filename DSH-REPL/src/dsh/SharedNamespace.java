@@ -0,0 +1,61 @@
+package dsh;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Variables every session can read: big matrices loaded once, constants, lookup tables.
+ * Backed by a ConcurrentHashMap, so lookups never take a lock and publishes only lock their
+ * own bin. Values are frozen on the way in, which is what makes handing the same AList or
+ * AMatrix to many threads safe: nobody can change it after other sessions can see it.
+ *
+ * @author Ryan Pointer
+ * @version 8/22/25
+ */
+public class SharedNamespace {
+    private final ConcurrentHashMap<String, Value> values = new ConcurrentHashMap<>();
+
+    public Value get(String name) {
+        return values.get(name); // null when not shared
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * Freeze value in place and make it visible to every session. Replaces any earlier value.
+     */
+    public Value publish(String name, Value value) {
+        Value frozen = freeze(value);
+        values.put(name, frozen);
+        return frozen;
+    }
+
+    public boolean remove(String name) {
+        return values.remove(name) != null;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    // sorted snapshot, for listings
+    public Map<String, Value> snapshot() {
+        return new TreeMap<>(values);
+    }
+
+    static Value freeze(Value value) {
+        if (value instanceof AList) {
+            return ((AList<?>) value).freeze();
+        }
+        if (value instanceof AMatrix) {
+            return ((AMatrix) value).freeze();
+        }
+        if (value instanceof AJob) {
+            throw new IllegalArgumentException("Wait for the job before sharing its result");
+        }
+        return value; // numbers, strings, booleans and null are immutable already
+    }
+}
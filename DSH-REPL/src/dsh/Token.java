@@ -10,10 +10,12 @@ public class Token {
     public enum TokenType {
         EXPRESSION,    // #
         COMMAND,       // :
+        ASYNC_COMMAND, // &: runs the command as a background job
         MACRO,         // ;
         ASSIGNMENT,    // =
         VARIABLE,      // identifiers like x, myVar, _test
-        LITERAL        // "1", 1, "hello", true, etc.
+        LITERAL,       // "1", 1, "hello", true, etc.
+        KEYWORD        // if, else, while, for, break, continue, return (macro control flow)
     }
     
     private final TokenType type;
@@ -88,6 +90,10 @@ public class Token {
         return type == TokenType.VARIABLE;
     }
     
+    public boolean isKeyword() {
+        return type == TokenType.KEYWORD;
+    }
+    
     public boolean isLiteral() {
         return type == TokenType.LITERAL;
     }
@@ -95,19 +101,19 @@ public class Token {
     // Helper method to determine if a literal is numeric
     public boolean isNumericLiteral() {
         if (!isLiteral()) return false;
-        return literalValue != null && literalValue.type().equals("number");
+        return literalValue != null && literalValue.kind() == Value.Kind.NUMBER;
     }
     
     // Helper method to determine if a literal is a string (quoted)
     public boolean isStringLiteral() {
         if (!isLiteral()) return false;
-        return literalValue != null && literalValue.type().equals("string");
+        return literalValue != null && literalValue.kind() == Value.Kind.STRING;
     }
     
     // Helper method to determine if a literal is a boolean
     public boolean isBooleanLiteral() {
         if (!isLiteral()) return false;
-        return literalValue != null && literalValue.type().equals("boolean");
+        return literalValue != null && literalValue.kind() == Value.Kind.BOOLEAN;
     }
     
     // Get the actual string content without quotes (legacy method)
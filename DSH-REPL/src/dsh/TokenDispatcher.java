@@ -14,11 +14,25 @@ public class TokenDispatcher {
     private final Environment environment;
     private final MacroRegistry macroRegistry;
     private final CommandRegistry commandRegistry;
+    private final FunctionRegistry functions;
+    private final Calculator calculator;
+    private final EvalError evalError = new EvalError(); // reused, expressions fail into this
+    private final JobManager jobs = new JobManager();
+    private Profiler profiler; // only set for the length of a :profile run
+    private int callDepth; // user function calls under way, all functions together
     
     public TokenDispatcher(Environment environment, MacroRegistry macroRegistry, CommandRegistry commandRegistry) {
+        this(environment, macroRegistry, commandRegistry, new FunctionRegistry());
+    }
+    
+    public TokenDispatcher(Environment environment, MacroRegistry macroRegistry, CommandRegistry commandRegistry,
+                           FunctionRegistry functions) {
         this.environment = environment;
         this.macroRegistry = macroRegistry;
         this.commandRegistry = commandRegistry;
+        this.functions = functions;
+        this.calculator = new Calculator(environment);
+        calculator.setDispatcher(this); // so # expressions can call functions
     }
     
     /**
@@ -27,13 +41,34 @@ public class TokenDispatcher {
      * Otherwise: output the evaluated value
      */
     public Result<Value> process(List<Token> tokens) {
+        long t0 = Metrics.PROCESS.start();
+        long a0 = Metrics.allocatedBytes();
+        Result<Value> result = dispatch(tokens);
+        Metrics.PROCESS.stop(t0, a0);
+        return result;
+    }
+    
+    private Result<Value> dispatch(List<Token> tokens) {
         if (tokens.isEmpty()) {
             return Result.error(Result.ErrorType.SYNTAX, "No tokens to process");
         }
         
+        if (tokens.get(0).isKeyword()) {
+            return Result.error(Result.ErrorType.SYNTAX,
+                "'" + tokens.get(0).getValue() + "' only works inside a macro (see :macro)");
+        }
+        
         // Check for assignment pattern: variable = value
         if (tokens.size() >= 3 && hasAssignmentPattern(tokens)) {
-            return handleAssignment(tokens);
+            if (profiler == null) {
+                return handleAssignment(tokens);
+            }
+            profiler.enter();
+            try {
+                return handleAssignment(tokens);
+            } finally {
+                profiler.exit(Token.TokenType.ASSIGNMENT);
+            }
         } else {
             // No assignment, evaluate and output
             return handleOutput(tokens);
@@ -56,6 +91,13 @@ public class TokenDispatcher {
                 "Assignment requires a value after '='");
         }
         
+        if (tokens.get(1).getValue().equals(":=")) {
+            return handleDerived(variableToken.getValue(), valueTokens);
+        }
+        if (tokens.get(1).getValue().equals("~=")) {
+            return handleLazy(variableToken.getValue(), valueTokens);
+        }
+        
         // Evaluate the value tokens
         Result<Value> valueResult = evaluateTokens(valueTokens);
         if (valueResult.isError()) {
@@ -64,12 +106,64 @@ public class TokenDispatcher {
         
         // Store in environment
         String variableName = variableToken.getValue();
+        if (valueResult.getValue() instanceof AJob) {
+            ((AJob) valueResult.getValue()).setVariable(variableName);
+        }
         environment.set(variableName, valueResult.getValue());
         
         // Return the assigned value
         return valueResult;
     }
     
+    /**
+     * y := <line>: bind the line rather than its value. It is computed now, so a
+     * line that doesn't work is an error straight away and y is left as it was.
+     */
+    private Result<Value> handleDerived(String variableName, List<Token> valueTokens) {
+        StringBuilder source = new StringBuilder();
+        for (Token token : valueTokens) {
+            if (token.getType() == Token.TokenType.ASYNC_COMMAND) {
+                return Result.error(Result.ErrorType.VALIDATION, 
+                    "A derived variable can't run a background job");
+            }
+            if (source.length() > 0) source.append(' ');
+            source.append(token.getValue());
+        }
+        ADerived derived = new ADerived(source.toString(), valueTokens, this);
+        Result<Value> first = derived.refresh();
+        if (first.isOk()) {
+            environment.set(variableName, derived);
+        }
+        return first;
+    }
+    
+    /**
+     * y ~= #(...): bind the expression with its inputs captured, run on the first read.
+     * Anything else (a command, a macro, an expression calling a function, which could
+     * read or change anything) has nothing to gain from waiting and is assigned as with =.
+     */
+    private Result<Value> handleLazy(String variableName, List<Token> valueTokens) {
+        String[] inputs = ADerived.inputs(valueTokens);
+        if (valueTokens.size() != 1 || valueTokens.get(0).getType() != Token.TokenType.EXPRESSION || inputs == null) {
+            Result<Value> value = evaluateTokens(valueTokens);
+            if (value.isOk()) {
+                environment.set(variableName, value.getValue());
+            }
+            return value;
+        }
+        Result<ALazy> lazy = ALazy.capture(valueTokens.get(0).getValue().substring(1), inputs, calculator, environment);
+        if (lazy.isError()) {
+            return Result.error(lazy.getErrorType(), lazy.getErrorMessage());
+        }
+        environment.set(variableName, lazy.getValue());
+        return Result.ok(lazy.getValue());
+    }
+    
+    // a line without assignment, as a derived variable recomputes it
+    Result<Value> evaluateLine(List<Token> tokens) {
+        return evaluateTokens(tokens);
+    }
+    
     private Result<Value> handleOutput(List<Token> tokens) {
         // Evaluate all tokens and return the result for output
         return evaluateTokens(tokens);
@@ -89,8 +183,17 @@ public class TokenDispatcher {
         }
         
         // Check if the first token is a command - if so, group with parameters
-        if (tokens.get(0).getType() == Token.TokenType.COMMAND) {
-            return handleCommandWithParameters(tokens);
+        Token.TokenType first = tokens.get(0).getType();
+        if (first == Token.TokenType.COMMAND || first == Token.TokenType.ASYNC_COMMAND) {
+            if (profiler == null) {
+                return first == Token.TokenType.COMMAND ? handleCommandWithParameters(tokens) : handleAsyncCommand(tokens);
+            }
+            profiler.enter();
+            try {
+                return first == Token.TokenType.COMMAND ? handleCommandWithParameters(tokens) : handleAsyncCommand(tokens);
+            } finally {
+                profiler.exit(first);
+            }
         }
         
         // For other multi-token scenarios, evaluate the last token
@@ -110,13 +213,14 @@ public class TokenDispatcher {
         String commandName = commandToken.getValue().substring(1);
         
         if (!commandRegistry.hasCommand(commandName)) {
+            if (functions.has(commandName)) {
+                return handleFunction(commandName, parameterTokens);
+            }
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Unknown command: " + commandName);
         }
         
         try {
-            Command command = commandRegistry.getCommand(commandName);
-            
             // Evaluate parameter tokens to get their values
             List<Value> parameters = new ArrayList<>();
             for (Token paramToken : parameterTokens) {
@@ -131,7 +235,7 @@ public class TokenDispatcher {
             
             // Convert list to array and execute command
             Value[] paramArray = parameters.toArray(new Value[0]);
-            Value result = command.execute(environment, paramArray);
+            Value result = commandRegistry.execute(commandName, environment, paramArray);
             return Result.ok(result);
             
         } catch (Exception e) {
@@ -140,7 +244,115 @@ public class TokenDispatcher {
         }
     }
     
+    /**
+     * :name args for a function, when no command has that name
+     */
+    private Result<Value> handleFunction(String name, List<Token> parameterTokens) {
+        Value[] args = new Value[parameterTokens.size()];
+        for (int i = 0; i < args.length; i++) {
+            Result<Value> paramResult = evaluateSingleToken(parameterTokens.get(i));
+            if (paramResult.isError()) {
+                return Result.error(Result.ErrorType.RUNTIME,
+                    String.format("Failed to evaluate parameter for function '%s': %s",
+                        name, paramResult.getErrorMessage()));
+            }
+            args[i] = paramResult.getValue();
+        }
+        return functions.get(name).call(args);
+    }
+    
+    /**
+     * Start a command as a background job. Parameters are evaluated now, on this thread,
+     * so the job never reads variables that may change under it.
+     */
+    private Result<Value> handleAsyncCommand(List<Token> tokens) {
+        final String commandName = tokens.get(0).getValue().substring(1);
+        if (!commandRegistry.hasCommand(commandName)) {
+            return Result.error(Result.ErrorType.RUNTIME, 
+                "Unknown command: " + commandName);
+        }
+        
+        StringBuilder description = new StringBuilder(commandName);
+        List<Value> parameters = new ArrayList<>();
+        for (Token paramToken : tokens.subList(1, tokens.size())) {
+            Result<Value> paramResult = evaluateSingleToken(paramToken);
+            if (paramResult.isError()) {
+                return Result.error(Result.ErrorType.RUNTIME,
+                    String.format("Failed to evaluate parameter for command '%s': %s",
+                        commandName, paramResult.getErrorMessage()));
+            }
+            parameters.add(paramResult.getValue());
+            description.append(' ').append(paramToken.getValue());
+        }
+        
+        final Value[] paramArray = parameters.toArray(new Value[0]);
+        AJob job = jobs.submit(description.toString(), paramArray,
+            () -> commandRegistry.execute(commandName, environment, paramArray));
+        return Result.ok(job);
+    }
+    
+    public JobManager getJobs() {
+        return jobs;
+    }
+    
+    public FunctionRegistry getFunctions() {
+        return functions;
+    }
+    
+    /**
+     * Count a user function call in, false (and nothing counted) when UserFunction.MAX_DEPTH
+     * are already under way. One count for every function, so f calling g calling f is bounded too.
+     */
+    boolean enterCall() {
+        if (callDepth == UserFunction.MAX_DEPTH) {
+            return false;
+        }
+        callDepth++;
+        return true;
+    }
+    
+    void leaveCall() {
+        callDepth--;
+    }
+    
+    Environment getEnvironment() {
+        return environment;
+    }
+    
+    /**
+     * Compile a function with this dispatcher's calculator and add it, replacing one
+     * of the same name. If the body doesn't compile nothing changes.
+     */
+    Result<UserFunction> defineFunction(String name, List<String> params, Macro body) {
+        Result<UserFunction> function = UserFunction.compile(name, params, body, this);
+        if (function.isOk()) {
+            functions.define(function.getValue());
+        }
+        return function;
+    }
+    
+    // compiled by this dispatcher's calculator, the one that knows about functions
+    Result<MacroPlan> plan(Macro macro) {
+        return macro.getPlan(calculator);
+    }
+    
+    void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+    
     private Result<Value> evaluateSingleToken(Token token) {
+        if (profiler == null) {
+            return evaluate(token);
+        }
+        profiler.enter();
+        try {
+            return evaluate(token);
+        } finally {
+            profiler.exit(token.getType());
+        }
+    }
+    
+    private Result<Value> evaluate(Token token) {
         switch (token.getType()) {
             case LITERAL:
                 return handleLiteral(token);
@@ -150,11 +362,16 @@ public class TokenDispatcher {
                 return handleMacro(token);
             case COMMAND:
                 return handleCommand(token);
+            case ASYNC_COMMAND:
+                return handleAsyncCommand(java.util.Collections.singletonList(token));
             case VARIABLE:
                 return handleVariable(token);
             case ASSIGNMENT:
                 return Result.error(Result.ErrorType.SYNTAX, 
                     "Unexpected assignment token");
+            case KEYWORD:
+                return Result.error(Result.ErrorType.SYNTAX, 
+                    "'" + token.getValue() + "' only works inside a macro (see :macro)");
             default:
                 return Result.error(Result.ErrorType.SYNTAX, 
                     "Unknown token type: " + token.getType());
@@ -173,24 +390,30 @@ public class TokenDispatcher {
     
     private Result<Value> handleExpression(Token token) {
         String expression = token.getValue().substring(1);
-        Calculator calc = new Calculator(environment);
-        return calc.evaluate(expression);
+        // the raw path only becomes a Result here, at the boundary
+        evalError.reset();
+        return evalError.wrap(calculator.evaluateRaw(expression, evalError));
     }
     
     private Result<Value> handleMacro(Token token) {
         String macroName = token.getValue().substring(1);
         
-        if (!macroRegistry.has(macroName)) {
+        Macro macro = macroRegistry.get(macroName);
+        if (macro == null) {
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Unknown macro: " + macroName);
         }
         
+        Metrics.Timer timer = macro.getTimer();
+        long t0 = timer.start();
+        long a0 = Metrics.allocatedBytes();
         try {
-            Macro macro = macroRegistry.get(macroName);
             return executeMacro(macro);
         } catch (Exception e) {
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Macro execution failed: " + macroName + " - " + e.getMessage());
+        } finally {
+            timer.stop(t0, a0);
         }
     }
     
@@ -198,35 +421,27 @@ public class TokenDispatcher {
      * Execute a macro by processing each of its tokenized lines
      */
     private Result<Value> executeMacro(Macro macro) {
-        List<List<Token>> tokenLines = macro.getTokenLines();
-        
-        if (tokenLines.isEmpty()) {
+        if (macro.isEmpty()) {
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Macro '" + macro.getName() + "' is empty");
         }
         
-        Value lastResult = null;
-        
-        // Execute each line of the macro
-        for (int lineIndex = 0; lineIndex < tokenLines.size(); lineIndex++) {
-            List<Token> tokens = tokenLines.get(lineIndex);
-            
-            if (tokens.isEmpty()) {
-                continue; // Skip empty lines (from tokenization errors)
-            }
-            
-            Result<Value> lineResult = process(tokens);
-            if (lineResult.isError()) {
-                return Result.error(Result.ErrorType.RUNTIME,
-                    String.format("Macro '%s' failed at line %d: %s",
-                        macro.getName(), lineIndex + 1, lineResult.getErrorMessage()));
-            }
-            
-            lastResult = lineResult.getValue();
+        // compiled once, loops and branches are jumps inside the plan
+        Result<MacroPlan> plan = plan(macro);
+        if (plan.isError()) {
+            return Result.error(Result.ErrorType.SYNTAX,
+                "Macro '" + macro.getName() + "' doesn't compile: " + plan.getErrorMessage());
+        }
+        if (profiler == null) {
+            return plan.getValue().run(this, environment, null, false);
+        }
+        // only the profiled macro's own lines are timed, not those of macros it calls
+        boolean outermost = profiler.enterMacro();
+        try {
+            return plan.getValue().run(this, environment, profiler, outermost);
+        } finally {
+            profiler.exitMacro();
         }
-        
-        // Return the result of the last executed line
-        return Result.ok(lastResult != null ? lastResult : new AString(""));
     }
     
     private Result<Value> handleCommand(Token token) {
@@ -234,13 +449,15 @@ public class TokenDispatcher {
         String commandName = token.getValue().substring(1);
         
         if (!commandRegistry.hasCommand(commandName)) {
+            if (functions.has(commandName)) {
+                return handleFunction(commandName, java.util.Collections.<Token>emptyList());
+            }
             return Result.error(Result.ErrorType.RUNTIME, 
                 "Unknown command: " + commandName);
         }
         
         try {
-            Command command = commandRegistry.getCommand(commandName);
-            Value result = command.execute(environment); // No parameters
+            Value result = commandRegistry.execute(commandName, environment); // No parameters
             return Result.ok(result);
         } catch (Exception e) {
             return Result.error(Result.ErrorType.RUNTIME, 
@@ -32,7 +32,7 @@ public class Tokenizer {
     private static final Pattern SPECIAL_CHARS = 
         Pattern.compile("[#:;=]");
     
-    // Reserved keywords that can't be used as identifiers (in case i add control flow)
+    // Reserved keywords that can't be used as identifiers, they start control flow lines in macros
     private static final List<String> RESERVED_KEYWORDS = 
             Arrays.asList("if", "else", "while", "for", "return", "break", "continue");
     
@@ -49,6 +49,14 @@ public class Tokenizer {
     }
     
     public Result<List<Token>> tokenize() {
+        long t0 = Metrics.TOKENIZE.start();
+        long a0 = Metrics.allocatedBytes();
+        Result<List<Token>> result = scan();
+        Metrics.TOKENIZE.stop(t0, a0);
+        return result;
+    }
+    
+    private Result<List<Token>> scan() {
         while (position < input.length()) {
             skipWhitespace();
             if (position >= input.length()) break;
@@ -61,11 +69,28 @@ public class Tokenizer {
                     if (!tokenizeExpression().isOk()) return getLastError();
                     continue;
                 case ':':
+                    // y := <line>, a derived variable (see ADerived)
+                    if (position + 1 < input.length() && input.charAt(position + 1) == '=') {
+                        tokens.add(new Token(Token.TokenType.ASSIGNMENT, ":=", position, position + 2));
+                        position += 2;
+                        continue;
+                    }
                     if (!tokenizeCommand().isOk()) return getLastError();
                     continue;
+                case '&':
+                    if (!tokenizeAsyncCommand().isOk()) return getLastError();
+                    continue;
                 case ';':
                     if (!tokenizeMacro().isOk()) return getLastError();
                     continue;
+                case '~':
+                    // y ~= #(...), a lazy variable (see ALazy)
+                    if (position + 1 < input.length() && input.charAt(position + 1) == '=') {
+                        tokens.add(new Token(Token.TokenType.ASSIGNMENT, "~=", position, position + 2));
+                        position += 2;
+                        continue;
+                    }
+                    break;
                 case '=':
                     tokens.add(new Token(Token.TokenType.ASSIGNMENT, "=", position, position + 1));
                     position++;
@@ -100,6 +125,23 @@ public class Tokenizer {
         return tokenizePrefixedToken(Token.TokenType.COMMAND, ':');
     }
     
+    // &:command, kept as an ASYNC_COMMAND token holding the ":command" part
+    private Result<Void> tokenizeAsyncCommand() {
+        int startPos = position;
+        if (startPos + 1 >= input.length() || input.charAt(startPos + 1) != ':') {
+            return Result.error(Result.ErrorType.SYNTAX,
+                String.format("Expected a command after '&' at position %d", startPos));
+        }
+        position++;
+        Result<Void> commandResult = tokenizeCommand();
+        if (commandResult.isError()) {
+            return commandResult;
+        }
+        Token command = tokens.remove(tokens.size() - 1);
+        tokens.add(new Token(Token.TokenType.ASYNC_COMMAND, command.getValue(), startPos, command.getEndPos()));
+        return Result.ok(null);
+    }
+    
     private Result<Void> tokenizeMacro() {
         return tokenizePrefixedToken(Token.TokenType.MACRO, ';');
     }
@@ -241,7 +283,7 @@ public class Tokenizer {
         
         try {
             String content = parseStringLiteral(matched);
-            Value stringValue = new AString(content);
+            Value stringValue = AString.of(content);
             
             tokens.add(new Token(Token.TokenType.LITERAL, matched, startPos, endPos, stringValue));
             position = endPos;
@@ -265,7 +307,7 @@ public class Tokenizer {
                         startPos));
             }
             
-            Value numValue = new ANumber(numberValue);
+            Value numValue = ANumber.of(numberValue);
             tokens.add(new Token(Token.TokenType.LITERAL, matched, startPos, endPos, numValue));
             position = endPos;
             return Result.ok(true);
@@ -281,7 +323,7 @@ public class Tokenizer {
         int endPos = position + matched.length();
         
         boolean boolValue = Boolean.parseBoolean(matched);
-        Value booleanValue = new ABoolean(boolValue);
+        Value booleanValue = ABoolean.of(boolValue);
         
         tokens.add(new Token(Token.TokenType.LITERAL, matched, startPos, endPos, booleanValue));
         position = endPos;
@@ -293,7 +335,7 @@ public class Tokenizer {
         int endPos = position + matched.length();
         
         // Create a string value for the filepath
-        Value filepathValue = new AString(matched);
+        Value filepathValue = AString.of(matched);
         tokens.add(new Token(Token.TokenType.LITERAL, matched, startPos, endPos, filepathValue));
         position = endPos;
         return Result.ok(true);
@@ -309,9 +351,17 @@ public class Tokenizer {
             int endPos = position + matched.length();
             
             if (RESERVED_KEYWORDS.contains(matched)) {
-                return Result.error(Result.ErrorType.SYNTAX,
-                    String.format("Reserved keyword '%s' used as identifier at position %d",
-                        matched, startPos));
+                // only a line's opening word (or the if in "else if"), "x = if" is still a mistake
+                boolean opening = tokens.isEmpty()
+                    || (tokens.size() == 1 && tokens.get(0).isKeyword() && tokens.get(0).getValue().equals("else"));
+                if (!opening) {
+                    return Result.error(Result.ErrorType.SYNTAX,
+                        String.format("Reserved keyword '%s' used as identifier at position %d",
+                            matched, startPos));
+                }
+                tokens.add(new Token(Token.TokenType.KEYWORD, matched, startPos, endPos));
+                position = endPos;
+                return Result.ok(true);
             }
             
             tokens.add(new Token(Token.TokenType.VARIABLE, matched, startPos, endPos));
@@ -0,0 +1,238 @@
+package dsh;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A function defined with :fn, called as name(args) inside # or as :name args.
+ * The body is compiled once into a MacroPlan. Parameters and anything the body
+ * assigns are locals, kept in a Frame the Environment puts in front of the
+ * variables for the length of the call, so nothing is copied per call.
+ * Frames and Runs are kept per call depth and reused, which keeps recursion
+ * apart without allocating them again on every call. How deep calls may nest is
+ * counted by the dispatcher, across all functions.
+ *
+ * @author Ryan Pointer
+ * @version 8/27/25
+ */
+final class UserFunction {
+    static final int MAX_DEPTH = 200;
+
+    private final String name;
+    private final String[] params;
+    private final Macro body;
+    private final MacroPlan plan;
+    private final TokenDispatcher dispatcher;
+    private final Environment env;
+    private final String[] locals;    // params first, then what the body assigns
+    private final int[] paramSlots;   // param -> register, -1 if it has none
+    private final boolean selfContained;
+    private final Metrics.Timer timer;
+
+    private final List<Environment.Frame> frames = new ArrayList<>();
+    private final List<MacroPlan.Run> runs = new ArrayList<>();
+    private int depth; // this function's calls under way, indexes frames and runs
+    private boolean pure; // decided by FunctionRegistry
+
+    private UserFunction(String name, String[] params, Macro body, MacroPlan plan,
+                         TokenDispatcher dispatcher, String[] locals) {
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.plan = plan;
+        this.dispatcher = dispatcher;
+        this.env = dispatcher.getEnvironment();
+        this.locals = locals;
+        this.paramSlots = new int[params.length];
+        for (int i = 0; i < params.length; i++) {
+            paramSlots[i] = plan.slot(params[i]);
+        }
+        boolean onlyLocals = true;
+        for (String register : plan.registerNames()) {
+            onlyLocals &= indexOf(locals, register) >= 0;
+        }
+        this.selfContained = plan.isNumeric() && onlyLocals;
+        this.timer = Metrics.timer("function " + name);
+    }
+
+    static Result<UserFunction> compile(String name, List<String> params, Macro body, TokenDispatcher dispatcher) {
+        Set<String> locals = new LinkedHashSet<>(params);
+        if (locals.size() != params.size()) {
+            return Result.error(Result.ErrorType.VALIDATION, "parameter names must differ");
+        }
+        for (List<Token> tokens : body.getTokenLines()) {
+            if (tokens.size() >= 3 && tokens.get(0).isVariable() && tokens.get(1).isAssignment()) {
+                locals.add(tokens.get(0).getValue());
+            } else if (tokens.size() >= 2 && tokens.get(0).isKeyword() && tokens.get(0).getValue().equals("for")) {
+                locals.add(tokens.get(1).getValue());
+            }
+        }
+        Result<MacroPlan> plan = dispatcher.plan(body);
+        if (plan.isError()) {
+            return Result.error(plan.getErrorType(), plan.getErrorMessage());
+        }
+        return Result.ok(new UserFunction(name, params.toArray(new String[0]), body, plan.getValue(),
+            dispatcher, locals.toArray(new String[0])));
+    }
+
+    /**
+     * Call with these arguments and hand back what the body's last line (or return) gave.
+     */
+    Result<Value> call(Value[] args) {
+        if (args.length != params.length) {
+            return Result.error(Result.ErrorType.VALIDATION,
+                String.format("%s takes %d argument(s), got %d", signature(), params.length, args.length));
+        }
+        if (!dispatcher.enterCall()) {
+            return tooDeep();
+        }
+        long t0 = timer.start();
+        long a0 = Metrics.allocatedBytes();
+        try {
+            Environment.Frame frame = frame();
+            MacroPlan.Run run = run();
+            System.arraycopy(args, 0, frame.values, 0, args.length); // params are the first locals
+            for (Value arg : args) {
+                Environment.hold(arg); // let go of with the other locals
+            }
+            execute(frame, run);
+            Result<Value> result = run.result();
+            end(frame, result.isOk() ? result.getValue() : null);
+            return result;
+        } catch (StackOverflowError e) {
+            return Result.error(Result.ErrorType.RUNTIME, name + " ran out of stack, calls nested too deep");
+        } finally {
+            dispatcher.leaveCall();
+            timer.stop(t0, a0);
+        }
+    }
+
+    /**
+     * The long path, from a NumExpr.Call: whole number arguments go straight into
+     * registers and a whole number comes back. Anything else sets r.failed.
+     * Only for pure functions, the caller checks.
+     */
+    long callWhole(long[] args, NumExpr.Registers r) {
+        if (args.length != params.length) {
+            r.failed = true;
+            return 0;
+        }
+        if (!dispatcher.enterCall()) {
+            r.failed = true;
+            r.error = tooDeep();
+            return 0;
+        }
+        long t0 = timer.start();
+        long a0 = Metrics.allocatedBytes();
+        MacroPlan.Run run;
+        try {
+            Environment.Frame frame = frame();
+            run = run();
+            for (int i = 0; i < args.length; i++) {
+                if (paramSlots[i] >= 0) {
+                    run.preset(paramSlots[i], args[i]);
+                } else {
+                    frame.values[i] = ANumber.of(args[i]);
+                }
+            }
+            execute(frame, run);
+            end(frame, null);
+        } catch (StackOverflowError e) {
+            r.failed = true;
+            r.error = Result.error(Result.ErrorType.RUNTIME, name + " ran out of stack, calls nested too deep");
+            return 0;
+        } finally {
+            dispatcher.leaveCall();
+            timer.stop(t0, a0);
+        }
+        if (!run.wholeResult()) {
+            r.failed = true;
+            r.error = run.error; // rerunning it the normal way would only fail the same way again
+            return 0;
+        }
+        return run.lastNumber;
+    }
+
+    private Result<Value> tooDeep() {
+        return Result.error(Result.ErrorType.RUNTIME, name + ": function calls nested more than " + MAX_DEPTH + " deep");
+    }
+
+    // this depth's frame and run, cleared
+    private Environment.Frame frame() {
+        while (frames.size() <= depth) {
+            frames.add(new Environment.Frame(locals));
+        }
+        Environment.Frame frame = frames.get(depth);
+        frame.clear();
+        return frame;
+    }
+
+    private MacroPlan.Run run() {
+        while (runs.size() <= depth) {
+            runs.add(plan.newRun(dispatcher, env));
+        }
+        MacroPlan.Run run = runs.get(depth);
+        run.reset();
+        return run;
+    }
+
+    // registers aren't spilled at the end, every register is a local and the frame goes away
+    private void execute(Environment.Frame frame, MacroPlan.Run run) {
+        depth++;
+        Environment.Frame outer = env.enter(frame);
+        try {
+            run.execute(null, false);
+        } finally {
+            env.leave(outer);
+            depth--;
+        }
+    }
+
+    // the call's locals let go of what they hold, all but result, which goes back to the caller
+    private static void end(Environment.Frame frame, Value result) {
+        Environment.hold(result);
+        for (Value local : frame.values) {
+            Environment.drop(local);
+        }
+        frame.clear();
+        Environment.letGo(result);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // runs on registers alone and reads nothing but its own locals
+    boolean isSelfContained() {
+        return selfContained;
+    }
+
+    Set<String> calls() {
+        return plan.calls();
+    }
+
+    boolean isPure() {
+        return pure;
+    }
+
+    void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String signature() {
+        return name + "(" + String.join(", ", params) + ")";
+    }
+
+    Macro getBody() {
+        return body;
+    }
+}
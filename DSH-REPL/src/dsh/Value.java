@@ -16,30 +16,65 @@ public interface Value {
     Result<Value> asString();
     Result<Value> asBoolean();
     String type();
+    Kind kind();
     String toString();
     Object getValue();
     
+    /**
+     * Type tag for dispatch, so operators compare an enum instead of type() strings.
+     */
+    enum Kind {
+        NUMBER("number"),
+        STRING("string"),
+        BOOLEAN("boolean"),
+        NULL("null"),
+        UNKNOWN("unknown"),
+        LIST("list"),
+        MATRIX("matrix");
+        
+        private final String typeName;
+        
+        Kind(String typeName) {
+            this.typeName = typeName;
+        }
+        
+        public String getTypeName() {
+            return typeName;
+        }
+        
+        public boolean isCollection() {
+            return this == LIST || this == MATRIX;
+        }
+    }
+    
     public default Result<Value> add(Value other) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('+', this, other);
+        }
+        
     	// likely broadcasts
-        if (this.type().equals("list")) {
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.add(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.add(b));
         }
         
-        if (other.type().equals("list")) {
+        if (otherKind == Kind.LIST) {
             // right-side is treated as 0
-            return this.add(new ANumber(BigDecimal.ZERO));
+            return this.add(ANumber.ZERO);
         }
         
-        if (other.type().equals("matrix")) {
+        if (otherKind == Kind.MATRIX) {
             // right-side is treated as 0
-            return this.add(new ANumber(BigDecimal.ZERO));
+            return this.add(ANumber.ZERO);
         }
         
-        if (this.type().equals("string") || other.type().equals("string")) {
+        if (thisKind == Kind.STRING || otherKind == Kind.STRING) {
             return Result.ok(new AString(this.toString() + other.toString()));
         }
         
@@ -48,25 +83,32 @@ public interface Value {
                 .map(right -> { 
                     BigDecimal leftNum = (BigDecimal) left.getValue();
                     BigDecimal rightNum = (BigDecimal) right.getValue();
-                    return new ANumber(leftNum.add(rightNum));
+                    return ANumber.of(leftNum.add(rightNum));
                 }));
     }
     
     public default Result<Value> subtract(Value other) {
-        if (this.type().equals("list")) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('-', this, other);
+        }
+        
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.subtract(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.subtract(b));
         }
         
-        if (other.type().equals("list")) {
-            return this.subtract(new ANumber(BigDecimal.ZERO));
+        if (otherKind == Kind.LIST) {
+            return this.subtract(ANumber.ZERO);
         }
         
-        if (other.type().equals("matrix")) {
-            return this.subtract(new ANumber(BigDecimal.ZERO));
+        if (otherKind == Kind.MATRIX) {
+            return this.subtract(ANumber.ZERO);
         }
         
         return this.asNumber()
@@ -74,25 +116,32 @@ public interface Value {
                 .map(right -> {
                     BigDecimal leftNum = (BigDecimal) left.getValue();
                     BigDecimal rightNum = (BigDecimal) right.getValue();
-                    return new ANumber(leftNum.subtract(rightNum));
+                    return ANumber.of(leftNum.subtract(rightNum));
                 }));
     }
     
     public default Result<Value> multiply(Value other) {
-        if (this.type().equals("list")) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('*', this, other);
+        }
+        
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.multiply(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.multiply(b));
         }
         
-        if (other.type().equals("list")) {
-            return this.multiply(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.LIST) {
+            return this.multiply(ANumber.ONE);
         }
         
-        if (other.type().equals("matrix")) {
-            return this.multiply(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.MATRIX) {
+            return this.multiply(ANumber.ONE);
         }
         
         return this.asNumber()
@@ -100,138 +149,238 @@ public interface Value {
                 .map(right -> {
                     BigDecimal leftNum = (BigDecimal) left.getValue();
                     BigDecimal rightNum = (BigDecimal) right.getValue();
-                    return new ANumber(leftNum.multiply(rightNum));
+                    return ANumber.of(leftNum.multiply(rightNum));
                 }));
     }
     
     public default Result<Value> divide(Value other) {
-        if (this.type().equals("list")) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('/', this, other);
+        }
+        
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.divide(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.divide(b));
         }
         
-        if (other.type().equals("list")) {
+        if (otherKind == Kind.LIST) {
             // one, because dividing by zero is bad
-            return this.divide(new ANumber(BigDecimal.ONE));
+            return this.divide(ANumber.ONE);
         }
         
-        if (other.type().equals("matrix")) {
+        if (otherKind == Kind.MATRIX) {
             // one, because dividing by zero is bad
-            return this.divide(new ANumber(BigDecimal.ONE));
+            return this.divide(ANumber.ONE);
         }
         
         return this.asNumber()
             .flatMap(left -> other.asNumber()
                 .flatMap(right -> {
-                    BigDecimal leftNum = (BigDecimal) left.getValue();
-                    BigDecimal rightNum = (BigDecimal) right.getValue();
-                    
-                    if (rightNum.compareTo(BigDecimal.ZERO) == 0) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "Division by zero");
-                    }
-                    
-                    try {
-                        BigDecimal result = leftNum.divide(rightNum, MathContext.DECIMAL128);
-                        return Result.ok(new ANumber(result));
-                    } catch (ArithmeticException e) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "Division error: " + e.getMessage(), e);
-                    }
+                    EvalError err = new EvalError();
+                    return wrapNumber(divideNumbers(
+                        (BigDecimal) left.getValue(), (BigDecimal) right.getValue(), err), err);
                 }));
     }
     
     public default Result<Value> modulo(Value other) {
-        if (this.type().equals("list")) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('%', this, other);
+        }
+        
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.modulo(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.modulo(b));
         }
         
-        if (other.type().equals("list")) {
-            return this.modulo(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.LIST) {
+            return this.modulo(ANumber.ONE);
         }
         
-        if (other.type().equals("matrix")) {
-            return this.modulo(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.MATRIX) {
+            return this.modulo(ANumber.ONE);
         }
         
         return this.asNumber()
             .flatMap(left -> other.asNumber()
                 .flatMap(right -> {
-                    BigDecimal leftNum = (BigDecimal) left.getValue();
-                    BigDecimal rightNum = (BigDecimal) right.getValue();
-                    
-                    if (rightNum.compareTo(BigDecimal.ZERO) == 0) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "Modulus by zero");
-                    }
-                    
-                    try {
-                        BigDecimal result = leftNum.remainder(rightNum);
-                        return Result.ok(new ANumber(result));
-                    } catch (ArithmeticException e) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "Modulus error: " + e.getMessage(), e);
-                    }
+                    EvalError err = new EvalError();
+                    return wrapNumber(moduloNumbers(
+                        (BigDecimal) left.getValue(), (BigDecimal) right.getValue(), err), err);
                 }));
     }
     
     public default Result<Value> power(Value other) {
-        if (this.type().equals("list")) {
+        Kind thisKind = this.kind();
+        Kind otherKind = other.kind();
+        
+        if (thisKind == Kind.NUMBER && otherKind == Kind.NUMBER) {
+            return numberOperation('^', this, other);
+        }
+        
+        if (thisKind == Kind.LIST) {
             return applyListOperation(this, other, (a, b) -> a.power(b));
         }
         
-        if (this.type().equals("matrix")) {
+        if (thisKind == Kind.MATRIX) {
             return applyMatrixOperation(this, other, (a, b) -> a.power(b));
         }
         
-        if (other.type().equals("list")) {
-            return this.power(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.LIST) {
+            return this.power(ANumber.ONE);
         }
         
-        if (other.type().equals("matrix")) {
-            return this.power(new ANumber(BigDecimal.ONE));
+        if (otherKind == Kind.MATRIX) {
+            return this.power(ANumber.ONE);
         }
         
         return this.asNumber()
             .flatMap(left -> other.asNumber() // fancy nested ifs handled by Result
                 .flatMap(right -> {
-                    BigDecimal base = (BigDecimal) left.getValue();
-                    BigDecimal expo = (BigDecimal) right.getValue();
-                    if (base.compareTo(BigDecimal.ZERO) == 0 && expo.compareTo(BigDecimal.ZERO) == 0) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "0^0 is undefined");
-                    }
-                    try {
-                        BigDecimal result;
-                        if (expo.stripTrailingZeros().scale() <= 0) {
-                            int e = expo.intValueExact();
-                            if (e >= 0) {
-                                result = base.pow(e, MathContext.DECIMAL128);
-                            } else {
-                                result = BigDecimal.ONE
-                                    .divide(base.pow(-e, MathContext.DECIMAL128), MathContext.DECIMAL128);
-                            }
-                        } else {
-                            // if fraction fall back to double precision (duh)
-                            double d = Math.pow(base.doubleValue(), expo.doubleValue());
-                            if (Double.isNaN(d) || Double.isInfinite(d)) {
-                                return Result.error(Result.ErrorType.ARITHMETIC, "Power operation resulted in NaN or Infinity");
-                            }
-                            result = BigDecimal.valueOf(d);
-                        }
-                        return Result.ok(new ANumber(result));
-                    } catch (ArithmeticException | NumberFormatException e) {
-                        return Result.error(Result.ErrorType.ARITHMETIC, "Power operation failed: " + e.getMessage(), e);
-                    }
+                    EvalError err = new EvalError();
+                    return wrapNumber(powerNumbers(
+                        (BigDecimal) left.getValue(), (BigDecimal) right.getValue(), err), err);
                 }));
     }
     
+    /**
+     * Raw binary operation for the allocation free evaluation path.
+     * Two plain numbers are handled right here, with no Result or lambda in between;
+     * anything else (strings, lists, matrices, ...) goes through the Result methods above.
+     * Returns null on failure, with the reason left in err.
+     */
+    static Value applyRaw(char operator, Value left, Value right, EvalError err) {
+        if (left.kind() == Kind.NUMBER && right.kind() == Kind.NUMBER) {
+            BigDecimal l = ((ANumber) left).getValue();
+            BigDecimal r = ((ANumber) right).getValue();
+            BigDecimal result;
+            switch (operator) {
+                case '+': result = l.add(r); break;
+                case '-': result = l.subtract(r); break;
+                case '*': result = l.multiply(r); break;
+                case '/': result = divideNumbers(l, r, err); break;
+                case '%': result = moduloNumbers(l, r, err); break;
+                case '^': result = powerNumbers(l, r, err); break;
+                default: return err.fail(Result.ErrorType.SYNTAX, "Unknown operator '" + operator + "'");
+            }
+            return result != null ? ANumber.of(result) : null;
+        }
+        
+        switch (operator) {
+            case '+': return err.capture(left.add(right));
+            case '-': return err.capture(left.subtract(right));
+            case '*': return err.capture(left.multiply(right));
+            case '/': return err.capture(left.divide(right));
+            case '%': return err.capture(left.modulo(right));
+            case '^': return err.capture(left.power(right));
+            default: return err.fail(Result.ErrorType.SYNTAX, "Unknown operator '" + operator + "'");
+        }
+    }
+    
+    /**
+     * Comparison for the raw path: <, <=, >, >=, == and !=.
+     * Numbers compare by value (so 2 == 2.0), strings and booleans by content,
+     * and == / != work on anything. Ordering anything else is an error.
+     */
+    static Value compareRaw(String operator, Value left, Value right, EvalError err) {
+        int order;
+        if (left.kind() == Kind.NUMBER && right.kind() == Kind.NUMBER) {
+            order = ((ANumber) left).getValue().compareTo(((ANumber) right).getValue());
+        } else if (left.kind() == Kind.STRING && right.kind() == Kind.STRING) {
+            order = left.toString().compareTo(right.toString());
+        } else if (operator.equals("==") || operator.equals("!=")) {
+            boolean same = left.kind() == right.kind() && java.util.Objects.equals(left.getValue(), right.getValue());
+            return ABoolean.of(same == operator.equals("=="));
+        } else {
+            return err.fail(Result.ErrorType.RUNTIME,
+                "Cannot compare " + left.kind().getTypeName() + " with " + right.kind().getTypeName() + " using " + operator);
+        }
+        switch (operator) {
+            case "<":  return ABoolean.of(order < 0);
+            case "<=": return ABoolean.of(order <= 0);
+            case ">":  return ABoolean.of(order > 0);
+            case ">=": return ABoolean.of(order >= 0);
+            case "==": return ABoolean.of(order == 0);
+            case "!=": return ABoolean.of(order != 0);
+            default: return err.fail(Result.ErrorType.SYNTAX, "Unknown operator '" + operator + "'");
+        }
+    }
+    
+    // number-on-number without going through asNumber/flatMap
+    static Result<Value> numberOperation(char operator, Value left, Value right) {
+        EvalError err = new EvalError();
+        return err.wrap(applyRaw(operator, left, right, err));
+    }
+    
+    // scalar kernels shared by the Result methods and applyRaw, null means err was set
+    
+    static BigDecimal divideNumbers(BigDecimal leftNum, BigDecimal rightNum, EvalError err) {
+        if (rightNum.compareTo(BigDecimal.ZERO) == 0) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "Division by zero");
+        }
+        
+        try {
+            return leftNum.divide(rightNum, MathContext.DECIMAL128);
+        } catch (ArithmeticException e) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "Division error: " + e.getMessage(), e);
+        }
+    }
+    
+    static BigDecimal moduloNumbers(BigDecimal leftNum, BigDecimal rightNum, EvalError err) {
+        if (rightNum.compareTo(BigDecimal.ZERO) == 0) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "Modulus by zero");
+        }
+        
+        try {
+            return leftNum.remainder(rightNum);
+        } catch (ArithmeticException e) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "Modulus error: " + e.getMessage(), e);
+        }
+    }
+    
+    static BigDecimal powerNumbers(BigDecimal base, BigDecimal expo, EvalError err) {
+        if (base.compareTo(BigDecimal.ZERO) == 0 && expo.compareTo(BigDecimal.ZERO) == 0) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "0^0 is undefined");
+        }
+        try {
+            if (expo.stripTrailingZeros().scale() <= 0) {
+                int e = expo.intValueExact();
+                if (e >= 0) {
+                    return base.pow(e, MathContext.DECIMAL128);
+                }
+                return BigDecimal.ONE
+                    .divide(base.pow(-e, MathContext.DECIMAL128), MathContext.DECIMAL128);
+            }
+            // if fraction fall back to double precision (duh)
+            double d = Math.pow(base.doubleValue(), expo.doubleValue());
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return err.fail(Result.ErrorType.ARITHMETIC, "Power operation resulted in NaN or Infinity");
+            }
+            return BigDecimal.valueOf(d);
+        } catch (ArithmeticException | NumberFormatException e) {
+            return err.fail(Result.ErrorType.ARITHMETIC, "Power operation failed: " + e.getMessage(), e);
+        }
+    }
+    
+    static Result<Value> wrapNumber(BigDecimal result, EvalError err) {
+        return result != null ? Result.ok(ANumber.of(result)) : err.toResult();
+    }
+    
     // normal list dispatcher
     static Result<Value> applyListOperation(Value left, Value right, BinaryOperator op) {
         try {
-            if (!left.type().equals("list")) {
+            if (left.kind() != Kind.LIST) {
                 return Result.error(Result.ErrorType.RUNTIME, "Internal error: left operand is not a list");
             }
             
@@ -244,7 +393,7 @@ public interface Value {
             }
             
             // list-on-list broadcasts
-            if (right.type().equals("list")) {
+            if (right.kind() == Kind.LIST) {
                 return applyListOnListOperation(leftList, right, op);
             } else {
                 return applyBroadcastOperation(leftList, right, op);
@@ -258,7 +407,7 @@ public interface Value {
     // matrix operation dispatcher
     static Result<Value> applyMatrixOperation(Value left, Value right, BinaryOperator op) {
         try {
-            if (!left.type().equals("matrix")) {
+            if (left.kind() != Kind.MATRIX) {
                 return Result.error(Result.ErrorType.RUNTIME, "Internal error: left operand is not a matrix");
             }
 
@@ -271,7 +420,7 @@ public interface Value {
                 return Result.error(Result.ErrorType.VALIDATION, "Matrix operation would create too many elements (max 10000)");
             }
             
-            if (right.type().equals("matrix")) {
+            if (right.kind() == Kind.MATRIX) {
                 return applyMatrixOnMatrixOperation(leftMatrix, right, op);
             } else {
                 return applyMatrixBroadcastOperation(leftMatrix, right, op);
@@ -0,0 +1,199 @@
+package dsh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Streams lists and matrices to an output with head/tail elision.
+ * Only the cells that are actually shown are ever visited, so printing
+ * a huge matrix costs the same as printing a small one.
+ *
+ * @author Ryan Pointer
+ * @version 8/6/25
+ */
+public class ValuePrinter {
+    private static final String ELLIPSIS = "...";
+    private static final String SEPARATOR = ", ";
+    // used by toString/asString, so they stay bounded too
+    static final ValuePrinter DEFAULT = new ValuePrinter();
+    // numbers longer than this many digits (about 3.3 bits each) print as an approximation
+    private static final int MAX_DIGITS = 10_000;
+    private static final int MAX_BITS = (int) (MAX_DIGITS * 3.3219280948873626);
+
+    // list elements shown before and after the "..."
+    private int listHead = 9;
+    private int listTail = 1;
+    // matrix rows and columns shown before and after the "..."
+    private int headRows = 10;
+    private int tailRows = 5;
+    private int headCols = 8;
+    private int tailCols = 2;
+
+    public ValuePrinter() {}
+
+    public ValuePrinter(int headRows, int tailRows, int headCols, int tailCols) {
+        setRows(headRows, tailRows);
+        setCols(headCols, tailCols);
+    }
+
+    public void setRows(int head, int tail) {
+        this.headRows = Math.max(0, head);
+        this.tailRows = Math.max(0, tail);
+    }
+
+    public void setCols(int head, int tail) {
+        this.headCols = Math.max(0, head);
+        this.tailCols = Math.max(0, tail);
+    }
+
+    public void setList(int head, int tail) {
+        this.listHead = Math.max(0, head);
+        this.listTail = Math.max(0, tail);
+    }
+
+    public int getHeadRows() { return headRows; }
+    public int getTailRows() { return tailRows; }
+    public int getHeadCols() { return headCols; }
+    public int getTailCols() { return tailCols; }
+    public int getListHead() { return listHead; }
+    public int getListTail() { return listTail; }
+
+    /**
+     * Render into a String, bounded by the elision settings.
+     */
+    public String render(Value value) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            print(value, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder doesn't throw
+        }
+        return sb.toString();
+    }
+
+    public void print(Value value, Appendable out) throws IOException {
+        if (value instanceof AList) {
+            @SuppressWarnings("unchecked")
+            List<Value> elements = (List<Value>) value.getValue();
+            printList(elements, out);
+        } else if (value instanceof AMatrix) {
+            AMatrix matrix = (AMatrix) value;
+            @SuppressWarnings("unchecked")
+            List<List<Value>> rows = (List<List<Value>>) matrix.getValue();
+            printMatrix(rows, matrix.getRows(), matrix.getCols(), out);
+        } else {
+            out.append(cell(value));
+        }
+    }
+
+    public void printList(List<? extends Value> elements, Appendable out) throws IOException {
+        int size = elements.size();
+        boolean elided = size > listHead + listTail;
+        int head = elided ? listHead : size;
+
+        for (int i = 0; i < head; i++) {
+            if (i > 0) out.append(SEPARATOR);
+            out.append(cell(elements.get(i)));
+        }
+        if (elided) {
+            if (head > 0) out.append(SEPARATOR);
+            out.append(ELLIPSIS);
+            for (int i = size - listTail; i < size; i++) {
+                out.append(SEPARATOR).append(cell(elements.get(i)));
+            }
+        }
+    }
+
+    public void printMatrix(List<List<Value>> matrix, int rows, int cols, Appendable out) throws IOException {
+        boolean rowsElided = rows > headRows + tailRows;
+        boolean colsElided = cols > headCols + tailCols;
+        int shownRows = rowsElided ? headRows + tailRows : rows;
+        int shownCols = colsElided ? headCols + tailCols : cols;
+
+        // render the visible window once, sizing columns as we go
+        String[][] cells = new String[shownRows][shownCols];
+        int[] widths = new int[shownCols];
+        for (int r = 0; r < shownRows; r++) {
+            List<Value> row = matrix.get(sourceIndex(r, rows, headRows, tailRows, rowsElided));
+            for (int c = 0; c < shownCols; c++) {
+                String text = cell(row.get(sourceIndex(c, cols, headCols, tailCols, colsElided)));
+                cells[r][c] = text;
+                widths[c] = Math.max(widths[c], text.length());
+            }
+        }
+
+        for (int r = 0; r < shownRows; r++) {
+            if (r > 0) out.append('\n');
+            if (rowsElided && r == headRows) {
+                out.append(ELLIPSIS).append('\n');
+            }
+            for (int c = 0; c < shownCols; c++) {
+                if (c > 0) out.append(SEPARATOR);
+                if (colsElided && c == headCols) {
+                    out.append(ELLIPSIS).append(SEPARATOR);
+                }
+                pad(out, widths[c] - cells[r][c].length());
+                out.append(cells[r][c]);
+            }
+            if (colsElided && tailCols == 0) {
+                out.append(SEPARATOR).append(ELLIPSIS);
+            }
+        }
+        if (rowsElided && tailRows == 0) {
+            out.append(shownRows > 0 ? "\n" : "").append(ELLIPSIS);
+        }
+        if (rowsElided || colsElided) {
+            out.append("\n[").append(Integer.toString(rows)).append(" x ")
+               .append(Integer.toString(cols)).append(']');
+        }
+    }
+
+    // visible position -> index into the full rows/cols
+    private static int sourceIndex(int shown, int total, int head, int tail, boolean elided) {
+        if (!elided || shown < head) return shown;
+        return total - tail + (shown - head);
+    }
+
+    private static void pad(Appendable out, int n) throws IOException {
+        for (int i = 0; i < n; i++) out.append(' ');
+    }
+
+    private String cell(Value value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof ANumber) {
+            BigDecimal num = ((ANumber) value).getValue();
+            if (isHuge(num)) {
+                return approximate(num);
+            }
+            return num.stripTrailingZeros().toPlainString();
+        }
+        return value.toString(); // nested lists/matrices are bounded by their own printer
+    }
+
+    /**
+     * True when writing out every digit would take longer than it's worth (fib 10^6, 10^5!, ...).
+     */
+    static boolean isHuge(BigDecimal num) {
+        return num.unscaledValue().bitLength() > MAX_BITS;
+    }
+
+    /**
+     * Leading digits and digit count of a huge number, e.g. "~2.82423e+456573 (456574 digits)".
+     * Worked out from the top 64 bits, so it costs nothing next to a full toString.
+     */
+    static String approximate(BigDecimal num) {
+        java.math.BigInteger unscaled = num.unscaledValue().abs();
+        int shift = Math.max(0, unscaled.bitLength() - 64);
+        double top = unscaled.shiftRight(shift).doubleValue();
+        double log10 = Math.log10(top) + shift * Math.log10(2) - num.scale();
+        long exponent = (long) Math.floor(log10);
+        double mantissa = Math.pow(10, log10 - exponent);
+        String sign = num.signum() < 0 ? "-" : "";
+        String digits = num.scale() <= 0 ? " (" + (exponent + 1) + " digits)" : "";
+        return String.format("~%s%.5fe+%d%s", sign, mantissa, exponent, digits);
+    }
+}
@@ -0,0 +1,36 @@
+package dsh;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A thread per task executor on virtual threads when the JVM has them (21+),
+ * daemon platform threads otherwise. Looked up reflectively so the sources still build for Java 8.
+ *
+ * @author Ryan Pointer
+ * @version 8/21/25
+ */
+final class VirtualThreads {
+    private VirtualThreads() {}
+
+    static boolean available() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static ExecutorService newPerTaskExecutor(final String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true); // never keeps the JVM from exiting
+                return thread;
+            });
+        }
+    }
+}